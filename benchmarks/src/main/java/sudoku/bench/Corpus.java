@@ -0,0 +1,131 @@
+package sudoku.bench;
+
+import sudoku.LargeSudokuGenerator;
+import sudoku.LargeSudokuSolver;
+import sudoku.SeqSudokuGenerator;
+import sudoku.SudokuHelper.Difficulty;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * The fixed puzzles every benchmark runs on, one file per board size and Difficulty under /corpus on the class
+ * path, so that results from different commits measure the same work.
+ *
+ * A file holds one puzzle per line, row by row, with '.' for an empty cell and the value in base 36 otherwise.
+ * Lines starting with '#' are comments. The files are checked in, and main writes them from fixed seeds, so
+ * they only change when the generators do; results from before and after such a change are not comparable.
+ */
+public final class Corpus {
+
+    // The number of puzzles per file, by number of subregions.
+    private static final int[] PUZZLES = {0, 0, 0, 32, 16, 8};
+
+    private Corpus() {
+    }
+
+    /**
+     * Loads the puzzles of one board size and difficulty.
+     * @param nRegions the square root of the number of rows
+     * @param diff the difficulty the puzzles were generated with
+     * @return the puzzles, in file order
+     * @throws IOException if the class path has no such file or it is malformed
+     */
+    public static List<int[][]> load(int nRegions, Difficulty diff) throws IOException {
+        String name = resourceName(nRegions, diff);
+        InputStream in = Corpus.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("No corpus for " + name);
+        }
+        int size = nRegions * nRegions;
+        List<int[][]> puzzles = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (line.length() != size * size) {
+                    throw new IOException(name + " holds a line of " + line.length() + " cells");
+                }
+                int[][] grid = new int[size][size];
+                for (int i = 0; i < line.length(); i++) {
+                    char ch = line.charAt(i);
+                    grid[i / size][i % size] = ch == '.' ? 0 : Character.digit(ch, 36);
+                }
+                puzzles.add(grid);
+            }
+        }
+        return puzzles;
+    }
+
+    /**
+     * Loads the puzzles of one board size and difficulty and solves them.
+     * @param nRegions the square root of the number of rows
+     * @param diff the difficulty the puzzles were generated with
+     * @return the solution of every puzzle, in file order
+     */
+    public static List<int[][]> loadSolutions(int nRegions, Difficulty diff) throws Exception {
+        List<int[][]> solutions = new ArrayList<>();
+        for (int[][] puzzle : load(nRegions, diff)) {
+            Integer[][] solution = LargeSudokuSolver.solvePuzzle(puzzle);
+            int[][] grid = new int[solution.length][solution.length];
+            for (int r = 0; r < grid.length; r++) {
+                for (int c = 0; c < grid.length; c++) {
+                    grid[r][c] = solution[r][c];
+                }
+            }
+            solutions.add(grid);
+        }
+        return solutions;
+    }
+
+    static String resourceName(int nRegions, Difficulty diff) {
+        int size = nRegions * nRegions;
+        return "/corpus/" + size + "-" + diff + ".txt";
+    }
+
+    /**
+     * Writes the corpus files of every size and difficulty from a fixed seed.
+     * @param args the resources directory to write into, benchmarks/src/main/resources by default
+     */
+    public static void main(String[] args) throws Exception {
+        Path dir = Paths.get(args.length > 0 ? args[0] : "benchmarks/src/main/resources");
+        for (int nRegions = 3; nRegions < PUZZLES.length; nRegions++) {
+            for (Difficulty diff : Difficulty.values()) {
+                SplittableRandom seeds = new SplittableRandom(31L * nRegions + diff.ordinal());
+                Path file = dir.resolve(resourceName(nRegions, diff).substring(1));
+                Files.createDirectories(file.getParent());
+                try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.US_ASCII))) {
+                    out.println("# " + PUZZLES[nRegions] + " " + diff + " puzzles of " + nRegions * nRegions + " rows");
+                    for (int i = 0; i < PUZZLES[nRegions]; i++) {
+                        long seed = seeds.nextLong();
+                        int[][] puzzle = nRegions == 3
+                                ? SeqSudokuGenerator.pruneCompleteBoard(
+                                        SeqSudokuGenerator.generateTransformedCompleteBoard(nRegions, seed), diff, seed)
+                                : LargeSudokuGenerator.generatePuzzle(nRegions, diff, seed);
+                        StringBuilder line = new StringBuilder();
+                        for (int[] row : puzzle) {
+                            for (int value : row) {
+                                line.append(value == 0 ? '.' : Character.forDigit(value, 36));
+                            }
+                        }
+                        out.println(line);
+                    }
+                }
+                System.out.println("Wrote " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package sudoku.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import sudoku.GranularityController;
+import sudoku.SolutionCounter;
+import sudoku.SudokuHelper.Difficulty;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uniqueness checks, countSolutions(grid, 2), on every puzzle of the corpus. 25x25 boards are left out by default:
+ * proving that one has no second solution can take seconds with the int-mask engine.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CounterBenchmark {
+
+    @Param({"3", "4"})
+    public int nRegions;
+
+    @Param({"EASY", "DIFFICULT", "EVIL"})
+    public Difficulty difficulty;
+
+    private List<int[][]> puzzles;
+
+    @Setup
+    public void setUp() throws Exception {
+        puzzles = Corpus.load(nRegions, difficulty);
+    }
+
+    @Benchmark
+    public void countSequentially(Blackhole bh) throws Exception {
+        for (int[][] puzzle : puzzles) {
+            bh.consume(SolutionCounter.countSolutionsSequentially(puzzle, 2));
+        }
+    }
+
+    @Benchmark
+    public void countSolutions(Workers workers, Blackhole bh) throws Exception {
+        for (int[][] puzzle : puzzles) {
+            bh.consume(SolutionCounter.countSolutions(puzzle, 2, workers.pool, GranularityController.DEFAULT));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package sudoku.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import sudoku.LargeSudokuGenerator;
+import sudoku.ParSudokuGenerator;
+import sudoku.SeqSudokuGenerator;
+import sudoku.SudokuHelper.Difficulty;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pruning the solutions of the corpus puzzles back into puzzles, so the work does not depend on how complete
+ * boards are made, with a fixed seed for the order of EASY puzzles. One operation prunes every solution of one size
+ * and difficulty, which takes seconds on 16x16 boards, hence the fewer iterations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GeneratorBenchmark {
+
+    private static final long SEED = 2016;
+
+    @Param({"3", "4"})
+    public int nRegions;
+
+    @Param({"EASY", "DIFFICULT", "EVIL"})
+    public Difficulty difficulty;
+
+    private List<int[][]> solutions;
+
+    @Setup
+    public void setUp() throws Exception {
+        solutions = Corpus.loadSolutions(nRegions, difficulty);
+    }
+
+    @Benchmark
+    public void seqPrune(Blackhole bh) throws Exception {
+        for (int[][] solution : solutions) {
+            bh.consume(SeqSudokuGenerator.pruneCompleteBoard(solution, difficulty, SEED));
+        }
+    }
+
+    @Benchmark
+    public void parPrune(Workers workers, Blackhole bh) throws Exception {
+        for (int[][] solution : solutions) {
+            bh.consume(ParSudokuGenerator.pruneCompleteBoard(solution, difficulty, SEED, workers.pool));
+        }
+    }
+
+    @Benchmark
+    public void largePrune(Blackhole bh) throws Exception {
+        for (int[][] solution : solutions) {
+            bh.consume(LargeSudokuGenerator.pruneCompleteBoard(solution, difficulty,
+                    LargeSudokuGenerator.DEFAULT_CHECK_NODES, SEED));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package sudoku.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import sudoku.LargeSudokuSolver;
+import sudoku.ParSudokuSolver;
+import sudoku.SearchStrategy;
+import sudoku.SeqSudokuSolver;
+import sudoku.SudokuHelper.Difficulty;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Solving the corpus puzzles. Every operation solves the whole corpus of one size and difficulty, so a score is
+ * the time to solve that fixed set of puzzles.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class SolverBenchmark {
+
+    @Param({"3", "4", "5"})
+    public int nRegions;
+
+    @Param({"EASY", "DIFFICULT", "EVIL"})
+    public Difficulty difficulty;
+
+    private List<int[][]> puzzles;
+
+    @Setup
+    public void setUp() throws Exception {
+        puzzles = Corpus.load(nRegions, difficulty);
+    }
+
+    @Benchmark
+    public void seqSolve(Blackhole bh) throws Exception {
+        for (int[][] puzzle : puzzles) {
+            bh.consume(SeqSudokuSolver.solvePuzzle(puzzle));
+        }
+    }
+
+    @Benchmark
+    public void parSolve(Workers workers, Blackhole bh) throws Exception {
+        for (int[][] puzzle : puzzles) {
+            bh.consume(ParSudokuSolver.solvePuzzle(puzzle, SearchStrategy.DEFAULT, workers.pool));
+        }
+    }
+
+    @Benchmark
+    public void largeSolve(Blackhole bh) throws Exception {
+        for (int[][] puzzle : puzzles) {
+            bh.consume(LargeSudokuSolver.solvePuzzle(puzzle));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package sudoku.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import sudoku.BoardValidationHelper;
+import sudoku.GridView;
+import sudoku.SudokuHelper;
+import sudoku.SudokuHelper.Difficulty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BoardValidationHelper on the solutions of the EVIL corpus puzzles: the rule checks on boxed grids and on views,
+ * and the full check of each solution against its puzzle.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ValidationBenchmark {
+
+    @Param({"3", "4", "5"})
+    public int nRegions;
+
+    private List<Integer[][]> boxed;
+    private List<GridView> views;
+    private List<int[][]> puzzles;
+    private List<int[][]> solutions;
+
+    @Setup
+    public void setUp() throws Exception {
+        boxed = new ArrayList<>();
+        views = new ArrayList<>();
+        puzzles = Corpus.load(nRegions, Difficulty.EVIL);
+        solutions = Corpus.loadSolutions(nRegions, Difficulty.EVIL);
+        for (int[][] solution : solutions) {
+            boxed.add(SudokuHelper.toTwoDIntegerArray(solution));
+            views.add(GridView.of(solution));
+        }
+    }
+
+    @Benchmark
+    public void isValidBoxed(Blackhole bh) {
+        for (Integer[][] grid : boxed) {
+            bh.consume(BoardValidationHelper.isValid(grid));
+        }
+    }
+
+    @Benchmark
+    public void isValidView(Blackhole bh) {
+        for (GridView view : views) {
+            bh.consume(BoardValidationHelper.isValid(view));
+        }
+    }
+
+    @Benchmark
+    public void verifySolution(Blackhole bh) {
+        for (int i = 0; i < solutions.size(); i++) {
+            bh.consume(BoardValidationHelper.verifySolution(puzzles.get(i), solutions.get(i)));
+        }
+    }
+}
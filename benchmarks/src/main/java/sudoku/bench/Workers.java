@@ -0,0 +1,32 @@
+package sudoku.bench;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A dedicated fork/join pool of "threads" workers. Only the benchmarks that take this state are run once per
+ * thread count; the single-threaded ones next to them are not.
+ */
+@State(Scope.Benchmark)
+public class Workers {
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    ForkJoinPool pool;
+
+    @Setup
+    public void setUp() {
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+}
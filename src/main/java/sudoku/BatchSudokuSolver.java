@@ -0,0 +1,282 @@
+package sudoku;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Solves a stream of independent puzzles, parallelizing across puzzles rather than inside each one.
+ *
+ * Puzzles are pulled from the input only when there is room for them: at most maxInFlight puzzles are being
+ * solved or waiting to be delivered at any time, so a slow consumer throttles how fast the input is read.
+ * Results are delivered on the calling thread as soon as they are ready, which may be out of input order; each
+ * result carries the index of its puzzle in the input. The input may be an Iterator, which is advanced when there
+ * is room, or a Flow.Publisher, from which puzzles are requested when there is room.
+ *
+ * Every puzzle is first solved sequentially with a node budget. The few stragglers that exhaust it are solved
+ * again with ParSudokuSolver on the same pool, so hard puzzles get intra-puzzle parallelism without slowing
+ * down the easy majority.
+ */
+public class BatchSudokuSolver {
+
+    /**
+     * The outcome of one puzzle of a batch.
+     */
+    public static final class Result {
+        private final long index;
+        private final int[][] puzzle;
+        private final int[][] solution;
+        private final boolean parallelFallback;
+        private final Throwable error;
+
+        Result(long index, int[][] puzzle, int[][] solution, boolean parallelFallback, Throwable error) {
+            this.index = index;
+            this.puzzle = puzzle;
+            this.solution = solution;
+            this.parallelFallback = parallelFallback;
+            this.error = error;
+        }
+
+        /**
+         * @return the position of the puzzle in the input, starting at 0
+         */
+        public long getIndex() {
+            return index;
+        }
+
+        /**
+         * @return the puzzle as it was read from the input
+         */
+        public int[][] getPuzzle() {
+            return puzzle;
+        }
+
+        /**
+         * @return the solved grid, or null if the puzzle has no solution or could not be solved
+         */
+        public int[][] getSolution() {
+            return solution;
+        }
+
+        /**
+         * @return true if the puzzle exhausted the sequential node budget and was solved in parallel
+         */
+        public boolean usedParallelFallback() {
+            return parallelFallback;
+        }
+
+        /**
+         * @return the exception raised while solving (for example for a malformed grid), or null. Errors such as a
+         * StackOverflowError end up here too, so that one bad puzzle does not leave the batch waiting forever.
+         */
+        public Throwable getError() {
+            return error;
+        }
+    }
+
+    // The pool every puzzle (and every straggler's parallel search) runs on.
+    private final ForkJoinPool pool;
+
+    // The maximum number of puzzles being solved or awaiting delivery.
+    private final int maxInFlight;
+
+    // Sequential node budget after which a puzzle is treated as a straggler.
+    private final long stragglerNodes;
+
+    // The branching heuristic used for every puzzle.
+    private final SearchStrategy strategy;
+
+    /**
+     * Creates a batch solver on the common pool with room for four puzzles per worker and a 100 000 node budget.
+     */
+    public BatchSudokuSolver() {
+        this(ForkJoinPool.commonPool(), 4 * ForkJoinPool.getCommonPoolParallelism(), 100000, SearchStrategy.DEFAULT);
+    }
+
+    /**
+     * @param pool the pool to solve on; it is not shut down
+     * @param maxInFlight the maximum number of puzzles being solved or awaiting delivery
+     * @param stragglerNodes the sequential node budget after which a puzzle is solved in parallel instead
+     * @param strategy the branching heuristic to use
+     */
+    public BatchSudokuSolver(ForkJoinPool pool, int maxInFlight, long stragglerNodes, SearchStrategy strategy) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.pool = pool;
+        this.maxInFlight = maxInFlight;
+        this.stragglerNodes = stragglerNodes;
+        this.strategy = strategy;
+    }
+
+    /**
+     * Solves every puzzle of "puzzles" and hands each result to "sink" on the calling thread. Returns once all
+     * the puzzles have been solved and delivered.
+     * @param puzzles the input; it is only advanced when there is room for another puzzle in flight
+     * @param sink receives the results, possibly out of input order
+     */
+    public void solveAll(Iterator<int[][]> puzzles, Consumer<Result> sink) {
+        Iterator<Result> results = solve(puzzles);
+        while (results.hasNext()) {
+            sink.accept(results.next());
+        }
+    }
+
+    /**
+     * Solves every puzzle "puzzles" publishes and hands each result to "sink" on the calling thread. Puzzles are
+     * requested from the publisher only when there is room for them in flight: maxInFlight at first, then one for
+     * every result delivered. Returns once the publisher has completed and every puzzle has been delivered.
+     * @param puzzles the input
+     * @param sink receives the results, possibly out of input order
+     * @throws IllegalStateException if the publisher signals an error, once the puzzles already received have
+     * been delivered
+     */
+    public void solveAll(Flow.Publisher<int[][]> puzzles, Consumer<Result> sink) {
+        PublisherInput input = new PublisherInput(maxInFlight);
+        puzzles.subscribe(input);
+        long submitted = 0;
+        long delivered = 0;
+        boolean completed = false;
+        Throwable failure = null;
+        try {
+            while (!completed || delivered < submitted) {
+                Object event = input.events.take();
+                if (event instanceof Result) {
+                    delivered++;
+                    sink.accept((Result) event);
+                    if (!completed) {
+                        input.subscription.request(1);
+                    }
+                }
+                else if (event instanceof int[][]) {
+                    submit(submitted++, (int[][]) event, input.events);
+                }
+                else {
+                    completed = true;
+                    failure = event == PublisherInput.COMPLETE ? null : (Throwable) event;
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a batch result", e);
+        }
+        finally {
+            // Stop the publisher if the sink threw or this thread was interrupted.
+            if (!completed && input.subscription != null) {
+                input.subscription.cancel();
+            }
+        }
+        if (failure != null) {
+            throw new IllegalStateException("The puzzle publisher failed", failure);
+        }
+    }
+
+    /**
+     * Lazily solves "puzzles". Each call to next() tops up the in-flight work from the input and then blocks until
+     * some result is ready, so the consumer's pace bounds how far ahead of it the input is read.
+     * @param puzzles the input
+     * @return the results, possibly out of input order
+     */
+    public Iterator<Result> solve(Iterator<int[][]> puzzles) {
+        return new Iterator<Result>() {
+            // Holds at most maxInFlight results: a puzzle is only submitted when there is room for its result.
+            private final BlockingQueue<Result> completed = new LinkedBlockingQueue<>();
+            private long submitted;
+            private long delivered;
+
+            @Override
+            public boolean hasNext() {
+                return delivered < submitted || puzzles.hasNext();
+            }
+
+            @Override
+            public Result next() {
+                while (submitted - delivered < maxInFlight && puzzles.hasNext()) {
+                    submit(submitted++, puzzles.next(), completed);
+                }
+                if (delivered == submitted) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    Result result = completed.take();
+                    delivered++;
+                    return result;
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for a batch result", e);
+                }
+            }
+        };
+    }
+
+    private void submit(long index, int[][] puzzle, BlockingQueue<? super Result> completed) {
+        pool.execute(() -> completed.add(solveOne(index, puzzle)));
+    }
+
+    private Result solveOne(long index, int[][] puzzle) {
+        try {
+            SeqSudokuSolver seqSolver = new SeqSudokuSolver(SudokuHelper.deepCopyIntMatrix(puzzle), strategy);
+            seqSolver.setNodeLimit(stragglerNodes);
+            if (seqSolver.successfulSolve()) {
+                return new Result(index, puzzle, seqSolver.getGrid(), false, null);
+            }
+            if (!seqSolver.wasCancelled()) {
+                return new Result(index, puzzle, null, false, null);
+            }
+            // A straggler: throw the whole pool at it.
+            Integer[][] solution = ParSudokuSolver.solvePuzzle(puzzle, strategy, pool);
+            return new Result(index, puzzle, solution == null ? null : SudokuHelper.toIntMatrix(GridView.of(solution)), true, null);
+        }
+        catch (Exception | Error e) {
+            return new Result(index, puzzle, null, false, e);
+        }
+    }
+
+    /**
+     * Receives the puzzles of a Flow.Publisher. Every signal is queued for the thread running solveAll, together
+     * with the results of the puzzles, so that thread does all the submitting and delivering.
+     */
+    private static final class PublisherInput implements Flow.Subscriber<int[][]> {
+        // Queued when the publisher completes; an error is queued as the Throwable itself.
+        private static final Object COMPLETE = new Object();
+
+        // Puzzles, results, and finally COMPLETE or an error.
+        private final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+
+        // The puzzles requested up front.
+        private final int maxInFlight;
+
+        private volatile Flow.Subscription subscription;
+
+        PublisherInput(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(maxInFlight);
+        }
+
+        @Override
+        public void onNext(int[][] puzzle) {
+            events.add(puzzle);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            events.add(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            events.add(COMPLETE);
+        }
+    }
+}
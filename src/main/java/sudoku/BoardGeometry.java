@@ -0,0 +1,89 @@
+package sudoku;
+
+/**
+ * Precomputed row/column/subgrid lookup tables for a board with nRegions * nRegions rows.
+ * Instances are immutable and shared between every board of the same size.
+ */
+final class BoardGeometry {
+
+    // Only sizes up to 25x25 fit the int bitmasks used by BoardState.
+    static final int MAX_REGIONS = 5;
+
+    // Sizes up to 36x36 fit the long bitmasks used by LargeBoardState.
+    static final int MAX_LARGE_REGIONS = 6;
+
+    private static final BoardGeometry[] CACHE = new BoardGeometry[MAX_LARGE_REGIONS + 1];
+
+    // Each row and column is divided into nRegions subgrids.
+    final int nRegions;
+
+    // The number of rows (and columns, and values).
+    final int size;
+
+    // The number of cells on the board.
+    final int nCells;
+
+    // The row, column and subgrid index of every cell, indexed by r * size + c.
+    final int[] rowOf;
+    final int[] colOf;
+    final int[] boxOf;
+
+    // The distinct cells sharing a row, column or subgrid with each cell.
+    final int[][] peers;
+
+    // The cells of every row (units 0 .. size-1), column (size .. 2*size-1) and subgrid (2*size .. 3*size-1).
+    final int[][] units;
+
+    private BoardGeometry(int nRegions) {
+        this.nRegions = nRegions;
+        this.size = nRegions * nRegions;
+        this.nCells = size * size;
+        rowOf = new int[nCells];
+        colOf = new int[nCells];
+        boxOf = new int[nCells];
+        for (int cell = 0; cell < nCells; cell++) {
+            int r = cell / size;
+            int c = cell % size;
+            rowOf[cell] = r;
+            colOf[cell] = c;
+            boxOf[cell] = (r / nRegions) * nRegions + c / nRegions;
+        }
+        units = new int[3 * size][size];
+        int[] filled = new int[3 * size];
+        for (int cell = 0; cell < nCells; cell++) {
+            units[rowOf[cell]][filled[rowOf[cell]]++] = cell;
+            units[size + colOf[cell]][filled[size + colOf[cell]]++] = cell;
+            units[2 * size + boxOf[cell]][filled[2 * size + boxOf[cell]]++] = cell;
+        }
+        // Every cell has (size - 1) row peers, (size - 1) column peers and the rest of its subgrid outside both.
+        int nPeers = 2 * (size - 1) + (nRegions - 1) * (nRegions - 1);
+        peers = new int[nCells][nPeers];
+        for (int cell = 0; cell < nCells; cell++) {
+            int k = 0;
+            for (int other = 0; other < nCells; other++) {
+                if (other != cell && (rowOf[other] == rowOf[cell] || colOf[other] == colOf[cell] ||
+                        boxOf[other] == boxOf[cell])) {
+                    peers[cell][k++] = other;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the shared geometry for boards with nRegions * nRegions rows.
+     * @param nRegions the square root of the number of rows
+     * @return the lookup tables for that board size
+     */
+    static BoardGeometry of(int nRegions) {
+        if (nRegions < 1 || nRegions > MAX_LARGE_REGIONS) {
+            throw new IllegalArgumentException("Unsupported board size: " + nRegions + " regions");
+        }
+        // Benign race: two threads may both build the tables, but they are identical.
+        BoardGeometry geo = CACHE[nRegions];
+        if (geo == null) {
+            geo = new BoardGeometry(nRegions);
+            CACHE[nRegions] = geo;
+        }
+        return geo;
+    }
+}
@@ -0,0 +1,336 @@
+package sudoku;
+
+import java.util.Arrays;
+
+/**
+ * A sudoku board that keeps per-row, per-column and per-subgrid bitmasks of the values already in use.
+ * Bit (v - 1) of a mask is set when the value v is present in that unit, so checking or enumerating the
+ * candidates of a cell takes a handful of bit operations instead of scanning its row, column and subgrid.
+ * The masks, the set of empty cells and the candidate count of every empty cell are updated incrementally by
+ * place and unplace, which only touch the cell and its peers.
+ *
+ * Besides placements, individual candidates can be excluded from a cell (as constraint propagation does).
+ * Every change is recorded on a trail, so a search can take a mark() before a guess and undo(mark) afterwards
+ * to restore the exact earlier state, however many deductions were made in between.
+ */
+public class BoardState extends CandidateBoard implements GridView {
+
+    // The caller's grid, kept in sync with "cells" if the state was built from one. May be null.
+    private final int[][] grid;
+
+    // Used-value bitmasks of every row, column and subgrid.
+    private final int[] rowUsed;
+    private final int[] colUsed;
+    private final int[] boxUsed;
+
+    // A mask with one bit set for every legal value.
+    private final int allValues;
+
+    // Candidates ruled out by deduction rather than by a value in the cell's row, column or subgrid.
+    private final int[] excluded;
+
+    // The undo log: pairs of (cell << 1 | kind, data), where kind 0 is a placement of value "data" and
+    // kind 1 is an exclusion of the candidates in mask "data".
+    private int[] trail;
+    private int trailSize;
+
+    /**
+     * Builds the state for "grid". The grid is not copied: placements made through this state are written
+     * back to it, so it must not be modified by anyone else while the state is in use.
+     * @param grid a square sudoku grid with 0 for empty cells
+     * @throws Exception if the grid is not a square matrix that can be divided into subregions
+     */
+    public BoardState(int[][] grid) throws Exception {
+        this(squareView(grid), grid);
+    }
+
+    /**
+     * Builds a state from any view of a board, such as a packed record, without inflating it to an int[][].
+     * The state has no backing grid: read the result through get, toGrid, or the state itself as a GridView.
+     * @param view the givens of the board, 0 for empty cells
+     * @throws Exception if the board cannot be divided into subregions or holds an out-of-range value
+     */
+    public BoardState(GridView view) throws Exception {
+        this(view, null);
+    }
+
+    private BoardState(GridView view, int[][] grid) throws Exception {
+        super(geometry(view.size()));
+        this.grid = grid;
+        this.rowUsed = new int[geo.size];
+        this.colUsed = new int[geo.size];
+        this.boxUsed = new int[geo.size];
+        this.allValues = (1 << geo.size) - 1;
+        this.excluded = new int[geo.nCells];
+        this.trail = new int[4 * geo.nCells];
+
+        for (int r = 0; r < geo.size; r++) {
+            for (int c = 0; c < geo.size; c++) {
+                int value = view.get(r, c);
+                if (value == 0) {
+                    continue;
+                }
+                if (value < 0 || value > geo.size) {
+                    throw new Exception("Cell (" + r + ", " + c + ") holds " + value + ", which is out of range!");
+                }
+                int cell = r * geo.size + c;
+                if (!canPlace(cell, value)) {
+                    contradiction = true;
+                }
+                set(cell, value);
+            }
+        }
+        for (int cell = 0; cell < geo.nCells; cell++) {
+            if (cells[cell] == 0) {
+                addEmpty(cell);
+                candidateCount[cell] = Integer.bitCount(candidates(cell));
+            }
+        }
+    }
+
+    private static BoardGeometry geometry(int size) throws Exception {
+        if (Math.pow(Math.sqrt(size), 2) != size) {
+            throw new Exception("The input must be a square matrix that can be easily divided into subregions!");
+        }
+        if (size > BoardGeometry.MAX_REGIONS * BoardGeometry.MAX_REGIONS) {
+            throw new Exception("Boards larger than 25x25 need LargeSudokuSolver!");
+        }
+        return BoardGeometry.of((int) Math.sqrt(size));
+    }
+
+    private static GridView squareView(int[][] grid) throws Exception {
+        if (grid.length != grid[0].length) {
+            throw new Exception("The input must be a square matrix that can be easily divided into subregions!");
+        }
+        return GridView.of(grid);
+    }
+
+    /**
+     * Copy constructor. The copy owns a fresh grid, so it can be searched independently of the original.
+     */
+    private BoardState(BoardState other) {
+        super(other);
+        this.rowUsed = other.rowUsed.clone();
+        this.colUsed = other.colUsed.clone();
+        this.boxUsed = other.boxUsed.clone();
+        this.allValues = other.allValues;
+        this.excluded = other.excluded.clone();
+        // The copy starts with an empty trail: it cannot undo past the point it was copied at.
+        this.trail = new int[other.trail.length];
+        this.grid = other.grid == null ? null : toGrid();
+    }
+
+    /**
+     * Creates an independent copy of this state.
+     * @return a deep copy backed by its own grid
+     */
+    public BoardState copy() {
+        return new BoardState(this);
+    }
+
+    /**
+     * @return the number of subgrids along each row and column
+     */
+    public int nRegions() {
+        return geo.nRegions;
+    }
+
+    /**
+     * @return the number of cells on the board
+     */
+    public int cellCount() {
+        return geo.nCells;
+    }
+
+    /**
+     * Counts the empty peers of "cell" that would lose "value" as a candidate if it were placed there.
+     * @param cell a cell index r * size + c
+     * @param value a candidate of the cell
+     * @return the number of peers still able to hold "value"
+     */
+    public int peersWithCandidate(int cell, int value) {
+        int bit = 1 << (value - 1);
+        int count = 0;
+        for (int peer : geo.peers[cell]) {
+            if (cells[peer] == 0 && (candidates(peer) & bit) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the index of the first empty cell in row-major order, or -1 if the board is full
+     */
+    public int firstEmptyCell() {
+        for (int cell = 0; cell < cells.length; cell++) {
+            if (cells[cell] == 0) {
+                return cell;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Computes the values that can be placed in "cell" without violating a sudoku rule.
+     * @param cell a cell index r * size + c
+     * @return a mask in which bit (v - 1) is set for every legal value v
+     */
+    public int candidates(int cell) {
+        return ~(rowUsed[geo.rowOf[cell]] | colUsed[geo.colOf[cell]] | boxUsed[geo.boxOf[cell]] | excluded[cell])
+                & allValues;
+    }
+
+    @Override
+    long candidateMask(int cell) {
+        return candidates(cell);
+    }
+
+    @Override
+    long unitMask(int unit) {
+        int size = geo.size;
+        if (unit < size) {
+            return rowUsed[unit];
+        }
+        return unit < 2 * size ? colUsed[unit - size] : boxUsed[unit - 2 * size];
+    }
+
+    @Override
+    long valueMask() {
+        return allValues;
+    }
+
+    /**
+     * Checks to see if "value" can be placed in "cell" without violating a sudoku rule.
+     * @param cell a cell index r * size + c
+     * @param value the value to be placed
+     * @return true if the value is safe to place, false otherwise
+     */
+    public boolean canPlace(int cell, int value) {
+        return (candidates(cell) & (1 << (value - 1))) != 0;
+    }
+
+    /**
+     * Places "value" in the empty cell "cell". The caller is responsible for checking canPlace first.
+     * @param cell a cell index r * size + c
+     * @param value the value to be placed
+     */
+    @Override
+    public void place(int cell, int value) {
+        push(cell << 1, value);
+        set(cell, value);
+        removeEmpty(cell);
+        updatePeerCounts(cell);
+    }
+
+    /**
+     * Clears a cell previously filled by place, releasing its value in the row, column and subgrid.
+     * The placement must be the most recent change to the board; use mark and undo otherwise.
+     * @param cell a cell index r * size + c
+     */
+    public void unplace(int cell) {
+        trailSize -= 2;
+        clear(cell);
+    }
+
+    /**
+     * Rules out the candidates in "mask" for the empty cell "cell" without placing anything.
+     * @param cell a cell index r * size + c
+     * @param mask the values to exclude, bit (v - 1) for value v
+     * @return true if at least one candidate was removed
+     */
+    public boolean exclude(int cell, int mask) {
+        int removed = mask & candidates(cell);
+        if (removed == 0 || cells[cell] != 0) {
+            return false;
+        }
+        push(cell << 1 | 1, removed);
+        excluded[cell] |= removed;
+        candidateCount[cell] -= Integer.bitCount(removed);
+        return true;
+    }
+
+    @Override
+    boolean excludeMask(int cell, long mask) {
+        // Bits above size() are never candidates, so dropping them is harmless.
+        return exclude(cell, (int) mask);
+    }
+
+    /**
+     * @return a position in the trail that undo can later roll back to
+     */
+    public int mark() {
+        return trailSize;
+    }
+
+    /**
+     * Reverts every placement and exclusion made since "mark" was taken, most recent first.
+     * @param mark a value previously returned by mark()
+     */
+    public void undo(int mark) {
+        while (trailSize > mark) {
+            trailSize -= 2;
+            int cell = trail[trailSize] >> 1;
+            if ((trail[trailSize] & 1) == 0) {
+                clear(cell);
+            }
+            else {
+                int restored = trail[trailSize + 1];
+                excluded[cell] &= ~restored;
+                candidateCount[cell] += Integer.bitCount(restored);
+            }
+        }
+    }
+
+    private void push(int op, int data) {
+        if (trailSize + 2 > trail.length) {
+            trail = Arrays.copyOf(trail, trail.length * 2);
+        }
+        trail[trailSize] = op;
+        trail[trailSize + 1] = data;
+        trailSize += 2;
+    }
+
+    private void clear(int cell) {
+        int mask = ~(1 << (cells[cell] - 1));
+        rowUsed[geo.rowOf[cell]] &= mask;
+        colUsed[geo.colOf[cell]] &= mask;
+        boxUsed[geo.boxOf[cell]] &= mask;
+        cells[cell] = 0;
+        if (grid != null) {
+            grid[geo.rowOf[cell]][geo.colOf[cell]] = 0;
+        }
+
+        addEmpty(cell);
+        candidateCount[cell] = Integer.bitCount(candidates(cell));
+
+        updatePeerCounts(cell);
+    }
+
+    // Only the peers of a changed cell can gain or lose a candidate.
+    private void updatePeerCounts(int cell) {
+        for (int peer : geo.peers[cell]) {
+            if (cells[peer] == 0) {
+                candidateCount[peer] = Integer.bitCount(candidates(peer));
+            }
+        }
+    }
+
+    private void set(int cell, int value) {
+        int bit = 1 << (value - 1);
+        rowUsed[geo.rowOf[cell]] |= bit;
+        colUsed[geo.colOf[cell]] |= bit;
+        boxUsed[geo.boxOf[cell]] |= bit;
+        cells[cell] = value;
+        if (grid != null) {
+            grid[geo.rowOf[cell]][geo.colOf[cell]] = value;
+        }
+    }
+
+    /**
+     * @return the grid this state writes through to, or null if it has none
+     */
+    public int[][] getGrid() {
+        return grid;
+    }
+}
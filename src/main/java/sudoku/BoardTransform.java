@@ -0,0 +1,172 @@
+package sudoku;
+
+import java.util.SplittableRandom;
+
+/**
+ * A validity-preserving transform of a sudoku board: an optional transposition, then a permutation of the rows
+ * and one of the columns that keep every row (column) in its band (stack) and move bands (stacks) as a whole, then
+ * a relabelling of the digits. Each of these maps valid boards to valid boards, and so does their composition.
+ *
+ * Applying a random transform to a fixed pattern board produces a complete board in O(size^2) time for any number
+ * of subregions, with no search at all. The boards are drawn uniformly from the transforms of the pattern board,
+ * which is a very large family (over 10^12 distinct 9x9 boards) but not every complete board there is.
+ */
+public final class BoardTransform {
+
+    // Each row and column is divided into nRegions subgrids.
+    private final int nRegions;
+
+    // Whether the source board is read column by column.
+    private final boolean transpose;
+
+    // The (possibly transposed) source row of every row and source column of every column.
+    private final int[] rows;
+    private final int[] cols;
+
+    // The new value of every digit, indexed by the old value; digits[0] == 0 keeps empty cells empty.
+    private final int[] digits;
+
+    BoardTransform(int nRegions, boolean transpose, int[] rows, int[] cols, int[] digits) {
+        this.nRegions = nRegions;
+        this.transpose = transpose;
+        this.rows = rows;
+        this.cols = cols;
+        this.digits = digits;
+    }
+
+    /**
+     * @param nRegions the square root of the number of rows
+     * @return the transform that leaves every board of that size unchanged
+     */
+    public static BoardTransform identity(int nRegions) {
+        int size = nRegions * nRegions;
+        return new BoardTransform(nRegions, false, identityPermutation(size), identityPermutation(size),
+                identityPermutation(size + 1));
+    }
+
+    /**
+     * Draws a transform uniformly from all the transforms of the given size.
+     * @param nRegions the square root of the number of rows
+     * @param random the source of randomness
+     * @return a random transform
+     */
+    public static BoardTransform random(int nRegions, SplittableRandom random) {
+        int size = nRegions * nRegions;
+        int[] digits = identityPermutation(size + 1);
+        // Never move the 0 of empty cells.
+        for (int i = size; i > 1; i--) {
+            swap(digits, i, 1 + random.nextInt(i));
+        }
+        return new BoardTransform(nRegions, random.nextBoolean(), randomLines(nRegions, random),
+                randomLines(nRegions, random), digits);
+    }
+
+    /**
+     * A permutation of the lines of a board that shuffles the bands, then the lines inside every band.
+     */
+    private static int[] randomLines(int nRegions, SplittableRandom random) {
+        int[] bands = identityPermutation(nRegions);
+        SudokuHelper.shuffle(bands, random);
+        int[] lines = new int[nRegions * nRegions];
+        int[] inBand = identityPermutation(nRegions);
+        for (int b = 0; b < nRegions; b++) {
+            SudokuHelper.shuffle(inBand, random);
+            for (int i = 0; i < nRegions; i++) {
+                lines[b * nRegions + i] = bands[b] * nRegions + inBand[i];
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @return the transform that undoes this one, so that inverse().apply(apply(board)) equals board
+     */
+    public BoardTransform inverse() {
+        int[] rowsInverse = invert(rows);
+        int[] colsInverse = invert(cols);
+        // Transposing swaps the roles of the row and column permutations.
+        return new BoardTransform(nRegions, transpose, transpose ? colsInverse : rowsInverse,
+                transpose ? rowsInverse : colsInverse, invert(digits));
+    }
+
+    /**
+     * Applies the transform to "board", which is not modified.
+     * @param board a board of nRegions^2 rows, complete or not, with 0 for empty cells
+     * @return a new grid holding the transformed board
+     */
+    public int[][] apply(GridView board) {
+        int size = rows.length;
+        if (board.size() != size) {
+            throw new IllegalArgumentException("Expected a board of size " + size + ", got " + board.size());
+        }
+        int[][] grid = new int[size][size];
+        for (int r = 0; r < size; r++) {
+            int[] row = grid[r];
+            for (int c = 0; c < size; c++) {
+                row[c] = digits[transpose ? board.get(cols[c], rows[r]) : board.get(rows[r], cols[c])];
+            }
+        }
+        return grid;
+    }
+
+    public int[][] apply(int[][] grid) {
+        return apply(GridView.of(grid));
+    }
+
+    /**
+     * Builds the standard pattern board, whose row r is the sequence 1 .. size shifted left by
+     * nRegions * (r % nRegions) + r / nRegions.
+     * @param nRegions the square root of the number of rows
+     * @return a complete, valid board of nRegions^2 rows
+     */
+    public static int[][] patternBoard(int nRegions) {
+        int size = nRegions * nRegions;
+        int[][] grid = new int[size][size];
+        for (int r = 0; r < size; r++) {
+            int shift = nRegions * (r % nRegions) + r / nRegions;
+            for (int c = 0; c < size; c++) {
+                grid[r][c] = (shift + c) % size + 1;
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Creates a complete, valid board by applying a random transform to the pattern board.
+     * @param nRegions the square root of the number of rows
+     * @param random the source of randomness
+     * @return a new complete board of nRegions^2 rows
+     */
+    public static int[][] randomCompleteBoard(int nRegions, SplittableRandom random) {
+        long start = System.nanoTime();
+        int[][] grid = random(nRegions, random).apply(patternBoard(nRegions));
+        SearchStats.recordPhase(SearchStats.Phase.GENERATE, grid.length, null, start);
+        return grid;
+    }
+
+    public static int[][] randomCompleteBoard(int nRegions) {
+        return randomCompleteBoard(nRegions, SudokuHelper.threadRandom());
+    }
+
+    private static int[] identityPermutation(int n) {
+        int[] permutation = new int[n];
+        for (int i = 0; i < n; i++) {
+            permutation[i] = i;
+        }
+        return permutation;
+    }
+
+    private static int[] invert(int[] permutation) {
+        int[] inverse = new int[permutation.length];
+        for (int i = 0; i < permutation.length; i++) {
+            inverse[permutation[i]] = i;
+        }
+        return inverse;
+    }
+
+    private static void swap(int[] values, int i, int j) {
+        int t = values[i];
+        values[i] = values[j];
+        values[j] = t;
+    }
+}
@@ -1,26 +1,247 @@
 package sudoku;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Created by sujayt123 on 4/15/16.
+ *
+ * Checks boards in a single pass over their cells, with one bitmask of the values seen so far per row, column and
+ * subgrid. The masks are reused by every check on the same thread, so a check of a GridView allocates nothing
+ * (and one of an array only the view over it) unless it finds a violation. Boards of up to 64x64 cells are
+ * supported.
  */
 public class BoardValidationHelper {
 
+    // The largest number of rows a check supports: one bit per value in a long mask.
+    public static final int MAX_SIZE = 64;
+
+    /**
+     * The rules a board can break.
+     */
+    public enum Kind {
+        // The grid is not square, its size is not a perfect square up to MAX_SIZE, or it differs from the puzzle.
+        BAD_SHAPE,
+        // A value is negative or larger than the number of rows.
+        OUT_OF_RANGE,
+        DUPLICATE_IN_ROW,
+        DUPLICATE_IN_COLUMN,
+        DUPLICATE_IN_BOX,
+        // A solution leaves a cell empty.
+        EMPTY_CELL,
+        // A solution changes a given of its puzzle.
+        GIVEN_CHANGED
+    }
+
+    /**
+     * One broken rule, at the cell where it was found.
+     */
+    public static final class Violation {
+        private final Kind kind;
+        private final int row;
+        private final int col;
+        private final int value;
+        private final int expected;
+
+        Violation(Kind kind, int row, int col, int value, int expected) {
+            this.kind = kind;
+            this.row = row;
+            this.col = col;
+            this.value = value;
+            this.expected = expected;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return the row of the cell, or -1 for a BAD_SHAPE of the whole grid
+         */
+        public int getRow() {
+            return row;
+        }
+
+        /**
+         * @return the column of the cell, or -1 for a BAD_SHAPE violation
+         */
+        public int getCol() {
+            return col;
+        }
+
+        /**
+         * @return the value found in the cell
+         */
+        public int getValue() {
+            return value;
+        }
+
+        /**
+         * @return the given of the puzzle for GIVEN_CHANGED, 0 otherwise
+         */
+        public int getExpected() {
+            return expected;
+        }
+
+        @Override
+        public String toString() {
+            if (kind == Kind.BAD_SHAPE) {
+                return row < 0 ? "BAD_SHAPE" : "BAD_SHAPE at row " + row;
+            }
+            String cell = kind + " at (" + row + ", " + col + "): " + value;
+            return kind == Kind.GIVEN_CHANGED ? cell + " instead of " + expected : cell;
+        }
+    }
+
+    /**
+     * The result of a check: every rule the board breaks, in row-major order of the cells, or none.
+     */
+    public static final class Report {
+        // Shared by every check that finds nothing, so a valid board costs no allocation.
+        static final Report VALID = new Report(Collections.<Violation>emptyList());
+
+        private final List<Violation> violations;
+
+        Report(List<Violation> violations) {
+            this.violations = violations;
+        }
+
+        public boolean isValid() {
+            return violations.isEmpty();
+        }
+
+        /**
+         * @return the violations found, in the order of the cells they were found at
+         */
+        public List<Violation> getViolations() {
+            return violations;
+        }
+
+        @Override
+        public String toString() {
+            return isValid() ? "valid" : violations.toString();
+        }
+    }
+
+    // The row, column and box masks of the current thread, grown on demand.
+    private static final ThreadLocal<long[]> MASKS = ThreadLocal.withInitial(() -> new long[3 * 9]);
+
+    // Boards per leaf task of the batch checks.
+    private static final int BATCH_THRESHOLD = 64;
+
     public static boolean isValid(Integer[][] grid) {
-        return isValidAlongRows(grid) && isValidAlongCols(grid) && isValidinSubgrids(grid);
+        return isSquare(grid) && scan(GridView.of(grid), null, false, null);
+    }
+
+    /**
+     * Checks that no value repeats in a row, column or subgrid of "board", reading it in place.
+     * @param board any view of a board, e.g. a PackedBoard, with 0 for empty cells
+     * @return true if the filled cells break no rule
+     */
+    public static boolean isValid(GridView board) {
+        return nRegionsOf(board.size()) > 0 && scan(board, null, false, null);
+    }
+
+    /**
+     * Checks the filled cells of "board" against the rules, without stopping at the first violation.
+     * @param board any view of a board, with 0 for empty cells
+     * @return every broken rule, or a valid report
+     */
+    public static Report validate(GridView board) {
+        if (nRegionsOf(board.size()) == 0) {
+            return badShape(-1);
+        }
+        return report(board, null, false);
+    }
+
+    /**
+     * Checks the filled cells of "grid" against the rules, without stopping at the first violation.
+     * @param grid a sudoku grid with 0 for empty cells
+     * @return every broken rule, or a valid report
+     */
+    public static Report validate(int[][] grid) {
+        Report bad = checkShape(grid);
+        return bad != null ? bad : validate(GridView.of(grid));
+    }
+
+    /**
+     * Checks that "solution" solves "puzzle": it has the same shape, every cell is filled, no rule is broken, and
+     * every given of the puzzle is kept.
+     * @param puzzle the puzzle that was solved, with 0 for empty cells
+     * @param solution the claimed solution
+     * @return every problem found, or a valid report
+     */
+    public static Report verifySolution(int[][] puzzle, int[][] solution) {
+        Report bad = checkShape(solution);
+        if (bad == null) {
+            bad = checkShape(puzzle);
+        }
+        if (bad != null) {
+            return bad;
+        }
+        return verifySolution(GridView.of(puzzle), GridView.of(solution));
+    }
+
+    /**
+     * Checks that "solution" solves "puzzle", like verifySolution(int[][], int[][]), reading both in place.
+     */
+    public static Report verifySolution(GridView puzzle, GridView solution) {
+        if (nRegionsOf(solution.size()) == 0 || puzzle.size() != solution.size()) {
+            return badShape(-1);
+        }
+        return report(solution, puzzle, true);
+    }
+
+    public static Report verifySolution(int[][] puzzle, Integer[][] solution) {
+        Report bad = checkShape(puzzle);
+        if (bad != null) {
+            return bad;
+        }
+        return isSquare(solution) ? verifySolution(GridView.of(puzzle), GridView.of(solution)) : badShape(-1);
+    }
+
+    /**
+     * Checks many boards at once, splitting them among the workers of "pool".
+     * @param boards the boards to check, with 0 for empty cells
+     * @param pool the pool to check on; it is not shut down
+     * @return the report of every board, in the order of "boards"
+     */
+    public static List<Report> validateAll(List<int[][]> boards, ForkJoinPool pool) {
+        Report[] reports = new Report[boards.size()];
+        pool.invoke(new BatchCheck(null, boards, reports, 0, reports.length));
+        return Arrays.asList(reports);
+    }
+
+    /**
+     * Verifies many solutions at once, splitting them among the workers of "pool".
+     * @param puzzles the puzzles that were solved
+     * @param solutions the claimed solution of each puzzle, at the same index
+     * @param pool the pool to check on; it is not shut down
+     * @return the report of every solution, in the order of "solutions"
+     */
+    public static List<Report> verifyAll(List<int[][]> puzzles, List<int[][]> solutions, ForkJoinPool pool) {
+        if (puzzles.size() != solutions.size()) {
+            throw new IllegalArgumentException("Every solution needs its puzzle");
+        }
+        Report[] reports = new Report[solutions.size()];
+        pool.invoke(new BatchCheck(puzzles, solutions, reports, 0, reports.length));
+        return Arrays.asList(reports);
     }
 
     public static boolean isValidAlongRows(Integer[][] grid) {
         for (int i = 0; i < grid.length; i++) {
-            HashMap<Integer, Boolean> isInRow = new HashMap<>();
-            for (int j = 0; j < grid[0].length; j++) {
-                // If we encounter a key that we've visited previously in the row...
-                if (grid[i][j] != 0 && isInRow.containsKey(grid[i][j])) {
-                    System.out.println("Not valid in rows");
+            long seen = 0;
+            for (int j = 0; j < grid[i].length; j++) {
+                // If we encounter a value that we've visited previously in the row...
+                long bit = bitOf(grid[i][j]);
+                if ((seen & bit) != 0) {
                     return false;
                 }
-                isInRow.put(grid[i][j], true);
+                seen |= bit;
             }
         }
         return true;
@@ -28,14 +249,14 @@ public class BoardValidationHelper {
 
     public static boolean isValidAlongCols(Integer[][] grid) {
         for (int i = 0; i < grid[0].length; i++) {
-            HashMap<Integer, Boolean> isInRow = new HashMap<>();
+            long seen = 0;
             for (int j = 0; j < grid.length; j++) {
-                // If we encounter a key that we've visited previously in the column...
-                if (grid[j][i] != 0 && isInRow.containsKey(grid[j][i])) {
-                    System.out.println("Not valid in cols");
+                // If we encounter a value that we've visited previously in the column...
+                long bit = bitOf(grid[j][i]);
+                if ((seen & bit) != 0) {
                     return false;
                 }
-                isInRow.put(grid[j][i], true);
+                seen |= bit;
             }
         }
         return true;
@@ -46,22 +267,187 @@ public class BoardValidationHelper {
         // A pair of (i, j) determines a unique subgrid of the board.
         for (int i = 0; i < nRegions; i++) {
             for (int j = 0; j < nRegions; j++) {
-                int startRow = i * nRegions;
-                int endRow = (i + 1) * nRegions - 1;
-                int startCol = j * nRegions;
-                int endCol = (j + 1) * nRegions - 1;
-                HashMap<Integer, Boolean> isInSubgrid = new HashMap<>();
-                for (int k = startRow; k <= endRow; k++) {
-                    for (int l = startCol; l <= endCol; l++) {
-                        if (grid[k][l] != 0 && isInSubgrid.containsKey(grid[k][l])) {
-                            System.out.println("Not valid in subgrids");
+                long seen = 0;
+                for (int k = i * nRegions; k < (i + 1) * nRegions; k++) {
+                    for (int l = j * nRegions; l < (j + 1) * nRegions; l++) {
+                        long bit = bitOf(grid[k][l]);
+                        if ((seen & bit) != 0) {
                             return false;
                         }
-                        isInSubgrid.put(grid[k][l], true);
+                        seen |= bit;
                     }
                 }
             }
         }
         return true;
     }
+
+    /**
+     * @return the mask bit of "value", or 0 for an empty cell or a value no mask can hold
+     */
+    private static long bitOf(int value) {
+        return value < 1 || value > MAX_SIZE ? 0 : 1L << (value - 1);
+    }
+
+    /**
+     * The single pass behind every check. Reads each cell of "board" once and, if "violations" is null, stops at
+     * the first broken rule.
+     * @param board a board whose size nRegionsOf accepts
+     * @param puzzle the givens "board" must keep, or null
+     * @param complete whether an empty cell is a violation
+     * @param violations where to add the broken rules, or null to stop at the first one
+     * @return true if no rule is broken
+     */
+    private static boolean scan(GridView board, GridView puzzle, boolean complete, List<Violation> violations) {
+        int size = board.size();
+        int nRegions = nRegionsOf(size);
+        long[] masks = MASKS.get();
+        if (masks.length < 3 * size) {
+            masks = new long[3 * size];
+            MASKS.set(masks);
+        }
+        // Rows use masks[0, size), columns masks[size, 2 size) and boxes masks[2 size, 3 size).
+        Arrays.fill(masks, 0, 3 * size, 0L);
+        boolean valid = true;
+        for (int r = 0; r < size; r++) {
+            int boxBase = 2 * size + (r / nRegions) * nRegions;
+            for (int c = 0; c < size; c++) {
+                int value = board.get(r, c);
+                if (puzzle != null) {
+                    int given = puzzle.get(r, c);
+                    if (given != 0 && given != value) {
+                        valid = false;
+                        if (violations == null) {
+                            return false;
+                        }
+                        violations.add(new Violation(Kind.GIVEN_CHANGED, r, c, value, given));
+                    }
+                }
+                if (value == 0) {
+                    if (complete) {
+                        valid = false;
+                        if (violations == null) {
+                            return false;
+                        }
+                        violations.add(new Violation(Kind.EMPTY_CELL, r, c, 0, 0));
+                    }
+                    continue;
+                }
+                if (value < 0 || value > size) {
+                    valid = false;
+                    if (violations == null) {
+                        return false;
+                    }
+                    violations.add(new Violation(Kind.OUT_OF_RANGE, r, c, value, 0));
+                    continue;
+                }
+                long bit = 1L << (value - 1);
+                int col = size + c;
+                int box = boxBase + c / nRegions;
+                if (((masks[r] | masks[col] | masks[box]) & bit) != 0) {
+                    valid = false;
+                    if (violations == null) {
+                        return false;
+                    }
+                    if ((masks[r] & bit) != 0) {
+                        violations.add(new Violation(Kind.DUPLICATE_IN_ROW, r, c, value, 0));
+                    }
+                    if ((masks[col] & bit) != 0) {
+                        violations.add(new Violation(Kind.DUPLICATE_IN_COLUMN, r, c, value, 0));
+                    }
+                    if ((masks[box] & bit) != 0) {
+                        violations.add(new Violation(Kind.DUPLICATE_IN_BOX, r, c, value, 0));
+                    }
+                }
+                masks[r] |= bit;
+                masks[col] |= bit;
+                masks[box] |= bit;
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * @return the number of subgrids along a side of a board of "size" rows, or 0 if no check supports it
+     */
+    private static int nRegionsOf(int size) {
+        int nRegions = (int) Math.round(Math.sqrt(size));
+        return size > 0 && size <= MAX_SIZE && nRegions * nRegions == size ? nRegions : 0;
+    }
+
+    /**
+     * @return null if "grid" is a square grid of a supported size, otherwise a BAD_SHAPE report naming the first
+     * row that is missing or of the wrong length
+     */
+    private static Report checkShape(int[][] grid) {
+        if (grid == null || nRegionsOf(grid.length) == 0) {
+            return badShape(-1);
+        }
+        for (int r = 0; r < grid.length; r++) {
+            if (grid[r] == null || grid[r].length != grid.length) {
+                return badShape(r);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSquare(Integer[][] grid) {
+        for (Integer[] row : grid) {
+            if (row == null || row.length != grid.length) {
+                return false;
+            }
+        }
+        return nRegionsOf(grid.length) > 0;
+    }
+
+    /**
+     * Checks "board" like scan, stopping at the first violation, and only when there is one scans it again to
+     * list them all, so a valid board costs no allocation.
+     */
+    private static Report report(GridView board, GridView puzzle, boolean complete) {
+        if (scan(board, puzzle, complete, null)) {
+            return Report.VALID;
+        }
+        List<Violation> violations = new ArrayList<>();
+        scan(board, puzzle, complete, violations);
+        return new Report(Collections.unmodifiableList(violations));
+    }
+
+    private static Report badShape(int row) {
+        return new Report(Collections.singletonList(new Violation(Kind.BAD_SHAPE, row, -1, 0, 0)));
+    }
+
+    /**
+     * Checks the boards in [start, end) of a batch, splitting the range while it is larger than BATCH_THRESHOLD.
+     */
+    private static final class BatchCheck extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<int[][]> puzzles;
+        private final List<int[][]> boards;
+        private final Report[] reports;
+        private final int start;
+        private final int end;
+
+        BatchCheck(List<int[][]> puzzles, List<int[][]> boards, Report[] reports, int start, int end) {
+            this.puzzles = puzzles;
+            this.boards = boards;
+            this.reports = reports;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > BATCH_THRESHOLD) {
+                int mid = (start + end) >>> 1;
+                invokeAll(new BatchCheck(puzzles, boards, reports, start, mid),
+                        new BatchCheck(puzzles, boards, reports, mid, end));
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                reports[i] = puzzles == null ? validate(boards.get(i)) : verifySolution(puzzles.get(i), boards.get(i));
+            }
+        }
+    }
 }
@@ -0,0 +1,66 @@
+package sudoku;
+
+/**
+ * A flag that tells running searches to stop. Sequential engines poll it every POLL_INTERVAL nodes, so a
+ * cancelled search unwinds after a few more nodes at most; parallel tasks check it before doing any work.
+ *
+ * A token may have a parent, in which case it also reports cancellation once the parent is cancelled, and passes
+ * every poll on to it. This lets a single solve stop on its own result while still honouring a caller's token or
+ * SearchBudget.
+ */
+public class CancellationToken {
+
+    // Sequential searches poll the token once every POLL_INTERVAL nodes. Must be a power of two.
+    public static final int POLL_INTERVAL = 16;
+
+    // Mask that turns a node counter into a poll check: (nodes & POLL_MASK) == 0.
+    static final int POLL_MASK = POLL_INTERVAL - 1;
+
+    // A token that is never cancelled. It is shared, so cancelling it does nothing: code that cancels the token it
+    // was given when it is done must not stop every other search that runs without one.
+    public static final CancellationToken NONE = new CancellationToken() {
+        @Override
+        public void cancel() {
+        }
+    };
+
+    // The token this one inherits cancellation from, or null.
+    private final CancellationToken parent;
+
+    private volatile boolean cancelled;
+
+    public CancellationToken() {
+        this(null);
+    }
+
+    /**
+     * @param parent a token whose cancellation also cancels this one, or null
+     */
+    public CancellationToken(CancellationToken parent) {
+        this.parent = parent == NONE ? null : parent;
+    }
+
+    /**
+     * Asks every search holding this token (or a child of it) to stop. Does nothing on NONE.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if this token or one of its ancestors has been cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled || (parent != null && parent.isCancelled());
+    }
+
+    /**
+     * Called by a search every POLL_INTERVAL nodes, and by a parallel task at every node it expands, with the
+     * number of nodes visited since its last call. Tokens that budget the work, like SearchBudget, count them.
+     * @param nodes the nodes visited since the last poll of the same search
+     * @return true if the search should stop
+     */
+    public boolean poll(int nodes) {
+        return cancelled || (parent != null && parent.poll(nodes));
+    }
+}
@@ -0,0 +1,232 @@
+package sudoku;
+
+/**
+ * The part of a board shared by BoardState (int masks, up to 25x25) and LargeBoardState (long masks, up to 36x36):
+ * the cells, the empty cells as a sparse set and the candidate count of every empty cell, plus candidate and
+ * used-value masks widened to longs, in which bit (v - 1) stands for the value v. Propagator and
+ * mostConstrainedCell are written once against it for every board size; the subclasses keep their own masks,
+ * trails and updates.
+ */
+abstract class CandidateBoard {
+
+    // Precomputed lookup tables for this board size.
+    final BoardGeometry geo;
+
+    // The value of every cell (0 if empty), indexed by r * size + c.
+    final int[] cells;
+
+    // The empty cells as a sparse set: empties[0 .. nEmpty) are the cells, emptyIndex[cell] is their position.
+    final int[] empties;
+    final int[] emptyIndex;
+    int nEmpty;
+
+    // The number of candidates of every empty cell, kept up to date by the subclass. Entries for filled cells are
+    // stale and never read.
+    final int[] candidateCount;
+
+    // True if the givens already break a sudoku rule.
+    boolean contradiction;
+
+    // Scratch tables of Propagator.boxLineReductions, created on first use and never copied.
+    private long[] segments;
+
+    CandidateBoard(BoardGeometry geo) {
+        this.geo = geo;
+        this.cells = new int[geo.nCells];
+        this.empties = new int[geo.nCells];
+        this.emptyIndex = new int[geo.nCells];
+        this.candidateCount = new int[geo.nCells];
+    }
+
+    /**
+     * Copies the cells, the empty set and the candidate counts of "other".
+     */
+    CandidateBoard(CandidateBoard other) {
+        this.geo = other.geo;
+        this.cells = other.cells.clone();
+        this.empties = other.empties.clone();
+        this.emptyIndex = other.emptyIndex.clone();
+        this.nEmpty = other.nEmpty;
+        this.candidateCount = other.candidateCount.clone();
+        this.contradiction = other.contradiction;
+    }
+
+    /**
+     * @return the number of rows (and columns) of the board
+     */
+    public final int size() {
+        return geo.size;
+    }
+
+    public final int get(int row, int col) {
+        return cells[row * geo.size + col];
+    }
+
+    /**
+     * @param cell a cell index r * size + c
+     * @return the value in the cell, or 0 if it is empty
+     */
+    public final int get(int cell) {
+        return cells[cell];
+    }
+
+    /**
+     * @return true if the givens this board was built from already violate a sudoku rule
+     */
+    public final boolean hasContradiction() {
+        return contradiction;
+    }
+
+    /**
+     * @return the number of empty cells
+     */
+    public final int emptyCount() {
+        return nEmpty;
+    }
+
+    /**
+     * @param i an index in [0, emptyCount())
+     * @return the i-th empty cell, in no particular order
+     */
+    public final int emptyCell(int i) {
+        return empties[i];
+    }
+
+    /**
+     * @param cell an empty cell
+     * @return the number of values that can still be placed in it
+     */
+    public final int candidateCount(int cell) {
+        return candidateCount[cell];
+    }
+
+    /**
+     * @param cell a cell index r * size + c
+     * @return the number of empty cells that share a row, column or subgrid with "cell"
+     */
+    public final int emptyPeerCount(int cell) {
+        int degree = 0;
+        for (int peer : geo.peers[cell]) {
+            if (cells[peer] == 0) {
+                degree++;
+            }
+        }
+        return degree;
+    }
+
+    /**
+     * @return the shared lookup tables for this board size
+     */
+    final BoardGeometry geometry() {
+        return geo;
+    }
+
+    /**
+     * Copies the current values into a new grid.
+     * @return an int[][] snapshot of the board
+     */
+    public int[][] toGrid() {
+        int[][] g = new int[geo.size][geo.size];
+        for (int r = 0; r < geo.size; r++) {
+            System.arraycopy(cells, r * geo.size, g[r], 0, geo.size);
+        }
+        return g;
+    }
+
+    // Adds the cell that was just cleared to the empty set. The caller recomputes its candidate count.
+    final void addEmpty(int cell) {
+        emptyIndex[cell] = nEmpty;
+        empties[nEmpty++] = cell;
+    }
+
+    // Removes the cell that was just filled from the empty set by swapping the last empty cell into its slot.
+    final void removeEmpty(int cell) {
+        int last = empties[--nEmpty];
+        int slot = emptyIndex[cell];
+        empties[slot] = last;
+        emptyIndex[last] = slot;
+    }
+
+    /**
+     * @param cell a cell index r * size + c
+     * @return the values that can still be placed in "cell"
+     */
+    abstract long candidateMask(int cell);
+
+    /**
+     * @param unit a unit index: rows first, then columns, then subgrids
+     * @return the values already placed in that unit
+     */
+    abstract long unitMask(int unit);
+
+    /**
+     * @return a mask with one bit set for every legal value
+     */
+    abstract long valueMask();
+
+    /**
+     * Places "value" in the empty cell "cell", recording it on the trail.
+     */
+    abstract void place(int cell, int value);
+
+    /**
+     * Rules out the candidates in "mask" for the empty cell "cell", recording it on the trail.
+     * @return true if at least one candidate was removed
+     */
+    abstract boolean excludeMask(int cell, long mask);
+
+    /**
+     * @return room for two tables of size * nRegions masks, reused by every propagation on this board
+     */
+    final long[] segments() {
+        if (segments == null) {
+            segments = new long[2 * geo.size * geo.nRegions];
+        }
+        return segments;
+    }
+
+    /**
+     * @return the empty cell with the fewest candidates, ties broken by the most empty peers (highest degree), or
+     * -1 if the board is full
+     */
+    final int mostConstrainedCell() {
+        return mostConstrainedCell(0);
+    }
+
+    /**
+     * Like mostConstrainedCell(), but breaks ties of candidates and degree by the order of the empty cells rotated
+     * to start at "start", so that a randomized search can vary which of equally constrained cells it branches on.
+     * @param start an index in [0, emptyCount()), or 0 if the board is full
+     */
+    final int mostConstrainedCell(int start) {
+        int best = -1;
+        int bestCount = Integer.MAX_VALUE;
+        int bestDegree = -1;
+        for (int k = 0; k < nEmpty; k++) {
+            int i = start + k < nEmpty ? start + k : start + k - nEmpty;
+            int cell = empties[i];
+            int count = candidateCount(cell);
+            // A dead end or a forced cell cannot be beaten.
+            if (count <= 1) {
+                return cell;
+            }
+            if (count < bestCount) {
+                best = cell;
+                bestCount = count;
+                bestDegree = -1;
+            }
+            else if (count == bestCount) {
+                // Only compute degrees when they are needed to break a tie.
+                if (bestDegree < 0) {
+                    bestDegree = emptyPeerCount(best);
+                }
+                int degree = emptyPeerCount(cell);
+                if (degree > bestDegree) {
+                    best = cell;
+                    bestDegree = degree;
+                }
+            }
+        }
+        return best;
+    }
+}
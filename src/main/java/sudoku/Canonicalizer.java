@@ -0,0 +1,305 @@
+package sudoku;
+
+/**
+ * Maps a board to a canonical representative of its class under the sudoku symmetries of BoardTransform:
+ * transposition, permutations of bands, stacks and the lines inside them, and relabelling of the digits.
+ *
+ * The canonical form is the transform of the board that is smallest in row-major order, reading a filled cell as
+ * the order in which its digit first appears and an empty cell as larger than any digit (so boards start with
+ * their densest rows, which prunes the search best). For boards of up to 9x9 rows every column permutation is
+ * tried and rows are chosen by branch and bound. Larger boards have far too many column permutations, so their
+ * columns are left in place and the form is only canonical under transposition, row permutations and relabelling.
+ * The search also stops after a budget of rows for nearly empty boards, where almost every transform ties.
+ *
+ * Whatever the case, the form is always a transform of the board, so a solution of the form maps back through
+ * the inverse transform to a solution of the board: a form that is not fully canonical only costs cache hits.
+ */
+public final class Canonicalizer {
+
+    // The number of output rows evaluated before settling for the best form found so far.
+    private static final long ROW_BUDGET = 1 << 20;
+
+    // The column permutations tried for each number of subregions, built on first use.
+    private static final int[][][] COLUMNS = new int[BoardGeometry.MAX_REGIONS + 1][][];
+
+    private Canonicalizer() {
+    }
+
+    /**
+     * A canonical form together with the transform that produced it.
+     */
+    public static final class Form {
+        private final int[][] grid;
+        private final BoardTransform transform;
+
+        Form(int[][] grid, BoardTransform transform) {
+            this.grid = grid;
+            this.transform = transform;
+        }
+
+        /**
+         * @return the canonical board, 0 for empty cells
+         */
+        public int[][] getGrid() {
+            return grid;
+        }
+
+        /**
+         * @return the transform mapping the original board to getGrid()
+         */
+        public BoardTransform getTransform() {
+            return transform;
+        }
+    }
+
+    /**
+     * @param board the board to canonicalize; it is only read
+     * @return the canonical form of the board
+     * @throws Exception if the board cannot be divided into subregions
+     */
+    public static Form canonicalize(GridView board) throws Exception {
+        int size = board.size();
+        int nRegions = (int) Math.round(Math.sqrt(size));
+        if (nRegions * nRegions != size || nRegions < 2 || nRegions > BoardGeometry.MAX_REGIONS) {
+            throw new Exception("The input must be a square matrix that can be easily divided into subregions!");
+        }
+        int[] cells = new int[size * size];
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                cells[r * size + c] = board.get(r, c);
+            }
+        }
+
+        Search search = new Search(nRegions, cells);
+        for (int[] cols : columns(nRegions)) {
+            search.run(false, cols);
+            search.run(true, cols);
+        }
+        return search.result();
+    }
+
+    public static Form canonicalize(int[][] grid) throws Exception {
+        return canonicalize(GridView.of(grid));
+    }
+
+    /**
+     * @return every stack-respecting column permutation for boards of up to 9x9 rows, the identity otherwise
+     */
+    private static int[][] columns(int nRegions) {
+        synchronized (COLUMNS) {
+            if (COLUMNS[nRegions] == null) {
+                int size = nRegions * nRegions;
+                if (nRegions > 3) {
+                    int[] identity = new int[size];
+                    for (int i = 0; i < size; i++) {
+                        identity[i] = i;
+                    }
+                    COLUMNS[nRegions] = new int[][]{identity};
+                }
+                else {
+                    int[][] perms = permutations(nRegions);
+                    int count = perms.length;
+                    for (int i = 0; i < nRegions; i++) {
+                        count *= perms.length;
+                    }
+                    int[][] all = new int[count][size];
+                    for (int k = 0; k < count; k++) {
+                        // Decode k as a stack order followed by an order of the columns inside every stack.
+                        int rest = k;
+                        int[] stacks = perms[rest % perms.length];
+                        rest /= perms.length;
+                        for (int s = 0; s < nRegions; s++) {
+                            int[] inStack = perms[rest % perms.length];
+                            rest /= perms.length;
+                            for (int i = 0; i < nRegions; i++) {
+                                all[k][s * nRegions + i] = stacks[s] * nRegions + inStack[i];
+                            }
+                        }
+                    }
+                    COLUMNS[nRegions] = all;
+                }
+            }
+            return COLUMNS[nRegions];
+        }
+    }
+
+    /**
+     * @return all permutations of 0 .. n-1
+     */
+    private static int[][] permutations(int n) {
+        if (n == 1) {
+            return new int[][]{{0}};
+        }
+        int[][] smaller = permutations(n - 1);
+        int[][] perms = new int[smaller.length * n][];
+        int k = 0;
+        for (int[] p : smaller) {
+            for (int at = 0; at < n; at++) {
+                int[] q = new int[n];
+                for (int i = 0, j = 0; i < n; i++) {
+                    q[i] = i == at ? n - 1 : p[j++];
+                }
+                perms[k++] = q;
+            }
+        }
+        return perms;
+    }
+
+    /**
+     * The branch and bound search for the smallest transform, one column permutation at a time.
+     */
+    private static final class Search {
+        private final int nRegions;
+        private final int size;
+        private final int empty;
+
+        // The board in row-major order.
+        private final int[] cells;
+
+        // The transform being built: transposition, column permutation and the source row of every output row.
+        private boolean transpose;
+        private int[] cols;
+        private final int[] rows;
+        private final boolean[] usedBand;
+        private final boolean[] usedRow;
+
+        // The label of every digit (0 if not seen yet), and the digit of every label in order of appearance.
+        private final int[] label;
+        private final int[] digitOf;
+        private int nLabels;
+
+        // The output rows built so far, with empty cells read as "empty" so they sort after every label.
+        private final int[] out;
+
+        // The smallest output found so far and its transform.
+        private int[] best;
+        private boolean bestTranspose;
+        private int[] bestRows;
+        private int[] bestCols;
+        private int[] bestDigits;
+
+        private long rowsLeft = ROW_BUDGET;
+
+        Search(int nRegions, int[] cells) {
+            this.nRegions = nRegions;
+            this.size = nRegions * nRegions;
+            this.empty = size + 1;
+            this.cells = cells;
+            this.rows = new int[size];
+            this.usedBand = new boolean[nRegions];
+            this.usedRow = new boolean[size];
+            this.label = new int[size + 1];
+            this.digitOf = new int[size + 1];
+            this.out = new int[size * size];
+        }
+
+        void run(boolean transpose, int[] cols) {
+            this.transpose = transpose;
+            this.cols = cols;
+            search(0, best == null);
+        }
+
+        /**
+         * Tries every source row for output row r and the rows after it.
+         * @param less true if the rows before r are already smaller than the best output
+         * @return true if the best output was replaced, in which case it now shares the rows before r
+         */
+        private boolean search(int r, boolean less) {
+            if (r == size) {
+                if (less) {
+                    save();
+                    return true;
+                }
+                return false;
+            }
+            boolean updated = false;
+            boolean bandStart = r % nRegions == 0;
+            int from = bandStart ? 0 : rows[r - 1] / nRegions * nRegions;
+            int to = bandStart ? size : from + nRegions;
+            for (int source = from; source < to && rowsLeft > 0; source++) {
+                if (usedRow[source] || (bandStart && usedBand[source / nRegions])) {
+                    continue;
+                }
+                rowsLeft--;
+                int labelsBefore = nLabels;
+                int cmp = fillRow(r, source, less);
+                if (cmp <= 0) {
+                    rows[r] = source;
+                    usedRow[source] = true;
+                    if (bandStart) {
+                        usedBand[source / nRegions] = true;
+                    }
+                    if (search(r + 1, less || cmp < 0)) {
+                        updated = true;
+                        less = false;
+                    }
+                    usedRow[source] = false;
+                    if (bandStart) {
+                        usedBand[source / nRegions] = false;
+                    }
+                }
+                // Forget the digits first seen in this row.
+                while (nLabels > labelsBefore) {
+                    label[digitOf[nLabels--]] = 0;
+                }
+            }
+            return updated;
+        }
+
+        /**
+         * Writes output row r from source row "source", labelling new digits as they appear.
+         * @return the comparison of the row with the same row of the best output (0 if "less"), stopping early
+         * once the row is known to be larger
+         */
+        private int fillRow(int r, int source, boolean less) {
+            int base = r * size;
+            int cmp = 0;
+            for (int c = 0; c < size; c++) {
+                int v = transpose ? cells[cols[c] * size + source] : cells[source * size + cols[c]];
+                int key;
+                if (v == 0) {
+                    key = empty;
+                }
+                else {
+                    if (label[v] == 0) {
+                        label[v] = ++nLabels;
+                        digitOf[nLabels] = v;
+                    }
+                    key = label[v];
+                }
+                out[base + c] = key;
+                if (!less && cmp == 0 && key != best[base + c]) {
+                    if (key > best[base + c]) {
+                        return 1;
+                    }
+                    cmp = -1;
+                }
+            }
+            return cmp;
+        }
+
+        private void save() {
+            best = out.clone();
+            bestTranspose = transpose;
+            bestRows = rows.clone();
+            bestCols = cols;
+            // Digits the board never uses take the remaining labels in increasing order.
+            bestDigits = new int[size + 1];
+            int next = nLabels;
+            for (int v = 1; v <= size; v++) {
+                bestDigits[v] = label[v] != 0 ? label[v] : ++next;
+            }
+        }
+
+        Form result() {
+            int[][] grid = new int[size][size];
+            for (int r = 0; r < size; r++) {
+                for (int c = 0; c < size; c++) {
+                    int key = best[r * size + c];
+                    grid[r][c] = key == empty ? 0 : key;
+                }
+            }
+            return new Form(grid, new BoardTransform(nRegions, bestTranspose, bestRows, bestCols, bestDigits));
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package sudoku;
+
+/**
+ * The coordinates of one cell of a board.
+ */
+public final class Cell {
+    private final int row;
+    private final int col;
+
+    public Cell(int row, int col) {
+        this.row = row;
+        this.col = col;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public int getCol() {
+        return col;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Cell)) {
+            return false;
+        }
+        Cell other = (Cell) o;
+        return row == other.row && col == other.col;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * row + col;
+    }
+
+    @Override
+    public String toString() {
+        return "(" + row + ", " + col + ")";
+    }
+}
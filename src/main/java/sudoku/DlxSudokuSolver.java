@@ -0,0 +1,425 @@
+package sudoku;
+
+import static sudoku.SudokuHelper.*;
+
+/**
+ * Solves sudoku puzzles as an exact cover problem with Knuth's Dancing Links (Algorithm X).
+ *
+ * Every (cell, value) pair is a row of the matrix, covering four columns: the cell itself, the value in its row,
+ * the value in its column and the value in its subgrid. The node arrays are allocated once per board size and
+ * reused: a solve covers the rows of the givens, searches, and then uncovers everything again, leaving the
+ * matrix ready for the next puzzle. Each thread keeps its own matrices, so the static entry points are safe to
+ * call concurrently.
+ *
+ * SolutionCounter counts boards of up to SolutionCounter.DLX_MAX_SIZE rows with this solver, which is where it
+ * beats BoardState backtracking, and PortfolioSolver races it against the other solvers.
+ */
+public class DlxSudokuSolver {
+
+    // One reusable solver per board size for every thread.
+    private static final ThreadLocal<DlxSudokuSolver[]> SOLVERS =
+            ThreadLocal.withInitial(() -> new DlxSudokuSolver[BoardGeometry.MAX_LARGE_REGIONS + 1]);
+
+    // Precomputed lookup tables for this board size.
+    private final BoardGeometry geo;
+
+    // The number of constraint columns and of candidate rows.
+    private final int nCols;
+    private final int nRows;
+
+    // The toroidal doubly-linked lists. Index 0 is the root, 1 .. nCols are the column headers, and the four
+    // nodes of candidate row r start at firstNode(r).
+    private final int[] left;
+    private final int[] right;
+    private final int[] up;
+    private final int[] down;
+    private final int[] column;
+    private final int[] rowOfNode;
+
+    // The number of rows still linked into every column.
+    private final int[] colSize;
+
+    // The rows chosen by the search, one per level.
+    private final int[] chosen;
+
+    // The columns covered by the givens of the current puzzle, and the first node of every given's row.
+    private final boolean[] givenCovered;
+    private final int[] givenRows;
+
+    // State of the current search.
+    private int limit;
+    private int found;
+    private int[] firstSolution;
+    private CancellationToken token = CancellationToken.NONE;
+    private boolean cancelled;
+
+    // Totals of the current search, reported to SearchStats once it ends.
+    private long nodes;
+    private long backtracks;
+    private int maxDepth;
+
+    /**
+     * Builds the exact cover matrix for boards with nRegions * nRegions rows.
+     * @param nRegions the square root of the number of rows
+     */
+    public DlxSudokuSolver(int nRegions) {
+        geo = BoardGeometry.of(nRegions);
+        int size = geo.size;
+        nCols = 4 * geo.nCells;
+        nRows = geo.nCells * size;
+        int nNodes = 1 + nCols + 4 * nRows;
+        left = new int[nNodes];
+        right = new int[nNodes];
+        up = new int[nNodes];
+        down = new int[nNodes];
+        column = new int[nNodes];
+        rowOfNode = new int[nNodes];
+        colSize = new int[nCols + 1];
+        chosen = new int[geo.nCells];
+        givenCovered = new boolean[nCols + 1];
+        givenRows = new int[geo.nCells];
+
+        // Link the root and the column headers into a ring.
+        for (int c = 0; c <= nCols; c++) {
+            left[c] = c == 0 ? nCols : c - 1;
+            right[c] = c == nCols ? 0 : c + 1;
+            up[c] = c;
+            down[c] = c;
+            column[c] = c;
+        }
+
+        for (int row = 0; row < nRows; row++) {
+            int cell = row / size;
+            int v = row % size;
+            int[] cols = {
+                    1 + cell,
+                    1 + geo.nCells + geo.rowOf[cell] * size + v,
+                    1 + 2 * geo.nCells + geo.colOf[cell] * size + v,
+                    1 + 3 * geo.nCells + geo.boxOf[cell] * size + v};
+            int first = firstNode(row);
+            for (int k = 0; k < 4; k++) {
+                int node = first + k;
+                int c = cols[k];
+                column[node] = c;
+                rowOfNode[node] = row;
+                // Append the node at the bottom of its column.
+                up[node] = up[c];
+                down[node] = c;
+                down[up[c]] = node;
+                up[c] = node;
+                colSize[c]++;
+                // Link it into its row.
+                left[node] = first + (k + 3) % 4;
+                right[node] = first + (k + 1) % 4;
+            }
+        }
+    }
+
+    private int firstNode(int row) {
+        return 1 + nCols + 4 * row;
+    }
+
+    private void cover(int c) {
+        right[left[c]] = right[c];
+        left[right[c]] = left[c];
+        for (int i = down[c]; i != c; i = down[i]) {
+            for (int j = right[i]; j != i; j = right[j]) {
+                down[up[j]] = down[j];
+                up[down[j]] = up[j];
+                colSize[column[j]]--;
+            }
+        }
+    }
+
+    private void uncover(int c) {
+        for (int i = up[c]; i != c; i = up[i]) {
+            for (int j = left[i]; j != i; j = left[j]) {
+                colSize[column[j]]++;
+                down[up[j]] = j;
+                up[down[j]] = j;
+            }
+        }
+        right[left[c]] = c;
+        left[right[c]] = c;
+    }
+
+    /**
+     * Algorithm X: covers the column with the fewest rows and tries each of them in turn.
+     * @return true if the search should stop because the solution limit was reached
+     */
+    private boolean search(int depth) {
+        if ((++nodes & CancellationToken.POLL_MASK) == 0 && token.poll(CancellationToken.POLL_INTERVAL)) {
+            cancelled = true;
+            return true;
+        }
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+        if (right[0] == 0) {
+            found++;
+            if (firstSolution == null) {
+                firstSolution = new int[depth];
+                System.arraycopy(chosen, 0, firstSolution, 0, depth);
+            }
+            return found >= limit;
+        }
+
+        int best = right[0];
+        for (int c = right[best]; c != 0; c = right[c]) {
+            if (colSize[c] < colSize[best]) {
+                best = c;
+            }
+        }
+        if (colSize[best] == 0) {
+            return false;
+        }
+
+        boolean stop = false;
+        cover(best);
+        for (int r = down[best]; r != best && !stop; r = down[r]) {
+            chosen[depth] = rowOfNode[r];
+            for (int j = right[r]; j != r; j = right[j]) {
+                cover(column[j]);
+            }
+            stop = search(depth + 1);
+            // Always unwind completely: the matrix is reused by the next solve.
+            for (int j = left[r]; j != r; j = left[j]) {
+                uncover(column[j]);
+            }
+            if (!stop) {
+                backtracks++;
+            }
+        }
+        uncover(best);
+        return stop;
+    }
+
+    /**
+     * Runs Algorithm X on "grid" until "maxSolutions" solutions have been found, the search space is exhausted or
+     * "token" is cancelled.
+     * @param excludedRow a candidate row to leave out of the matrix for this run, or -1 for none; its cell is
+     * treated as empty
+     * @return the number of solutions found, at most maxSolutions
+     */
+    private int run(GridView grid, int maxSolutions, CancellationToken token, int excludedRow) throws Exception {
+        int size = geo.size;
+        if (grid.size() != size) {
+            throw new Exception("The input must be a square matrix that can be easily divided into subregions!");
+        }
+        limit = maxSolutions;
+        found = 0;
+        firstSolution = null;
+        this.token = token;
+        nodes = 0;
+        backtracks = 0;
+        maxDepth = 0;
+        cancelled = false;
+
+        // Unlink the excluded row from its columns before the givens are covered, so it is restored last.
+        if (excludedRow >= 0) {
+            for (int j = firstNode(excludedRow), k = 0; k < 4; j++, k++) {
+                down[up[j]] = down[j];
+                up[down[j]] = up[j];
+                colSize[column[j]]--;
+            }
+        }
+
+        // Select the rows of the givens by covering their columns. Two givens sharing a column break a rule.
+        int nGivens = 0;
+        boolean consistent = true;
+        int excludedCell = excludedRow < 0 ? -1 : excludedRow / size;
+        for (int cell = 0; cell < geo.nCells && consistent; cell++) {
+            int value = grid.get(geo.rowOf[cell], geo.colOf[cell]);
+            if (value == 0 || cell == excludedCell) {
+                continue;
+            }
+            if (value < 0 || value > size) {
+                consistent = false;
+                break;
+            }
+            int first = firstNode(cell * size + value - 1);
+            for (int k = 0; k < 4; k++) {
+                if (givenCovered[column[first + k]]) {
+                    consistent = false;
+                }
+            }
+            if (consistent) {
+                for (int k = 0; k < 4; k++) {
+                    givenCovered[column[first + k]] = true;
+                    cover(column[first + k]);
+                }
+                givenRows[nGivens++] = first;
+            }
+        }
+
+        if (consistent) {
+            search(0);
+            SearchStats.recordSearch(nodes, backtracks, maxDepth, cancelled);
+        }
+
+        // Restore the matrix in reverse order.
+        for (int g = nGivens - 1; g >= 0; g--) {
+            for (int k = 3; k >= 0; k--) {
+                givenCovered[column[givenRows[g] + k]] = false;
+                uncover(column[givenRows[g] + k]);
+            }
+        }
+        if (excludedRow >= 0) {
+            for (int j = firstNode(excludedRow) + 3, k = 0; k < 4; j--, k++) {
+                colSize[column[j]]++;
+                down[up[j]] = j;
+                up[down[j]] = j;
+            }
+        }
+        this.token = CancellationToken.NONE;
+        return found;
+    }
+
+    /**
+     * Solves "grid" without modifying it.
+     * @param grid a sudoku grid with 0 for empty cells
+     * @return the completed grid, or null if it has no solution
+     * @throws Exception if the grid is not a supported square matrix
+     */
+    public int[][] solve(int[][] grid) throws Exception {
+        return solve(grid, CancellationToken.NONE);
+    }
+
+    /**
+     * Solves "grid" without modifying it, giving up once "token" is cancelled.
+     * @param grid a sudoku grid with 0 for empty cells
+     * @param token polled every CancellationToken.POLL_INTERVAL nodes
+     * @return the completed grid, or null if it has no solution or the search was cancelled
+     * @throws Exception if the grid is not a supported square matrix
+     */
+    public int[][] solve(int[][] grid, CancellationToken token) throws Exception {
+        if (grid.length != geo.size || grid[0].length != geo.size) {
+            throw new Exception("The input must be a square matrix that can be easily divided into subregions!");
+        }
+        if (run(GridView.of(grid), 1, token, -1) == 0 || cancelled) {
+            return null;
+        }
+        int size = geo.size;
+        int[][] solution = deepCopyIntMatrix(grid);
+        for (int row : firstSolution) {
+            int cell = row / size;
+            solution[geo.rowOf[cell]][geo.colOf[cell]] = row % size + 1;
+        }
+        return solution;
+    }
+
+    /**
+     * Counts the solutions of "grid", stopping as soon as "limit" of them have been found.
+     * @param grid a sudoku grid with 0 for empty cells
+     * @param limit the number of solutions after which to stop
+     * @return the number of solutions, capped at limit
+     * @throws Exception if the grid is not a supported square matrix
+     */
+    public int count(int[][] grid, int limit) throws Exception {
+        if (grid.length != geo.size || grid[0].length != geo.size) {
+            throw new Exception("The input must be a square matrix that can be easily divided into subregions!");
+        }
+        return run(GridView.of(grid), limit, CancellationToken.NONE, -1);
+    }
+
+    /**
+     * Counts the solutions of a board that is not stored as an int[][], such as a PackedBoard.
+     * @param board a sudoku board with 0 for empty cells
+     * @param limit the number of solutions after which to stop
+     * @return the number of solutions, capped at limit
+     * @throws Exception if the board does not have the size this solver was built for
+     */
+    public int count(GridView board, int limit) throws Exception {
+        return run(board, limit, CancellationToken.NONE, -1);
+    }
+
+    /**
+     * Looks for a solution of "board" that does not hold "value" at (row, col), by leaving that candidate out of
+     * the matrix. After clearing a cell of a puzzle whose unique solution holds "value" there, any other solution
+     * must differ in that cell, so this is a uniqueness check that stops at the first solution.
+     * @param board a sudoku board with 0 for empty cells; (row, col) is treated as empty whatever it holds
+     * @param row the row of the cell
+     * @param col the column of the cell
+     * @param value the value the solutions may not hold at (row, col)
+     * @return true if such a solution exists
+     * @throws Exception if the board does not have the size this solver was built for
+     */
+    public boolean hasSolutionWithout(GridView board, int row, int col, int value) throws Exception {
+        if (value < 1 || value > geo.size) {
+            throw new IllegalArgumentException("No such value: " + value);
+        }
+        return run(board, 1, CancellationToken.NONE, (row * geo.size + col) * geo.size + value - 1) > 0;
+    }
+
+    /**
+     * @return true if the last solve was cut short because its token was cancelled
+     */
+    public boolean wasCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return this thread's reusable solver for boards the size of "grid"
+     */
+    static DlxSudokuSolver forGrid(int[][] grid) throws Exception {
+        if (grid.length != grid[0].length) {
+            throw new Exception("The input must be a square matrix that can be easily divided into subregions!");
+        }
+        return forSize(grid.length);
+    }
+
+    private static DlxSudokuSolver forSize(int size) throws Exception {
+        if (Math.pow(Math.sqrt(size), 2) != size) {
+            throw new Exception("The input must be a square matrix that can be easily divided into subregions!");
+        }
+        int nRegions = (int) Math.sqrt(size);
+        DlxSudokuSolver[] solvers = SOLVERS.get();
+        if (solvers[nRegions] == null) {
+            solvers[nRegions] = new DlxSudokuSolver(nRegions);
+        }
+        return solvers[nRegions];
+    }
+
+    public static Integer[][] solvePuzzle(int[][] grid) throws Exception {
+        int[][] solution = forGrid(grid).solve(grid);
+        return solution == null ? null : toTwoDIntegerArray(solution);
+    }
+
+    /**
+     * Counts the solutions of "grid" with this thread's reusable matrix, stopping once "limit" are found.
+     * @return the number of solutions, capped at limit
+     */
+    public static int countSolutions(int[][] grid, int limit) throws Exception {
+        return forGrid(grid).count(grid, limit);
+    }
+
+    public static int countSolutions(GridView board, int limit) throws Exception {
+        return forSize(board.size()).count(board, limit);
+    }
+
+    /**
+     * Like hasSolutionWithout(GridView, row, col, value), with this thread's reusable matrix.
+     */
+    public static boolean hasSolutionWithout(int[][] grid, int row, int col, int value) throws Exception {
+        return forGrid(grid).hasSolutionWithout(GridView.of(grid), row, col, value);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[][] puzzle = {{3, 0, 6, 5, 0, 8, 4, 0, 0},
+                {5, 2, 0, 0, 0, 0, 0, 0, 0},
+                {0, 8, 7, 0, 0, 0, 0, 3, 1},
+                {0, 0, 3, 0, 1, 0, 0, 8, 0},
+                {9, 0, 0, 8, 6, 3, 0, 0, 5},
+                {0, 5, 0, 0, 9, 0, 6, 0, 0},
+                {1, 3, 0, 0, 0, 0, 2, 5, 0},
+                {0, 0, 0, 0, 0, 0, 0, 7, 4},
+                {0, 0, 5, 2, 0, 6, 3, 0, 0}};
+        Integer[][] solution = solvePuzzle(puzzle);
+        if (solution != null) {
+            printGrid(solution);
+        }
+        else {
+            System.out.println("No solution found.");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package sudoku;
+
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Decides whether a parallel search task should split its node into subtasks or finish the subtree itself with
+ * a sequential search.
+ */
+public interface GranularityController {
+
+    /**
+     * @param state the (already propagated) board of the node about to branch
+     * @param depth the number of forks between the root and this node
+     * @return true to fork one task per candidate value, false to search the subtree sequentially
+     */
+    boolean shouldFork(BoardState state, int depth);
+
+    // The controller the parallel searches use when none is given.
+    GranularityController DEFAULT = new Adaptive(2, 0.5);
+
+    /**
+     * The original behaviour: fork every node up to a fixed depth, then go sequential.
+     * @param cutoff the deepest level at which nodes still fork
+     */
+    static GranularityController fixedDepth(int cutoff) {
+        return (state, depth) -> depth <= cutoff;
+    }
+
+    /**
+     * Forks only while the pool is hungry for work and the node is big enough to be worth splitting.
+     *
+     * Hunger is read from ForkJoinTask.getSurplusQueuedTaskCount(): once the current worker already has more
+     * queued tasks than idle thieves can take, splitting further only adds overhead. Size is estimated from the
+     * board as the sum of log2(candidates) over the empty cells, i.e. the number of bits needed to enumerate the
+     * remaining assignments. Easy boards and nearly finished subtrees fall below the threshold and stay
+     * sequential, while hard boards keep splitting for as long as there are idle workers to feed.
+     */
+    final class Adaptive implements GranularityController {
+
+        // Stop splitting once this many tasks are queued beyond what other workers are expected to steal.
+        private final int maxSurplus;
+
+        // A node must carry at least (minBitsPerCell * number of cells) bits of estimated work to be split.
+        private final double minBitsPerCell;
+
+        public Adaptive(int maxSurplus, double minBitsPerCell) {
+            this.maxSurplus = maxSurplus;
+            this.minBitsPerCell = minBitsPerCell;
+        }
+
+        @Override
+        public boolean shouldFork(BoardState state, int depth) {
+            // Outside a pool (deciding whether to start one at all) only the size of the work matters.
+            if (ForkJoinTask.inForkJoinPool()) {
+                if (ForkJoinTask.getPool().getParallelism() < 2 ||
+                        ForkJoinTask.getSurplusQueuedTaskCount() > maxSurplus) {
+                    return false;
+                }
+            }
+            return estimatedWorkBits(state) >= minBitsPerCell * state.cellCount();
+        }
+
+        /**
+         * @return the sum of floor(log2(candidates)) over the empty cells of "state"
+         */
+        static int estimatedWorkBits(BoardState state) {
+            int bits = 0;
+            for (int i = 0; i < state.emptyCount(); i++) {
+                bits += 31 - Integer.numberOfLeadingZeros(Math.max(1, state.candidateCount(state.emptyCell(i))));
+            }
+            return bits;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package sudoku;
+
+/**
+ * Read-only access to the values of a square sudoku board, whatever its storage: an int[][], a BoardState or a
+ * packed record of a PackedBoardStore.
+ */
+public interface GridView {
+
+    /**
+     * @return the number of rows (and columns) of the board
+     */
+    int size();
+
+    /**
+     * @return the value at (row, col), or 0 if the cell is empty
+     */
+    int get(int row, int col);
+
+    /**
+     * Wraps an int[][] without copying it.
+     * @param grid a square sudoku grid with 0 for empty cells
+     * @return a view that reads through to "grid"
+     */
+    static GridView of(int[][] grid) {
+        return new GridView() {
+            @Override
+            public int size() {
+                return grid.length;
+            }
+
+            @Override
+            public int get(int row, int col) {
+                return grid[row][col];
+            }
+        };
+    }
+
+    /**
+     * Wraps an Integer[][], as returned by the solvers, without copying it.
+     * @param grid a square sudoku grid with 0 for empty cells
+     * @return a view that reads through to "grid"
+     */
+    static GridView of(Integer[][] grid) {
+        return new GridView() {
+            @Override
+            public int size() {
+                return grid.length;
+            }
+
+            @Override
+            public int get(int row, int col) {
+                return grid[row][col];
+            }
+        };
+    }
+}
@@ -0,0 +1,198 @@
+package sudoku;
+
+import java.util.Arrays;
+
+/**
+ * The counterpart of BoardState for boards of up to 36x36 rows, with long bitmasks: bit (v - 1) of a mask is set
+ * when the value v is present in a unit (or excluded from a cell). It shares the cells, the sparse set of empty
+ * cells and the candidate counts with BoardState through CandidateBoard, and adds the masks and an undo trail of
+ * placements and exclusions, and nothing else, so a search on it allocates nothing per node and its memory stays
+ * that of the board plus the trail.
+ */
+final class LargeBoardState extends CandidateBoard implements GridView {
+
+    // Used-value bitmasks of every row, column and subgrid.
+    private final long[] rowUsed;
+    private final long[] colUsed;
+    private final long[] boxUsed;
+
+    // A mask with one bit set for every legal value.
+    private final long allValues;
+
+    // Candidates ruled out by deduction rather than by a value in the cell's row, column or subgrid.
+    private final long[] excluded;
+
+    // The undo log: trailOps holds cell << 1 | kind, trailData the placed value (kind 0) or excluded mask (kind 1).
+    private int[] trailOps;
+    private long[] trailData;
+    private int trailSize;
+
+    /**
+     * @param view the givens of the board, 0 for empty cells
+     * @throws Exception if the board cannot be divided into subregions, is larger than 36x36 or holds an
+     * out-of-range value
+     */
+    LargeBoardState(GridView view) throws Exception {
+        super(geometry(view.size()));
+        int size = geo.size;
+        this.rowUsed = new long[size];
+        this.colUsed = new long[size];
+        this.boxUsed = new long[size];
+        this.allValues = size == 64 ? -1L : (1L << size) - 1;
+        this.excluded = new long[geo.nCells];
+        this.trailOps = new int[2 * geo.nCells];
+        this.trailData = new long[2 * geo.nCells];
+
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                int value = view.get(r, c);
+                if (value == 0) {
+                    continue;
+                }
+                if (value < 0 || value > size) {
+                    throw new Exception("Cell (" + r + ", " + c + ") holds " + value + ", which is out of range!");
+                }
+                int cell = r * size + c;
+                if (!canPlace(cell, value)) {
+                    contradiction = true;
+                }
+                set(cell, value);
+            }
+        }
+        for (int cell = 0; cell < geo.nCells; cell++) {
+            if (cells[cell] == 0) {
+                addEmpty(cell);
+                candidateCount[cell] = Long.bitCount(candidateMask(cell));
+            }
+        }
+    }
+
+    private static BoardGeometry geometry(int size) throws Exception {
+        int nRegions = (int) Math.round(Math.sqrt(size));
+        if (nRegions * nRegions != size || nRegions < 1 || nRegions > BoardGeometry.MAX_LARGE_REGIONS) {
+            throw new Exception("The input must be a square matrix that can be easily divided into subregions!");
+        }
+        return BoardGeometry.of(nRegions);
+    }
+
+    @Override
+    long valueMask() {
+        return allValues;
+    }
+
+    /**
+     * @return a mask in which bit (v - 1) is set for every value v that can still be placed in "cell"
+     */
+    @Override
+    long candidateMask(int cell) {
+        return ~(rowUsed[geo.rowOf[cell]] | colUsed[geo.colOf[cell]] | boxUsed[geo.boxOf[cell]] | excluded[cell])
+                & allValues;
+    }
+
+    /**
+     * @param unit a unit index: rows first, then columns, then subgrids
+     * @return the mask of values already placed in that unit
+     */
+    @Override
+    long unitMask(int unit) {
+        int size = geo.size;
+        if (unit < size) {
+            return rowUsed[unit];
+        }
+        return unit < 2 * size ? colUsed[unit - size] : boxUsed[unit - 2 * size];
+    }
+
+    boolean canPlace(int cell, int value) {
+        return (candidateMask(cell) & (1L << (value - 1))) != 0;
+    }
+
+    /**
+     * Places "value" in the empty cell "cell". The caller is responsible for checking canPlace first.
+     */
+    @Override
+    void place(int cell, int value) {
+        push(cell << 1, value);
+        set(cell, value);
+        removeEmpty(cell);
+        updatePeerCounts(cell);
+    }
+
+    /**
+     * Rules out the candidates in "mask" for the empty cell "cell" without placing anything.
+     * @return true if at least one candidate was removed
+     */
+    @Override
+    boolean excludeMask(int cell, long mask) {
+        long removed = mask & candidateMask(cell);
+        if (removed == 0 || cells[cell] != 0) {
+            return false;
+        }
+        push(cell << 1 | 1, removed);
+        excluded[cell] |= removed;
+        candidateCount[cell] -= Long.bitCount(removed);
+        return true;
+    }
+
+    int mark() {
+        return trailSize;
+    }
+
+    /**
+     * Reverts every placement and exclusion made since "mark" was taken, most recent first.
+     */
+    void undo(int mark) {
+        while (trailSize > mark) {
+            trailSize--;
+            int cell = trailOps[trailSize] >> 1;
+            if ((trailOps[trailSize] & 1) == 0) {
+                clear(cell);
+            }
+            else {
+                long restored = trailData[trailSize];
+                excluded[cell] &= ~restored;
+                candidateCount[cell] += Long.bitCount(restored);
+            }
+        }
+    }
+
+    private void push(int op, long data) {
+        if (trailSize == trailOps.length) {
+            trailOps = Arrays.copyOf(trailOps, trailOps.length * 2);
+            trailData = Arrays.copyOf(trailData, trailData.length * 2);
+        }
+        trailOps[trailSize] = op;
+        trailData[trailSize] = data;
+        trailSize++;
+    }
+
+    private void clear(int cell) {
+        long mask = ~(1L << (cells[cell] - 1));
+        rowUsed[geo.rowOf[cell]] &= mask;
+        colUsed[geo.colOf[cell]] &= mask;
+        boxUsed[geo.boxOf[cell]] &= mask;
+        cells[cell] = 0;
+
+        addEmpty(cell);
+        candidateCount[cell] = Long.bitCount(candidateMask(cell));
+
+        updatePeerCounts(cell);
+    }
+
+    // Only the peers of a changed cell can gain or lose a candidate.
+    private void updatePeerCounts(int cell) {
+        for (int peer : geo.peers[cell]) {
+            if (cells[peer] == 0) {
+                candidateCount[peer] = Long.bitCount(candidateMask(peer));
+            }
+        }
+    }
+
+    private void set(int cell, int value) {
+        long bit = 1L << (value - 1);
+        rowUsed[geo.rowOf[cell]] |= bit;
+        colUsed[geo.colOf[cell]] |= bit;
+        boxUsed[geo.boxOf[cell]] |= bit;
+        cells[cell] = value;
+    }
+
+}
@@ -0,0 +1,150 @@
+package sudoku;
+
+import java.util.SplittableRandom;
+
+import static sudoku.SudokuHelper.*;
+
+/**
+ * Generates puzzles on large boards, from 16x16 up to 36x36, with LargeSudokuSolver.
+ *
+ * Complete boards come from BoardTransform, so they take no search at all. Cells are then cleared in the order
+ * of the difficulty, keeping each removal only if the known solution stays the only one, which a search that
+ * excludes the known value of the cleared cell checks within a node budget. A check that runs out of it keeps
+ * the cell filled, which bounds the time per puzzle on the largest boards at the price of a few more givens.
+ *
+ * Puzzles must also stay within reach of a search that does not know the solution: a removal is only kept if
+ * LargeSudokuSolver then solves the puzzle from scratch within a second budget, which grows with the difficulty
+ * (the check budget for EASY, 4 times it for DIFFICULT and 16 times it for EVIL). Without it, puzzles cleared in
+ * the EVIL order on 25x25 boards can take the solver minutes; with a single budget for all of them, it would
+ * filter every difficulty down to the same puzzles the solver finds easy.
+ */
+public class LargeSudokuGenerator {
+
+    // The nodes each check of a removal may visit before the cell is kept.
+    public static final long DEFAULT_CHECK_NODES = 64;
+
+    // The budgets of the from-scratch check of DIFFICULT and EVIL puzzles, as multiples of the check budget.
+    static final long DIFFICULT_SOLVE_FACTOR = 4;
+    static final long EVIL_SOLVE_FACTOR = 16;
+
+    private LargeSudokuGenerator() {
+    }
+
+    /**
+     * Creates a puzzle with a unique solution.
+     * @param nRegions the square root of the number of rows, 2 .. 6
+     * @param diff the order in which cells are cleared and the budget of the from-scratch check
+     * @return a puzzle of nRegions^2 rows
+     */
+    public static int[][] generatePuzzle(int nRegions, Difficulty diff) throws Exception {
+        return generatePuzzle(nRegions, diff, threadRandom());
+    }
+
+    /**
+     * Creates a puzzle with a unique solution, the same one for the same seed.
+     * @param nRegions the square root of the number of rows, 2 .. 6
+     * @param diff the order in which cells are cleared and the budget of the from-scratch check
+     * @param seed the seed of the complete board and of the order of EASY puzzles
+     * @return a puzzle of nRegions^2 rows
+     */
+    public static int[][] generatePuzzle(int nRegions, Difficulty diff, long seed) throws Exception {
+        return generatePuzzle(nRegions, diff, new SplittableRandom(seed));
+    }
+
+    private static int[][] generatePuzzle(int nRegions, Difficulty diff, SplittableRandom random) throws Exception {
+        if (nRegions < 2 || nRegions > BoardGeometry.MAX_LARGE_REGIONS) {
+            throw new IllegalArgumentException("Unsupported number of subregions: " + nRegions);
+        }
+        int[][] grid = BoardTransform.randomCompleteBoard(nRegions, random);
+        return pruneCompleteBoard(grid, diff, pruneOrder(grid.length, diff, random), DEFAULT_CHECK_NODES,
+                solveNodes(diff, DEFAULT_CHECK_NODES));
+    }
+
+    public static int[][] pruneCompleteBoard(int[][] grid, Difficulty diff) throws Exception {
+        return pruneCompleteBoard(grid, diff, DEFAULT_CHECK_NODES);
+    }
+
+    public static int[][] pruneCompleteBoard(int[][] grid, Difficulty diff, long checkNodes) throws Exception {
+        return pruneCompleteBoard(grid, diff, pruneOrder(grid.length, diff, threadRandom()), checkNodes,
+                solveNodes(diff, checkNodes));
+    }
+
+    /**
+     * Prunes some of the values of a complete board to create a puzzle with a unique solution.
+     * @param grid a complete, valid board; it is not modified
+     * @param diff the order in which cells are cleared and the budget of the from-scratch check
+     * @param checkNodes the nodes the uniqueness check of a removal may visit before the cell is kept; the
+     * from-scratch check is budgeted from it too
+     * @param seed the seed of the order of EASY puzzles
+     * @return a puzzle whose only solution is "grid"
+     */
+    public static int[][] pruneCompleteBoard(int[][] grid, Difficulty diff, long checkNodes, long seed)
+            throws Exception {
+        return pruneCompleteBoard(grid, diff, checkNodes, solveNodes(diff, checkNodes), seed);
+    }
+
+    /**
+     * Prunes some of the values of a complete board with an explicit budget for the from-scratch check, for
+     * example 0 to only check uniqueness whatever the difficulty. Such puzzles are not biased towards what
+     * LargeSudokuSolver finds easy, which is what a measure of its throughput needs.
+     * @param grid a complete, valid board; it is not modified
+     * @param diff the order in which cells are cleared
+     * @param checkNodes the nodes the uniqueness check of a removal may visit before the cell is kept
+     * @param solveNodes the nodes LargeSudokuSolver may visit to solve the puzzle from scratch after a removal
+     * before the cell is kept, or 0 to skip that check
+     * @param seed the seed of the order of EASY puzzles
+     * @return a puzzle whose only solution is "grid"
+     */
+    public static int[][] pruneCompleteBoard(int[][] grid, Difficulty diff, long checkNodes, long solveNodes,
+            long seed) throws Exception {
+        return pruneCompleteBoard(grid, diff, pruneOrder(grid.length, diff, new SplittableRandom(seed)), checkNodes,
+                solveNodes);
+    }
+
+    private static int[][] pruneCompleteBoard(int[][] grid, Difficulty diff, int[] order, long checkNodes,
+            long solveNodes) throws Exception {
+        long start = System.nanoTime();
+        final int[][] solution = grid;
+        int[][] puzzle = deepCopyIntMatrix(grid);
+        int size = grid.length;
+
+        for (int cell : order) {
+            int r = cell / size;
+            int c = cell % size;
+            puzzle[r][c] = 0;
+
+            // Any other solution must differ from the known one in the cleared cell, so look for one without it.
+            LargeBoardState state = new LargeBoardState(GridView.of(puzzle));
+            state.excludeMask(cell, 1L << (solution[r][c] - 1));
+            LargeSudokuSolver checker = new LargeSudokuSolver(state);
+            checker.setPreferred(solution);
+            checker.setNodeLimit(checkNodes);
+            if (checker.successfulSolve() || checker.wasCancelled()) {
+                puzzle[r][c] = solution[r][c];
+                continue;
+            }
+
+            // Keep the puzzle within reach of a search that does not know the solution.
+            if (solveNodes > 0) {
+                LargeSudokuSolver solver = new LargeSudokuSolver(GridView.of(puzzle));
+                solver.setNodeLimit(solveNodes);
+                if (!solver.successfulSolve()) {
+                    puzzle[r][c] = solution[r][c];
+                }
+            }
+        }
+        SearchStats.recordPhase(SearchStats.Phase.PRUNE, size, diff, start);
+        return puzzle;
+    }
+
+    /**
+     * @return the budget of the from-scratch check of a removal, which grows with "diff"
+     */
+    static long solveNodes(Difficulty diff, long checkNodes) {
+        if (diff == Difficulty.EASY) {
+            return checkNodes;
+        }
+        long factor = diff == Difficulty.DIFFICULT ? DIFFICULT_SOLVE_FACTOR : EVIL_SOLVE_FACTOR;
+        return checkNodes > Long.MAX_VALUE / factor ? Long.MAX_VALUE : checkNodes * factor;
+    }
+}
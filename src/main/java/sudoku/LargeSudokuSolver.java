@@ -0,0 +1,398 @@
+package sudoku;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static sudoku.SudokuHelper.*;
+
+/**
+ * A sequential solver for large boards, from 16x16 up to 36x36, on a LargeBoardState.
+ *
+ * Every node runs Propagator (naked singles, hidden singles, then pointing and claiming) to a fixpoint and then
+ * branches on the empty cell with the fewest candidates, trying the values straight out of its candidate mask.
+ * Deductions and guesses are rolled back with the board's trail, and the box/line reductions reuse the board's
+ * scratch tables, so the search allocates nothing per node: its memory is the board, the trail and the call
+ * stack, whatever the size.
+ */
+public class LargeSudokuSolver {
+
+    // The current board, with its row/column/subgrid bitmasks.
+    private final LargeBoardState state;
+
+    // The value to try first in every cell, or null to try values in ascending order.
+    private int[][] preferred;
+
+    // Rotates the order in which the values of a cell and the places of a value are tried, or null for none.
+    private SplittableRandom random;
+
+    // Polled every CancellationToken.POLL_INTERVAL nodes, together with the node limit.
+    private CancellationToken token = CancellationToken.NONE;
+    private long nodeLimit = Long.MAX_VALUE;
+
+    // Scratch bit-sliced counters of selectBranch, wide enough to count up to 36 places.
+    private final long[] planes = new long[6];
+
+    // The node budget of the first restart of solvePuzzle.
+    public static final long RESTART_NODES = 1000;
+
+    // The branch returned by selectBranch when the board is full.
+    private static final int FULL = -1;
+
+    // The number of search nodes visited so far, and whether the last search was stopped early.
+    private long nodes;
+    private boolean cancelled;
+
+    /**
+     * @param puzzle the givens, 0 for empty cells; it is only read
+     * @throws Exception if the board cannot be divided into subregions, is larger than 36x36 or holds an
+     * out-of-range value
+     */
+    public LargeSudokuSolver(GridView puzzle) throws Exception {
+        this(new LargeBoardState(puzzle));
+    }
+
+    LargeSudokuSolver(LargeBoardState state) {
+        this.state = state;
+    }
+
+    /**
+     * @return the board; after a successful solve, the solution
+     */
+    public GridView getBoard() {
+        return state;
+    }
+
+    /**
+     * @param token a token whose cancellation stops the search
+     */
+    public void setToken(CancellationToken token) {
+        this.token = token;
+    }
+
+    /**
+     * Makes the search give up, as if cancelled, once it has visited more than "nodeLimit" nodes in total.
+     */
+    public void setNodeLimit(long nodeLimit) {
+        this.nodeLimit = nodeLimit;
+    }
+
+    /**
+     * Makes the search try the value of "solution" first in every cell, which finds a solution close to a known
+     * one (or proves there is none) much faster.
+     * @param solution a complete board of the same size, or null for ascending order
+     */
+    void setPreferred(int[][] solution) {
+        this.preferred = solution;
+    }
+
+    /**
+     * Makes the search start the values of every cell, and the places of every value, at a random offset.
+     * @param random the source of the offsets, or null for ascending order
+     */
+    void setRandom(SplittableRandom random) {
+        this.random = random;
+    }
+
+    /**
+     * @return true if the last search gave up because of the token or the node limit
+     */
+    public boolean wasCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return the number of search nodes visited by this solver
+     */
+    public long getNodesVisited() {
+        return nodes;
+    }
+
+    /**
+     * Solves the board in place.
+     * @return true if the puzzle was solved, false if it has no solution or the search was cancelled
+     */
+    public boolean successfulSolve() {
+        cancelled = false;
+        if (state.hasContradiction()) {
+            return false;
+        }
+        int mark = state.mark();
+        if (Propagator.propagate(state) && solveHelper()) {
+            return true;
+        }
+        // Leave the board as it was given.
+        state.undo(mark);
+        return false;
+    }
+
+    /**
+     * Solves the board in place like successfulSolve, but with a random value order that is drawn anew each time
+     * the search has visited "firstNodes" nodes, then twice that, and so on. Restarts get the search out of a bad
+     * early guess, which on large boards can otherwise cost millions of nodes below it. Since the budget keeps
+     * doubling, a board without a solution is still proved to have none, by the first restart that runs to the
+     * end. The node limit and the token still apply to all the restarts together.
+     * @param firstNodes the node budget of the first restart, at least 1
+     * @param random the source of the value orders
+     * @return true if the puzzle was solved, false if it has no solution or the search was cancelled
+     */
+    public boolean successfulSolveWithRestarts(long firstNodes, SplittableRandom random) {
+        if (firstNodes < 1) {
+            throw new IllegalArgumentException("A restart needs at least one node");
+        }
+        long limit = nodeLimit;
+        SplittableRandom order = this.random;
+        this.random = random;
+        try {
+            for (long budget = firstNodes; ; budget = budget > Long.MAX_VALUE / 2 ? Long.MAX_VALUE : 2 * budget) {
+                nodeLimit = Math.min(limit, nodes > Long.MAX_VALUE - budget ? Long.MAX_VALUE : nodes + budget);
+                if (successfulSolve()) {
+                    return true;
+                }
+                if (!cancelled || nodeLimit == limit || token.isCancelled()) {
+                    return false;
+                }
+            }
+        }
+        finally {
+            nodeLimit = limit;
+            this.random = order;
+        }
+    }
+
+    /**
+     * Counts the solutions of the board, which is left as it was found.
+     * @param limit the number of solutions after which to stop, at least 1
+     * @return the number of solutions, capped at limit; if the count was cancelled, the solutions found until then
+     */
+    public int countSolutions(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("The solution limit must be at least 1, got " + limit);
+        }
+        cancelled = false;
+        if (state.hasContradiction()) {
+            return 0;
+        }
+        int mark = state.mark();
+        int count = Propagator.propagate(state) ? countHelper(limit) : 0;
+        state.undo(mark);
+        return Math.min(count, limit);
+    }
+
+    private boolean poll() {
+        if ((++nodes & CancellationToken.POLL_MASK) == 0
+                && (nodes > nodeLimit || token.poll(CancellationToken.POLL_INTERVAL))) {
+            cancelled = true;
+        }
+        return cancelled;
+    }
+
+    private boolean solveHelper() {
+        if (poll()) {
+            return false;
+        }
+        int branch = selectBranch();
+        // Termination condition: we have filled up the board and successfully solved the puzzle.
+        if (branch == FULL) {
+            return true;
+        }
+
+        if (branch >= 0) {
+            // Branch on the values of a cell.
+            int cell = branch;
+            long candidates = state.candidateMask(cell);
+            if (preferred != null) {
+                int value = preferred[cell / state.size()][cell % state.size()];
+                long bit = 1L << (value - 1);
+                if ((candidates & bit) != 0) {
+                    candidates ^= bit;
+                    if (tryValue(cell, value)) {
+                        return true;
+                    }
+                }
+            }
+            int offset = random == null ? 0 : random.nextInt(state.size());
+            while (candidates != 0 && !cancelled) {
+                // The lowest candidate from "offset" up, wrapping around to the lowest one.
+                long above = candidates & (-1L << offset);
+                long bit = Long.lowestOneBit(above != 0 ? above : candidates);
+                candidates ^= bit;
+                if (tryValue(cell, Long.numberOfTrailingZeros(bit) + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Branch on the places left for a value in a unit. The board is restored after every failed try, so the
+        // places can be read from it as we go.
+        int[] unit = state.geometry().units[unitOf(branch)];
+        int value = valueOf(branch);
+        long bit = 1L << (value - 1);
+        int first = -1;
+        if (preferred != null) {
+            for (int cell : unit) {
+                if (preferred[cell / state.size()][cell % state.size()] == value) {
+                    first = cell;
+                    if (state.get(cell) == 0 && (state.candidateMask(cell) & bit) != 0 && tryValue(cell, value)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        int start = random == null ? 0 : random.nextInt(unit.length);
+        for (int i = 0; i < unit.length; i++) {
+            int cell = unit[(start + i) % unit.length];
+            if (cancelled) {
+                return false;
+            }
+            if (cell != first && state.get(cell) == 0 && (state.candidateMask(cell) & bit) != 0 &&
+                    tryValue(cell, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean tryValue(int cell, int value) {
+        int mark = state.mark();
+        state.place(cell, value);
+        if (Propagator.propagate(state) && solveHelper()) {
+            return true;
+        }
+        // If it fails to place a value correctly, make sure the value and its deductions are "cleaned".
+        state.undo(mark);
+        return false;
+    }
+
+    private int countHelper(int limit) {
+        if (poll()) {
+            return 0;
+        }
+        int branch = selectBranch();
+        if (branch == FULL) {
+            return 1;
+        }
+
+        // Every solution places the branch's value in exactly one of its places (or its cell holds exactly one
+        // of its values), so no solution is counted twice.
+        int solutions = 0;
+        int[] unit = branch >= 0 ? null : state.geometry().units[unitOf(branch)];
+        long candidates = branch >= 0 ? state.candidateMask(branch) : 1L << (valueOf(branch) - 1);
+        for (int i = 0; branch >= 0 ? candidates != 0 : i < unit.length; i++) {
+            int cell;
+            int value;
+            if (branch >= 0) {
+                long bit = candidates & -candidates;
+                candidates ^= bit;
+                cell = branch;
+                value = Long.numberOfTrailingZeros(bit) + 1;
+            }
+            else {
+                cell = unit[i];
+                value = valueOf(branch);
+                if (state.get(cell) != 0 || (state.candidateMask(cell) & candidates) == 0) {
+                    continue;
+                }
+            }
+            int mark = state.mark();
+            state.place(cell, value);
+            if (Propagator.propagate(state)) {
+                solutions += countHelper(limit - solutions);
+            }
+            state.undo(mark);
+            if (solutions >= limit || cancelled) {
+                return solutions;
+            }
+        }
+        return solutions;
+    }
+
+    /**
+     * Picks what to branch on: the most constrained cell, unless some unit has fewer places left for one of its
+     * missing values than that cell has candidates. Branching on those places is just as complete (the value
+     * must go in exactly one of them) and makes a narrower tree.
+     * @return FULL if the board is full, a cell to branch on its values, or a unit and value encoded by
+     * unitBranch
+     */
+    private int selectBranch() {
+        int cell = random == null || state.emptyCount() == 0 ? state.mostConstrainedCell()
+                : state.mostConstrainedCell(random.nextInt(state.emptyCount()));
+        if (cell < 0) {
+            return FULL;
+        }
+        int best = state.candidateCount(cell);
+        if (best <= 2) {
+            return cell;
+        }
+
+        int branch = cell;
+        BoardGeometry geo = state.geometry();
+        int nPlanes = 32 - Integer.numberOfLeadingZeros(geo.size);
+        for (int u = 0; u < geo.units.length; u++) {
+            // Count the places of every value at once, in bit-sliced counters: bit v of planes[k] is bit k of the
+            // number of places left for value v + 1.
+            Arrays.fill(planes, 0, nPlanes, 0);
+            for (int c : geo.units[u]) {
+                if (state.get(c) == 0) {
+                    long carry = state.candidateMask(c);
+                    for (int k = 0; k < nPlanes && carry != 0; k++) {
+                        long next = planes[k] & carry;
+                        planes[k] ^= carry;
+                        carry = next;
+                    }
+                }
+            }
+            long missing = state.valueMask() & ~state.unitMask(u);
+            for (int t = 2; t < best; t++) {
+                long values = missing;
+                for (int k = 0; k < nPlanes; k++) {
+                    values &= ((t >> k) & 1) != 0 ? planes[k] : ~planes[k];
+                }
+                if (values != 0) {
+                    best = t;
+                    branch = unitBranch(u, Long.numberOfTrailingZeros(values) + 1);
+                    break;
+                }
+            }
+            if (best == 2) {
+                break;
+            }
+        }
+        return branch;
+    }
+
+    private static int unitBranch(int unit, int value) {
+        return -2 - (unit << 6 | (value - 1));
+    }
+
+    private static int unitOf(int branch) {
+        return (-2 - branch) >> 6;
+    }
+
+    private static int valueOf(int branch) {
+        return ((-2 - branch) & 63) + 1;
+    }
+
+    /**
+     * Solves a board of any size up to 36x36, with restarts from RESTART_NODES nodes.
+     * @param grid the puzzle; it is not modified
+     * @return the solved grid, or null if the puzzle has no solution
+     */
+    public static Integer[][] solvePuzzle(int[][] grid) throws Exception {
+        LargeBoardState state = new LargeBoardState(GridView.of(grid));
+        if (new LargeSudokuSolver(state).successfulSolveWithRestarts(RESTART_NODES, threadRandom().split())) {
+            return toTwoDIntegerArray(state.toGrid());
+        }
+        return null;
+    }
+
+    /**
+     * Counts the solutions of a board of any size up to 36x36.
+     * @param board the puzzle; it is only read
+     * @param limit the number of solutions after which to stop, at least 1
+     * @return the number of solutions, capped at limit
+     */
+    public static int countSolutions(GridView board, int limit) throws Exception {
+        return new LargeSudokuSolver(board).countSolutions(limit);
+    }
+}
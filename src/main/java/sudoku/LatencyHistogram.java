@@ -0,0 +1,109 @@
+package sudoku;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds with log-linear buckets: every power of two is split into four buckets,
+ * so a percentile read from it is at most 25% above the true value, over the whole range of a long.
+ *
+ * Every bucket is a LongAdder, so threads recording at the same time do not contend, and recording never
+ * allocates.
+ */
+final class LatencyHistogram {
+
+    // Each power of two is split into 2^SUB_BITS buckets.
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[bucketOf(nanos)].increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        total.reset();
+        max.reset();
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the smallest value that falls into the bucket after "bucket", i.e. the exclusive upper bound
+     */
+    static long upperBound(int bucket) {
+        int next = bucket + 1;
+        if (next < SUB_BUCKETS) {
+            return next;
+        }
+        int exponent = next / SUB_BUCKETS + SUB_BITS - 1;
+        long bound = (long) (SUB_BUCKETS + next % SUB_BUCKETS) << (exponent - SUB_BITS);
+        return bound < 0 ? Long.MAX_VALUE : bound;
+    }
+
+    /**
+     * Reads the histogram. Records made while it is read may or may not be included.
+     */
+    SearchStats.LatencySummary summarize() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+        long maxNanos = max.get();
+        double mean = count == 0 ? 0 : (double) total.sum() / count;
+        return new SearchStats.LatencySummary(count, toMillis(mean),
+                toMillis(percentile(counts, count, 0.5, maxNanos)),
+                toMillis(percentile(counts, count, 0.9, maxNanos)),
+                toMillis(percentile(counts, count, 0.99, maxNanos)),
+                toMillis(maxNanos));
+    }
+
+    /**
+     * @return the upper bound of the bucket that holds the value of rank ceil(p * count), capped at the maximum
+     */
+    private static double percentile(long[] counts, long count, double p, long maxNanos) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i) - 1, maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    private static double toMillis(double nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,116 @@
+package sudoku;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A board stored as a packed record of fixed-width cells: bitsPerCell(size) bits per cell in row-major order,
+ * least significant bits first, 0 for an empty cell. A 9x9 board takes 41 bytes, a 16x16 board 160 bytes and a
+ * 25x25 board 391 bytes.
+ *
+ * A PackedBoard is a view on a record inside a ByteBuffer (a heap buffer or a memory-mapped PackedBoardStore).
+ * Reads use absolute positions only, so any number of threads may read the same buffer at once.
+ */
+public final class PackedBoard implements GridView {
+
+    // The buffer holding the record, and the position of its first byte.
+    private final ByteBuffer buffer;
+    private final int offset;
+
+    // The number of rows of the board, the width of a cell and a mask of that many bits.
+    private final int size;
+    private final int bits;
+    private final int mask;
+
+    PackedBoard(ByteBuffer buffer, int offset, int size) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.size = size;
+        this.bits = bitsPerCell(size);
+        this.mask = (1 << bits) - 1;
+    }
+
+    /**
+     * @param size the number of rows of the board
+     * @return the number of bits needed to store a cell holding 0 .. size
+     */
+    public static int bitsPerCell(int size) {
+        return 32 - Integer.numberOfLeadingZeros(size);
+    }
+
+    /**
+     * @param size the number of rows of the board
+     * @return the number of bytes of a packed record of the board
+     */
+    public static int recordBytes(int size) {
+        return (size * size * bitsPerCell(size) + 7) / 8;
+    }
+
+    /**
+     * Packs "board" into a new heap record.
+     * @param board the board to store
+     * @return a packed copy of the board
+     */
+    public static PackedBoard pack(GridView board) {
+        ByteBuffer buffer = ByteBuffer.allocate(recordBytes(board.size()));
+        write(buffer, 0, board);
+        return new PackedBoard(buffer, 0, board.size());
+    }
+
+    /**
+     * Writes the packed record of "board" into "buffer" at "offset", overwriting recordBytes(size) bytes.
+     */
+    static void write(ByteBuffer buffer, int offset, GridView board) {
+        int size = board.size();
+        int bits = bitsPerCell(size);
+        int length = recordBytes(size);
+        for (int i = 0; i < length; i++) {
+            buffer.put(offset + i, (byte) 0);
+        }
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                int value = board.get(r, c);
+                if (value < 0 || value > size) {
+                    throw new IllegalArgumentException("Cell (" + r + ", " + c + ") holds " + value + ", which is out of range!");
+                }
+                int bit = (r * size + c) * bits;
+                int i = offset + (bit >>> 3);
+                int word = value << (bit & 7);
+                buffer.put(i, (byte) (buffer.get(i) | word));
+                // A cell is at most 6 bits wide, so it spans at most two bytes.
+                if ((bit & 7) + bits > 8) {
+                    buffer.put(i + 1, (byte) (buffer.get(i + 1) | (word >>> 8)));
+                }
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int get(int row, int col) {
+        int bit = (row * size + col) * bits;
+        int i = offset + (bit >>> 3);
+        int word = buffer.get(i) & 0xFF;
+        if ((bit & 7) + bits > 8) {
+            word |= (buffer.get(i + 1) & 0xFF) << 8;
+        }
+        return (word >>> (bit & 7)) & mask;
+    }
+
+    /**
+     * Unpacks the board.
+     * @return a new int[][] holding the values of the board
+     */
+    public int[][] toGrid() {
+        int[][] grid = new int[size][size];
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                grid[r][c] = get(r, c);
+            }
+        }
+        return grid;
+    }
+}
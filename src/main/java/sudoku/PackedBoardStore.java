@@ -0,0 +1,211 @@
+package sudoku;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file of packed boards (see PackedBoard) of one size, memory-mapped for O(1) random access.
+ *
+ * The file starts with a 16-byte header: the magic number "SDKP", a version byte, the number of subregions, the
+ * bits per cell and a reserved byte, then the number of records as a long. The records follow back to back, so
+ * board i starts at byte HEADER_BYTES + i * recordBytes. Files larger than 2 GB are mapped in several segments
+ * that each hold a whole number of records.
+ */
+public final class PackedBoardStore {
+
+    // "SDKP" in ASCII.
+    public static final int MAGIC = 0x53444B50;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+
+    // The number of bytes mapped per segment, rounded down to whole records.
+    private static final int SEGMENT_BYTES = 1 << 30;
+
+    // The number of rows of every board, and the bytes of one record.
+    private final int size;
+    private final int recordBytes;
+
+    // The number of boards in the store.
+    private final long count;
+
+    // The mapped records, recordsPerSegment boards per segment.
+    private final ByteBuffer[] segments;
+    private final int recordsPerSegment;
+
+    private PackedBoardStore(int size, long count, ByteBuffer[] segments, int recordsPerSegment) {
+        this.size = size;
+        this.recordBytes = PackedBoard.recordBytes(size);
+        this.count = count;
+        this.segments = segments;
+        this.recordsPerSegment = recordsPerSegment;
+    }
+
+    /**
+     * Maps a store written by a Writer. The file may be closed (or even deleted on most systems) afterwards.
+     * @param path the store file
+     * @return the mapped store
+     * @throws IOException if the file cannot be read or is not a packed board file
+     */
+    public static PackedBoardStore open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    break;
+                }
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC || header.get(4) != VERSION) {
+                throw new IOException(path + " is not a packed board file");
+            }
+            int nRegions = header.get(5);
+            if (nRegions < 2 || nRegions > BoardGeometry.MAX_LARGE_REGIONS ||
+                    header.get(6) != PackedBoard.bitsPerCell(nRegions * nRegions)) {
+                throw new IOException(path + " has an unsupported board size");
+            }
+            int size = nRegions * nRegions;
+            int recordBytes = PackedBoard.recordBytes(size);
+            long count = header.getLong(8);
+            if (count < 0 || HEADER_BYTES + count * recordBytes > channel.size()) {
+                throw new IOException(path + " is truncated");
+            }
+
+            int recordsPerSegment = SEGMENT_BYTES / recordBytes;
+            int nSegments = (int) ((count + recordsPerSegment - 1) / recordsPerSegment);
+            ByteBuffer[] segments = new ByteBuffer[nSegments];
+            for (int s = 0; s < nSegments; s++) {
+                long first = (long) s * recordsPerSegment;
+                long records = Math.min(recordsPerSegment, count - first);
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first * recordBytes,
+                        records * recordBytes);
+            }
+            return new PackedBoardStore(size, count, segments, recordsPerSegment);
+        }
+    }
+
+    /**
+     * @return the number of rows (and columns) of every board in the store
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of boards in the store
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @param index the position of the board, 0 .. count() - 1
+     * @return a view on the stored record; it reads the mapped file directly and allocates nothing else
+     */
+    public PackedBoard get(long index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Board " + index + " of " + count);
+        }
+        int segment = (int) (index / recordsPerSegment);
+        int offset = (int) (index % recordsPerSegment) * recordBytes;
+        return new PackedBoard(segments[segment], offset, size);
+    }
+
+    /**
+     * Creates (or replaces) a store file that boards of nRegions * nRegions rows can be appended to.
+     * @param path the file to write
+     * @param nRegions the number of subregions along each row of the boards
+     * @return a writer that must be closed to complete the file
+     * @throws IOException if the file cannot be created
+     */
+    public static Writer create(Path path, int nRegions) throws IOException {
+        if (nRegions < 2 || nRegions > BoardGeometry.MAX_LARGE_REGIONS) {
+            throw new IllegalArgumentException("Unsupported number of subregions: " + nRegions);
+        }
+        return new Writer(FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING), nRegions);
+    }
+
+    /**
+     * Appends boards to a store file. The record count in the header is written when the writer is closed.
+     */
+    public static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final int nRegions;
+        private final int size;
+        private final int recordBytes;
+
+        // Records are gathered here and written out in large blocks.
+        private final ByteBuffer buffer;
+        private long count;
+
+        private Writer(FileChannel channel, int nRegions) throws IOException {
+            this.channel = channel;
+            this.nRegions = nRegions;
+            this.size = nRegions * nRegions;
+            this.recordBytes = PackedBoard.recordBytes(size);
+            this.buffer = ByteBuffer.allocateDirect(Math.max(1, (1 << 16) / recordBytes) * recordBytes);
+            writeHeader();
+            channel.position(HEADER_BYTES);
+        }
+
+        /**
+         * Appends "board" to the store.
+         * @param board a board with size() rows, 0 for empty cells
+         */
+        public void add(GridView board) throws IOException {
+            if (board.size() != size) {
+                throw new IllegalArgumentException("Expected a board of size " + size + ", got " + board.size());
+            }
+            if (buffer.remaining() < recordBytes) {
+                flush();
+            }
+            PackedBoard.write(buffer, buffer.position(), board);
+            buffer.position(buffer.position() + recordBytes);
+            count++;
+        }
+
+        public void add(int[][] grid) throws IOException {
+            add(GridView.of(grid));
+        }
+
+        /**
+         * @return the number of boards added so far
+         */
+        public long count() {
+            return count;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void writeHeader() throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).put((byte) VERSION).put((byte) nRegions)
+                    .put((byte) PackedBoard.bitsPerCell(size)).put((byte) 0).putLong(count);
+            header.flip();
+            long position = 0;
+            while (header.hasRemaining()) {
+                position += channel.write(header, position);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                writeHeader();
+            }
+            finally {
+                channel.close();
+            }
+        }
+    }
+}
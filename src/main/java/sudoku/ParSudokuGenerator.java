@@ -1,16 +1,10 @@
 package sudoku;
 
-import javafx.util.Pair;
-
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
+import java.util.SplittableRandom;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.RecursiveAction;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import static sudoku.SudokuHelper.*;
 
@@ -25,13 +19,25 @@ public class ParSudokuGenerator {
     // Each row and column is divided into nRegions subgrids.
     private int nRegions;
 
+    // Bitmask bookkeeping for the grid, updated as values are placed and removed.
+    private BoardState state;
+
+    // The source of the value order in every cell.
+    private final SplittableRandom random;
+
+    // The shuffled values of every level of the search, reused from one node to the next.
+    private final int[][] valueOrder;
+
     public ParSudokuGenerator(int[][] grid) throws Exception {
-        if (grid.length != grid[0].length ||
-                Math.pow(Math.sqrt(grid.length), 2) != grid.length) {
-            throw new Exception("The input must be a square matrix that can be easily divided into subregions!");
-        }
+        this(grid, threadRandom());
+    }
+
+    ParSudokuGenerator(int[][] grid, SplittableRandom random) throws Exception {
+        this.state = new BoardState(grid);
         this.grid = grid;
-        nRegions = (int)Math.sqrt(grid.length);
+        nRegions = state.nRegions();
+        this.random = random;
+        this.valueOrder = new int[state.emptyCount()][nRegions * nRegions];
     }
 
     /**
@@ -49,42 +55,78 @@ public class ParSudokuGenerator {
      * @throws Exception
      */
     public static int[][] generateValidCompleteBoard(int nRegions) throws Exception {
-        ParSudokuGenerator s = new ParSudokuGenerator(new int[nRegions * nRegions][nRegions * nRegions]);
-        if (s.generateHelper()) {
+        return generateValidCompleteBoard(nRegions, threadRandom());
+    }
+
+    /**
+     * Creates a filled valid sudoku board of the specified size, the same one for the same seed.
+     * @param nRegions the square root of the number of rows
+     * @param seed the seed of the random choices
+     * @return a completed, valid sudoku board of row and col size nRegions^2
+     */
+    public static int[][] generateValidCompleteBoard(int nRegions, long seed) throws Exception {
+        return generateValidCompleteBoard(nRegions, new SplittableRandom(seed));
+    }
+
+    private static int[][] generateValidCompleteBoard(int nRegions, SplittableRandom random) throws Exception {
+        long start = System.nanoTime();
+        ParSudokuGenerator s = new ParSudokuGenerator(new int[nRegions * nRegions][nRegions * nRegions], random);
+        boolean generated = s.generateHelper();
+        SearchStats.recordPhase(SearchStats.Phase.GENERATE, nRegions * nRegions, null, start);
+        if (generated) {
             // We have generated a random valid (filled) sudoku board.
             return s.getGrid();
         }
         return null;
     }
 
+    /**
+     * Creates a filled valid sudoku board of the specified size without searching, by applying a random
+     * validity-preserving transform to a pattern board (see BoardTransform). Unlike generateValidCompleteBoard,
+     * this takes O(n^2) time for every size, including 16x16 and 25x25 boards.
+     * @param nRegions the square root of the number of rows
+     * @return a completed, valid sudoku board of row and col size nRegions^2
+     */
+    public static int[][] generateTransformedCompleteBoard(int nRegions) {
+        return BoardTransform.randomCompleteBoard(nRegions);
+    }
+
+    public static int[][] generateTransformedCompleteBoard(int nRegions, long seed) {
+        return BoardTransform.randomCompleteBoard(nRegions, new SplittableRandom(seed));
+    }
+
     /**
      * Helps create a valid completed sudoku board.
      * @return true if able to generate a valid board, false otherwise.
      */
     public boolean generateHelper() {
+        return generateHelper(0);
+    }
+
+    private boolean generateHelper(int depth) {
         // First find an empty cell.
-        Optional<Pair<Integer, Integer>> oCoords = findUnassignedCell(grid);
+        int cell = state.firstEmptyCell();
 
         // Termination condition: we have filled up the board and successfully solved the puzzle.
-        if (!oCoords.isPresent()) {
+        if (cell < 0) {
             return true;
         }
 
-        int r = oCoords.get().getKey();
-        int c = oCoords.get().getValue();
-
-        List<Integer> testValues = IntStream.range(1, nRegions * nRegions + 1).boxed().collect(Collectors.toList());
-        Collections.shuffle(testValues);
-        for (Integer testVal : testValues) {
-            if (safeToPlace(grid, r, c, testVal)) {
-                grid[r][c] = testVal;
-                if(generateHelper()) {
+        int[] testValues = valueOrder[depth];
+        for (int i = 0; i < testValues.length; i++) {
+            testValues[i] = i + 1;
+        }
+        shuffle(testValues, random);
+        for (int testVal : testValues) {
+            if (state.canPlace(cell, testVal)) {
+                state.place(cell, testVal);
+                if(generateHelper(depth + 1)) {
                     return true;
                 }
+                // If it fails to place a value correctly, make sure the value is "cleaned".
+                state.unplace(cell);
             }
         }
-        // If it fails to place a value correctly, make sure the value is "cleaned".
-        grid[r][c] = 0;
 
         return false;
     }
@@ -96,38 +138,171 @@ public class ParSudokuGenerator {
      * @throws Exception
      */
     public static int[][] pruneCompleteBoard(int[][] grid, Difficulty diff) throws Exception {
-        // Create a temp variable to hold the previous grid state.
-        int[][] oldGrid = null;
-
-        // Create a list that represents all coordinates in the board.
-        List<Pair<Integer, Integer>> listCoords = new ArrayList<>();
-        for (int r = 0; r < grid.length; r++) {
-            for (int c = 0; c < grid[0].length; c++) {
-                listCoords.add(new Pair<>(r, c));
+        return pruneCompleteBoard(grid, diff, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Prunes "grid" like pruneCompleteBoard(grid, diff, pool), the same way for the same seed whatever the number
+     * of workers of "pool", and the same way as SeqSudokuGenerator.pruneCompleteBoard(grid, diff, seed).
+     * @param grid A completed sudoku board.
+     * @param diff decides the order in which cells are tried
+     * @param seed the seed of the order of EASY puzzles
+     * @param pool the pool to run the checks on; it is not shut down
+     * @return A completable sudoku board.
+     */
+    public static int[][] pruneCompleteBoard(int[][] grid, Difficulty diff, long seed, ForkJoinPool pool)
+            throws Exception {
+        return pruneCompleteBoard(grid, diff, pruneOrder(grid.length, diff, new SplittableRandom(seed)), pool);
+    }
+
+    /**
+     * Prunes "grid" exactly like SeqSudokuGenerator.pruneCompleteBoard would for the same order of cells, but
+     * checks the next few undecided removals of that order concurrently, one uniqueness check per worker of
+     * "pool".
+     *
+     * Like a processor speculating past branches, each round predicts the outcome of every removal in its window
+     * (from the last result seen for that removal, or else from the removal before it) and checks each one on the
+     * board those predictions lead to. The results are then committed in order. A result is exact if every
+     * earlier prediction of the round came true. It also holds when the predictions that failed only left the
+     * checked board with fewer givens than the real one and the removal kept the puzzle unique, since adding
+     * givens never adds a solution; or only with more givens and the removal broke uniqueness, since removing
+     * givens never takes a solution away. Anything else is left for the next round, with its result kept as the
+     * new prediction. The first removal of a round has nothing undecided before it, so every round decides at
+     * least one, and the outcome never depends on timing or on the number of workers.
+     * @param grid A completed sudoku board.
+     * @param diff decides the order in which cells are tried
+     * @param pool the pool to run the checks on; it is not shut down
+     * @return A completable sudoku board.
+     */
+    public static int[][] pruneCompleteBoard(int[][] grid, Difficulty diff, ForkJoinPool pool) throws Exception {
+        return pruneCompleteBoard(grid, diff, pruneOrder(grid.length, diff, threadRandom()), pool);
+    }
+
+    private static int[][] pruneCompleteBoard(int[][] grid, Difficulty diff, int[] order, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        // The complete board is the unique solution of every puzzle pruned from it.
+        final int[][] solution = grid;
+        int size = grid.length;
+
+        // The fate of every removal of the order, and the outcome last observed for the undecided ones.
+        final byte UNKNOWN = 0;
+        final byte ACCEPTED = 1;
+        final byte REJECTED = 2;
+        int n = order.length;
+        byte[] decision = new byte[n];
+        byte[] hint = new byte[n];
+        int batchSize = Math.max(1, pool.getParallelism());
+
+        // The board with every accepted removal before the first undecided one applied.
+        int[][] current = deepCopyIntMatrix(solution);
+
+        int first = 0;
+        while (first < n) {
+            // Predict the next undecided removals and build the board each of them is checked on.
+            final List<RemovalCheck> checks = new ArrayList<>(batchSize);
+            int[][] speculative = current;
+            boolean predictAccept = first == 0 || decision[first - 1] == ACCEPTED;
+            for (int i = first; i < n && checks.size() < batchSize; i++) {
+                int r = order[i] / size;
+                int c = order[i] % size;
+                if (decision[i] != UNKNOWN) {
+                    // Decided out of order in an earlier round: the checks after it see it as it was decided.
+                    predictAccept = decision[i] == ACCEPTED;
+                    if (predictAccept) {
+                        speculative = deepCopyIntMatrix(speculative);
+                        speculative[r][c] = 0;
+                    }
+                    continue;
+                }
+                if (hint[i] != UNKNOWN) {
+                    predictAccept = hint[i] == ACCEPTED;
+                }
+                int[][] g = deepCopyIntMatrix(speculative);
+                g[r][c] = 0;
+                checks.add(new RemovalCheck(g, solution, r, c, i, predictAccept));
+                if (predictAccept) {
+                    speculative = g;
+                }
+            }
+            if (checks.size() == 1) {
+                checks.get(0).compute();
+            }
+            else {
+                pool.invoke(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        invokeAll(checks);
+                    }
+                });
+            }
+
+            // Commit in order, tracking how the boards checked so far may differ from the real ones.
+            boolean fewerGivens = false;
+            boolean moreGivens = false;
+            for (RemovalCheck check : checks) {
+                boolean exact = !fewerGivens && !moreGivens;
+                byte outcome = UNKNOWN;
+                if (exact || (check.unique && !moreGivens) || (!check.unique && !fewerGivens)) {
+                    outcome = check.unique ? ACCEPTED : REJECTED;
+                    decision[check.index] = outcome;
+                }
+                else {
+                    hint[check.index] = check.unique ? ACCEPTED : REJECTED;
+                }
+                // Later boards assumed this removal went as predicted.
+                if (outcome != ACCEPTED && check.predictedAccept) {
+                    fewerGivens = true;
+                }
+                if (outcome != REJECTED && !check.predictedAccept) {
+                    moreGivens = true;
+                }
+            }
+            while (first < n && decision[first] != UNKNOWN) {
+                if (decision[first] == ACCEPTED) {
+                    current[order[first] / size][order[first] % size] = 0;
+                }
+                first++;
             }
         }
+        SearchStats.recordPhase(SearchStats.Phase.PRUNE, size, diff, start);
+        return current;
+    }
 
-        // Determine the sequence of cells to prune according to difficulty.
-        pruneHelper(grid, listCoords, diff);
-
-        for (int i = 0; i < listCoords.size(); i++) {
-            oldGrid = grid;
-            // Pick a point at random.
-            Pair<Integer, Integer> coord = listCoords.get(i);
-            int[][] g = deepCopyIntMatrix(grid);
-            // Set its value to 0 in a temporary grid.
-            g[coord.getKey()][coord.getValue()] = 0;
-            // Check to see if it has mutiple solutions.
-            grid = g;
-            if (ParHelper.runHelper(g) > 1) {
-                grid = oldGrid;
-                // if the board size is too large, terminate early because otherwise it takes forever.
-                //if (grid.length >= 16) {
-                //    return grid;
-                //}
+    /**
+     * Checks whether one removal of the pruning order keeps the puzzle unique.
+     */
+    private static final class RemovalCheck extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[][] puzzle;
+        private final int[][] solution;
+        private final int row;
+        private final int col;
+
+        // The position of the removal in the pruning order, and the outcome it was predicted to have.
+        private final int index;
+        private final boolean predictedAccept;
+
+        private boolean unique;
+
+        RemovalCheck(int[][] puzzle, int[][] solution, int row, int col, int index, boolean predictedAccept) {
+            this.puzzle = puzzle;
+            this.solution = solution;
+            this.row = row;
+            this.col = col;
+            this.index = index;
+            this.predictedAccept = predictedAccept;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                unique = SolutionCounter.remainsUnique(puzzle, solution, row, col);
+            }
+            catch (Exception e) {
+                throw new IllegalStateException(e);
             }
         }
-        return grid;
     }
 
     public static void main(String[] args) throws Exception {
@@ -142,109 +317,40 @@ public class ParSudokuGenerator {
     }
 
 
+    /**
+     * Parallel solution counting for the generator, capped at two solutions. A thin wrapper kept for existing
+     * callers: the counting itself lives in SolutionCounter.
+     */
     public static class ParHelper extends RecursiveAction {
 
-        // A thread-safe variable that stores the number of totalSolns found to the sudoku problem.
-        private static AtomicInteger totalSolns = new AtomicInteger(0);
-
-        // The current grid state.
-        private final int[][] grid;
-
-        // Keeps track of the current depth of the recursive backtracking.
-        private final int depth;
-
-        // After a certain cutoff depth, default to a sequential computation.
-        private final int cutoff;
-
-        // Each row and column is divided into nRegions subgrids.
-        private final int nRegions;
+        // The root task of the count.
+        private final SolutionCounter.Task task;
 
         public ParHelper(int[][] grid, int depth, int cutoff) throws Exception {
-            this.grid = grid;
-            this.depth = depth;
-            this.cutoff = cutoff;
-            if (grid.length != grid[0].length ||
-                    Math.pow(Math.sqrt(grid.length), 2) != grid.length) {
-                throw new Exception("The input must be a square matrix that can be easily divided into subregions!");
-            }
+            this(grid, GranularityController.fixedDepth(cutoff));
+        }
 
-            nRegions = (int)Math.sqrt(grid.length);
+        public ParHelper(int[][] grid, GranularityController granularity) throws Exception {
+            this.task = new SolutionCounter.Task(grid, 2, granularity);
         }
 
-        private static void resetAtomicVariables() {
-            totalSolns = new AtomicInteger(0);
+        /**
+         * @return the number of solutions found so far, capped at 2
+         */
+        public int getSolutionCount() {
+            return task.getSolutionCount();
         }
 
         /**
-         * Computes the solution to the sudoku grid by using a parallelized recursive backtracking strategy.
+         * Counts the solutions of the grid by using a parallelized recursive backtracking strategy.
          */
         @Override
         public void compute() {
-            // Check if we've found at least 2 solutions for the board across all threads. If it does, return immediately.
-            if (totalSolns.get() > 1) {
-                return;
-            }
-
-            // First, find an empty cell.
-            Optional<Pair<Integer, Integer>> oCoords = findUnassignedCell(grid);
-
-            // We have filled up the board and successfully solved the puzzle. Let other threads continue operations.
-            if (!oCoords.isPresent()) {
-                totalSolns.incrementAndGet();
-                return;
-            }
-
-            // We have a valid cell to target. Do we do our computation sequentially?
-            if (depth > cutoff) {
-                try {
-                    // Find the count of solutions that result from the current grid and add to count.
-                    totalSolns.addAndGet(SeqSudokuGenerator.SeqHelper.runHelper(grid));
-                    return;
-                }
-                catch(Exception e) {
-                    System.exit(100);
-                }
-            }
-
-            // If not sequentially, we'll do it in parallel.
-            int r = oCoords.get().getKey();
-            int c = oCoords.get().getValue();
-            final List<RecursiveAction> actions = new ArrayList<>();
-
-            for (int testVal = 1 ; testVal <= nRegions * nRegions; testVal++) {
-                if (safeToPlace(grid, r, c, testVal)) {
-                    // Construct a deep-copy of the grid.
-                    final int[][] tempGrid = deepCopyIntMatrix(grid);
-                    // Modify it to reflect the testing value.
-                    tempGrid[r][c] = testVal;
-                    // Create a new task to check if this leads to a valid solution.
-                    RecursiveAction action = null;
-                    try {
-                        action = new ParHelper(tempGrid, depth + 1, cutoff);
-                    }
-                    catch (Exception e) {
-                        System.exit(100);
-                    }
-                    // Add this task to the "to-do" list.
-                    actions.add(action);
-                }
-            }
-
-            // Invoke all the tasks.
-            invokeAll(actions);
-
-            for (RecursiveAction action: actions) {
-                action.join();
-            }
+            task.invoke();
         }
 
         public static int runHelper(int[][] grid) throws Exception {
-            final ParHelper newSolver = new ParHelper(grid, 0, 10);
-            ForkJoinPool pool = new ForkJoinPool();
-            pool.invoke(newSolver);
-            int retVal = totalSolns.get();
-            resetAtomicVariables();
-            return retVal;
+            return SolutionCounter.countSolutions(grid, 2);
         }
 
     }
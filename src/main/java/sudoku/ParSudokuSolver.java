@@ -1,13 +1,7 @@
 package sudoku;
 
-import javafx.util.Pair;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.RecursiveAction;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static sudoku.SudokuHelper.*;
@@ -18,118 +12,267 @@ import static sudoku.SudokuHelper.*;
 
 public class ParSudokuSolver extends RecursiveAction {
 
-    // Thread-safe implementations of storage for a "solved" boolean and a "finalGrid" Integer[][].
-    private static AtomicBoolean solved = new AtomicBoolean(false);
-    private static AtomicReference<Integer[][]> finalGrid = new AtomicReference<>(null);
+    /**
+     * The state shared by all the tasks of one solve. The first task to complete the board publishes it and
+     * cancels the solve's token; every later attempt is ignored, and all tasks, including the sequential searches
+     * they fell back to, stop once the token is cancelled.
+     */
+    private static final class Solve {
+        private final AtomicReference<Integer[][]> finalGrid = new AtomicReference<>(null);
+        private final CancellationToken token;
+
+        // The board at the root of the search. It is never modified once the solve has started: stolen tasks
+        // copy it and replay their path.
+        private final BoardState root;
+
+        Solve(BoardState root, CancellationToken parent) {
+            this.root = root;
+            token = new CancellationToken(parent);
+        }
 
-    // The current grid state.
-    private final int[][] grid;
+        boolean isStopped() {
+            return token.isCancelled();
+        }
+
+        void publish(int[][] grid) {
+            if (finalGrid.get() == null && finalGrid.compareAndSet(null, toTwoDIntegerArray(grid))) {
+                token.cancel();
+            }
+        }
+    }
+
+    // The solve this task belongs to.
+    private final Solve solve;
+
+    // The guesses leading from the root to this task's node, or null for the root task.
+    private final SearchPath path;
 
     // Keeps track of the current depth of the recursive backtracking.
     private final int depth;
 
-    // After a certain cutoff depth, default to a sequential computation.
-    private final int cutoff;
+    // Decides when to stop splitting and default to a sequential computation.
+    private final GranularityController granularity;
 
-    // Each row and column is divided into nRegions subgrids.
-    private final int nRegions;
+    // Decides which cell to branch on and in which order to try its values.
+    private final SearchStrategy strategy;
 
     public ParSudokuSolver(int[][] grid, int depth, int cutoff) throws Exception {
-        this.grid = grid;
-        this.depth = depth;
-        this.cutoff = cutoff;
-        if (grid.length != grid[0].length ||
-                Math.pow(Math.sqrt(grid.length), 2) != grid.length) {
-            throw new Exception("The input must be a square matrix that can be easily divided into subregions!");
-        }
+        this(grid, depth, cutoff, SearchStrategy.DEFAULT);
+    }
 
-        nRegions = (int)Math.sqrt(grid.length);
+    /**
+     * Creates the root task of a new, independent solve. Run it on any ForkJoinPool and read the result with
+     * getSolution().
+     */
+    public ParSudokuSolver(int[][] grid, int depth, int cutoff, SearchStrategy strategy) throws Exception {
+        this(grid, depth, cutoff, strategy, CancellationToken.NONE);
     }
 
-    private static void resetAtomicVariables() {
-        solved = new AtomicBoolean(false);
-        finalGrid = new AtomicReference<>(null);
+    /**
+     * Creates the root task of a new, independent solve that also gives up once "token" is cancelled.
+     */
+    public ParSudokuSolver(int[][] grid, int depth, int cutoff, SearchStrategy strategy, CancellationToken token)
+            throws Exception {
+        this(grid, strategy, GranularityController.fixedDepth(cutoff), token);
+    }
+
+    /**
+     * Creates the root task of a new, independent solve whose splitting is decided by "granularity".
+     */
+    public ParSudokuSolver(int[][] grid, SearchStrategy strategy, GranularityController granularity,
+                           CancellationToken token) throws Exception {
+        this(new Solve(new BoardState(grid), token), null, 0, strategy, granularity);
+    }
+
+    private ParSudokuSolver(Solve solve, SearchPath path, int depth, SearchStrategy strategy,
+                            GranularityController granularity) {
+        this.solve = solve;
+        this.path = path;
+        this.depth = depth;
+        this.strategy = strategy;
+        this.granularity = granularity;
+    }
+
+    /**
+     * @return the solution found by the solve this task belongs to, or null if none has been found (yet)
+     */
+    public Integer[][] getSolution() {
+        return solve.finalGrid.get();
     }
 
     /**
      * Computes the solution to the sudoku grid by using a parallelized recursive backtracking strategy.
+     *
+     * Only the root task and tasks stolen by another worker get here; children that stay with the worker that
+     * forked them are explored by search() on their parent's board. So this is the only place that copies one.
      */
     @Override
     public void compute() {
         // Check if the board is solved. If it is, return immediately and halt all further computation.
-        if (solved.get()) {
+        if (solve.isStopped()) {
             return;
         }
 
-        // First, find an empty cell.
-        Optional<Pair<Integer, Integer>> oCoords = findUnassignedCell(grid);
+        // Build a board of our own for this node, deducing what we can along the way.
+        BoardState state = SearchPath.replay(solve.root, path, strategy);
+        if (state != null) {
+            search(state, path, depth);
+        }
+    }
+
+    /**
+     * Searches the subtree below the node "path", whose board "state" has already been propagated. The board is
+     * modified during the search but rolled back before returning, unless it was completed.
+     */
+    private void search(BoardState state, SearchPath path, int depth) {
+        // Every node a task expands counts against the caller's budget, if any.
+        if (solve.token.poll(1)) {
+            return;
+        }
+
+        // First, pick an empty cell according to the strategy.
+        int cell = strategy.selectCell(state);
 
         // Termination condition: we have filled up the board and successfully solved the puzzle.
-        if (!oCoords.isPresent() && solved.compareAndSet(false, true)) {
-            // Construct a new grid of Integers and store them in the atomic reference.
-            finalGrid.compareAndSet(null, toTwoDIntegerArray(grid));
+        if (cell < 0) {
+            // Construct a new grid of Integers and store them in the atomic reference, unless another task won.
+            solve.publish(state.getGrid());
             return;
         }
 
         // We have a valid cell to target. Do we do our computation sequentially?
-        if (depth > cutoff) {
-            try {
-                SeqSudokuSolver seqSolver = new SeqSudokuSolver(grid);
-                if (seqSolver.successfulSolve() && solved.compareAndSet(false, true)) {
-                    finalGrid.compareAndSet(null, toTwoDIntegerArray(seqSolver.getGrid()));
-                }
-                return;
-            }
-            catch(Exception e) {
-                System.exit(100);
+        if (!granularity.shouldFork(state, depth)) {
+            SearchStats.recordFallback();
+            SeqSudokuSolver seqSolver = new SeqSudokuSolver(state, strategy, solve.token);
+            seqSolver.setBaseDepth(depth);
+            if (seqSolver.successfulSolve()) {
+                solve.publish(seqSolver.getGrid());
             }
+            return;
         }
 
-        // If not sequentially, we'll do it in parallel.
-        int r = oCoords.get().getKey();
-        int c = oCoords.get().getValue();
-        final List<RecursiveAction> actions = new ArrayList<>();
-
-        for (int testVal = 1 ; testVal <= nRegions * nRegions; testVal++) {
-            if (safeToPlace(grid, r, c, testVal)) {
-                // Construct a deep-copy of the grid.
-                final int[][] tempGrid = deepCopyIntMatrix(grid);
-                // Modify it to reflect the testing value.
-                tempGrid[r][c] = testVal;
-                // Create a new task to check if this leads to a valid solution.
-                RecursiveAction action = null;
-                try {
-                    action = new ParSudokuSolver(tempGrid, depth + 1, cutoff);
-                }
-                catch (Exception e) {
-                    System.exit(100);
+        // If not sequentially, we'll do it in parallel. The children only hold their path: push them in reverse,
+        // so that the most promising value ends up on top of this worker's deque and idle workers steal the
+        // least promising ones from the bottom.
+        int[] values = new int[state.size()];
+        int nValues = strategy.orderValues(state, cell, values);
+        ParSudokuSolver[] children = new ParSudokuSolver[nValues];
+        for (int i = nValues - 1; i >= 0; i--) {
+            children[i] = new ParSudokuSolver(solve, new SearchPath(path, cell, values[i]), depth + 1, strategy,
+                    granularity);
+            children[i].fork();
+        }
+
+        int inlined = 0;
+        for (int i = 0; i < nValues; i++) {
+            if (children[i].tryUnfork()) {
+                // Nobody stole it: explore it on this board and roll it back, without copying anything.
+                inlined++;
+                if (!solve.isStopped()) {
+                    int mark = state.mark();
+                    state.place(cell, values[i]);
+                    if (strategy.simplify(state)) {
+                        search(state, children[i].path, depth + 1);
+                    }
+                    state.undo(mark);
                 }
-                // Add this task to the "to-do" list.
-                actions.add(action);
+            }
+            else {
+                children[i].join();
             }
         }
+        SearchStats.recordFork(depth, nValues, inlined);
+    }
 
-        // Invoke all the tasks.
-        invokeAll(actions);
+    public static Integer[][] solvePuzzle(int[][] grid) throws Exception {
+        return solvePuzzle(grid, SearchStrategy.DEFAULT);
+    }
 
-        for (RecursiveAction action: actions) {
-            action.join();
-        }
+    /**
+     * Solves "grid" through "cache": puzzles equivalent to one solved before under the sudoku symmetries are
+     * answered without a search, and the others are solved with solvePuzzle(grid) and remembered.
+     * @param grid the puzzle; it is not modified
+     * @param cache the cache to look the puzzle up in and add its solution to
+     * @return the solved grid, or null if the puzzle has no solution
+     */
+    public static Integer[][] solvePuzzle(int[][] grid, SolutionCache cache) throws Exception {
+        return cache.solve(grid, ParSudokuSolver::solvePuzzle);
     }
 
-    public static Integer[][] solvePuzzle(int[][] grid) throws Exception {
-        int[][] g = deepCopyIntMatrix(grid);
-        final ParSudokuSolver task = new ParSudokuSolver(g, 0, 6);
-        ForkJoinPool pool = new ForkJoinPool();
-        pool.invoke(task);
-        task.join();
-        if(solved.get()) {
-            Integer[][] retVal = finalGrid.get();
-            resetAtomicVariables();
-            return retVal;
+    public static Integer[][] solvePuzzle(int[][] grid, SearchStrategy strategy) throws Exception {
+        return solvePuzzle(grid, strategy, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Solves "grid" on the given pool. All state lives in the tasks of this call, so any number of solves may
+     * run at the same time, on the same pool or on different ones.
+     * @param grid the puzzle; it is not modified
+     * @param strategy the branching heuristic to use
+     * @param pool the pool to run the search on; it is not shut down
+     * @return the solved grid, or null if the puzzle has no solution
+     */
+    public static Integer[][] solvePuzzle(int[][] grid, SearchStrategy strategy, ForkJoinPool pool)
+            throws Exception {
+        return solvePuzzle(grid, strategy, GranularityController.DEFAULT, pool);
+    }
+
+    /**
+     * Solves "grid" on the given pool, splitting work as decided by "granularity". Puzzles that are not worth
+     * splitting at all (or a pool with a single worker) are solved sequentially on the calling thread, so the
+     * parallel solver never pays for a pool handoff it cannot benefit from.
+     * @param grid the puzzle; it is not modified
+     * @param strategy the branching heuristic to use
+     * @param granularity decides which nodes are split into parallel tasks
+     * @param pool the pool to run the search on; it is not shut down
+     * @return the solved grid, or null if the puzzle has no solution
+     */
+    public static Integer[][] solvePuzzle(int[][] grid, SearchStrategy strategy, GranularityController granularity,
+                                          ForkJoinPool pool) throws Exception {
+        long start = System.nanoTime();
+        Integer[][] solution = solve(new BoardState(deepCopyIntMatrix(grid)), strategy, granularity,
+                CancellationToken.NONE, pool);
+        SearchStats.recordPhase(SearchStats.Phase.SOLVE, grid.length, null, start);
+        return solution;
+    }
+
+    /**
+     * Solves "grid" on the given pool unless "budget" runs out first. The budget covers every forked task and
+     * every sequential search they fall back to.
+     * @param grid the puzzle; it is not modified
+     * @param strategy the branching heuristic to use
+     * @param budget the time and nodes the search may use, across all threads
+     * @param pool the pool to run the search on; it is not shut down
+     * @return SOLVED with the solution, UNSOLVABLE, or BUDGET_EXCEEDED
+     */
+    public static SearchOutcome solveWithin(int[][] grid, SearchStrategy strategy, SearchBudget budget,
+                                            ForkJoinPool pool) throws Exception {
+        long start = System.nanoTime();
+        Integer[][] solution = solve(new BoardState(deepCopyIntMatrix(grid)), strategy, GranularityController.DEFAULT,
+                budget, pool);
+        SearchStats.recordPhase(SearchStats.Phase.SOLVE, grid.length, null, start);
+        return SearchOutcome.ofSolve(solution == null ? null : toIntMatrix(GridView.of(solution)), budget,
+                budget.getNodesVisited());
+    }
+
+    /**
+     * Solves the board "root", which may carry exclusions that a grid cannot express, as solvePuzzle does.
+     * @param root a board backed by a grid; the solve takes ownership of it
+     * @param token stops the solve once cancelled
+     * @return the solved grid, or null if the board has no solution or the solve was stopped
+     */
+    static Integer[][] solve(BoardState root, SearchStrategy strategy, GranularityController granularity,
+                             CancellationToken token, ForkJoinPool pool) {
+        if (!strategy.simplify(root)) {
+            return null;
+        }
+        if (pool.getParallelism() < 2 || root.emptyCount() == 0 || !granularity.shouldFork(root, 0)) {
+            SearchStats.recordFallback();
+            SeqSudokuSolver seqSolver = new SeqSudokuSolver(root, strategy, token);
+            return seqSolver.successfulSolve() ? toTwoDIntegerArray(seqSolver.getGrid()) : null;
         }
-        resetAtomicVariables();
-        return null;
+        final ParSudokuSolver task = new ParSudokuSolver(new Solve(root, token), null, 0, strategy, granularity);
+        pool.invoke(task);
+        return task.getSolution();
     }
 
     public static void main(String[] args) throws Exception {
@@ -142,11 +285,9 @@ public class ParSudokuSolver extends RecursiveAction {
                 {1, 3, 0, 0, 0, 0, 2, 5, 0},
                 {0, 0, 0, 0, 0, 0, 0, 7, 4},
                 {0, 0, 5, 2, 0, 6, 3, 0, 0}};
-        final ParSudokuSolver task = new ParSudokuSolver(puzzle, 0, 10);
-        ForkJoinPool pool = new ForkJoinPool();
-        pool.invoke(task);
-        if (solved.get()) {
-            printGrid(finalGrid.get());
+        Integer[][] solution = solvePuzzle(puzzle);
+        if (solution != null) {
+            printGrid(solution);
         }
         else {
             System.out.println("No solution exists.");
@@ -0,0 +1,386 @@
+package sudoku;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static sudoku.SudokuHelper.*;
+
+/**
+ * Races several engines on the same puzzle and keeps the first verified answer.
+ *
+ * Which engine is fastest depends on the puzzle: a plain sequential search wins on easy ones, where forking only
+ * costs time, while the parallel search or a randomized search with restarts wins on the hard ones where a
+ * single search gets stuck in a bad subtree. Running them all at once makes the latency of every puzzle that of
+ * its best engine, at the price of the CPU the others spend until they are cancelled.
+ *
+ * All engines of a solve share one token. It is cancelled as soon as one engine returns a solution that
+ * BoardValidationHelper.verifySolution accepts, or proves that there is none, and the others stop within
+ * CancellationToken.POLL_INTERVAL nodes. Every engine runs as a ForkJoinPool.managedBlock, and so does the wait
+ * for their answers, so the pool adds workers while they run: all the engines start at once even on a pool with
+ * fewer workers than engines, and solve may be called from a worker of the pool itself.
+ */
+public class PortfolioSolver implements AutoCloseable {
+
+    /**
+     * One way of solving a puzzle.
+     */
+    public interface Engine {
+        /**
+         * @return the name the wins of this engine are reported under
+         */
+        String name();
+
+        /**
+         * Solves "grid", giving up once "token" is cancelled.
+         * @param grid the puzzle; it must not be modified
+         * @param token polled while searching
+         * @param pool the pool of the portfolio, for engines that search in parallel
+         * @return the solution, or null if the puzzle has none or the token was cancelled
+         */
+        int[][] solve(int[][] grid, CancellationToken token, ForkJoinPool pool) throws Exception;
+    }
+
+    /**
+     * The outcome of one engine on one puzzle.
+     */
+    private static final class Attempt {
+        private final int engine;
+        private final int[][] solution;
+        private final boolean finished;
+        private final Exception error;
+
+        Attempt(int engine, int[][] solution, boolean finished, Exception error) {
+            this.engine = engine;
+            this.solution = solution;
+            this.finished = finished;
+            this.error = error;
+        }
+    }
+
+    // The pool every engine runs on, and whether close shuts it down.
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+
+    private final List<Engine> engines;
+
+    // The puzzles each engine answered first, by index in "engines".
+    private final LongAdder[] wins;
+
+    /**
+     * Creates the default portfolio: Dancing Links, a sequential search, a parallel search and a randomized search
+     * that restarts after 1000 nodes, doubling its budget at every restart. It runs on a pool of its own with a
+     * worker per engine, or per core if there are more cores, which close shuts down.
+     */
+    public PortfolioSolver() {
+        this(Arrays.asList(dancingLinks(), sequential(SearchStrategy.DEFAULT),
+                parallel(SearchStrategy.DEFAULT, GranularityController.DEFAULT), randomRestarts(1000)));
+    }
+
+    private PortfolioSolver(List<Engine> engines) {
+        this(new ForkJoinPool(Math.max(engines.size(), Runtime.getRuntime().availableProcessors())), engines, true);
+    }
+
+    /**
+     * @param pool the pool to run the engines on; it is not shut down
+     * @param engines the engines to race, started in this order
+     */
+    public PortfolioSolver(ForkJoinPool pool, List<Engine> engines) {
+        this(pool, engines, false);
+    }
+
+    private PortfolioSolver(ForkJoinPool pool, List<Engine> engines, boolean ownsPool) {
+        if (engines.isEmpty()) {
+            throw new IllegalArgumentException("A portfolio needs at least one engine");
+        }
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+        this.engines = new ArrayList<>(engines);
+        this.wins = new LongAdder[engines.size()];
+        for (int i = 0; i < wins.length; i++) {
+            wins[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Solves "grid" with every engine at once.
+     * @param grid the puzzle; it is not modified
+     * @return the solved grid, or null if the puzzle has no solution
+     * @throws Exception the error of the first engine if every engine failed
+     */
+    public int[][] solve(int[][] grid) throws Exception {
+        return solveWithin(grid, new SearchBudget(Long.MAX_VALUE, TimeUnit.NANOSECONDS, Long.MAX_VALUE))
+                .getSolution();
+    }
+
+    /**
+     * Solves "grid" with every engine at once, unless "budget" runs out first. The budget is shared: the nodes
+     * of all engines count against it.
+     * @param grid the puzzle; it is not modified
+     * @param budget the time and nodes the engines may use together
+     * @return SOLVED with the first verified solution, UNSOLVABLE, or BUDGET_EXCEEDED
+     * @throws Exception the error of the first engine if every engine failed before the budget ran out
+     */
+    public SearchOutcome solveWithin(int[][] grid, SearchBudget budget) throws Exception {
+        final int[][] puzzle = deepCopyIntMatrix(grid);
+        CancellationToken race = new CancellationToken(budget);
+        BlockingQueue<Attempt> attempts = new LinkedBlockingQueue<>();
+        for (int i = 0; i < engines.size(); i++) {
+            final int engine = i;
+            pool.execute(() -> attempts.add(new Run(engine, puzzle, race).await()));
+        }
+
+        int[][] solution = null;
+        boolean proved = false;
+        Exception error = null;
+        try {
+            for (int received = 0; received < engines.size() && solution == null && !proved; received++) {
+                Attempt attempt = new Receive(attempts).await();
+                if (attempt.error != null) {
+                    error = error == null ? attempt.error : error;
+                }
+                else if (attempt.solution != null) {
+                    if (BoardValidationHelper.verifySolution(puzzle, attempt.solution).isValid()) {
+                        solution = attempt.solution;
+                        wins[attempt.engine].increment();
+                    }
+                }
+                else if (attempt.finished) {
+                    // A search that ran to the end without being stopped proves there is no solution.
+                    proved = true;
+                    wins[attempt.engine].increment();
+                }
+            }
+        }
+        finally {
+            // Stop the losers, or every engine if this thread was interrupted.
+            race.cancel();
+        }
+
+        if (solution == null && !proved && !budget.isCancelled()) {
+            // Every engine failed or returned a wrong answer, so nothing is known about the puzzle.
+            throw error != null ? error : new IllegalStateException("No engine returned a valid solution");
+        }
+        if (proved) {
+            return SearchOutcome.ofCount(0, true, budget, budget.getNodesVisited());
+        }
+        return SearchOutcome.ofSolve(solution, budget, budget.getNodesVisited());
+    }
+
+    /**
+     * Runs one engine as a managed block, so that the pool makes up for the worker it holds for the whole search.
+     */
+    private final class Run implements ForkJoinPool.ManagedBlocker {
+        private final int engine;
+        private final int[][] puzzle;
+        private final CancellationToken race;
+        private Attempt attempt;
+
+        Run(int engine, int[][] puzzle, CancellationToken race) {
+            this.engine = engine;
+            this.puzzle = puzzle;
+            this.race = race;
+        }
+
+        @Override
+        public boolean block() {
+            try {
+                int[][] solution = engines.get(engine).solve(puzzle, race, pool);
+                attempt = new Attempt(engine, solution, !race.isCancelled(), null);
+            }
+            catch (Exception e) {
+                attempt = new Attempt(engine, null, false, e);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return attempt != null;
+        }
+
+        Attempt await() {
+            try {
+                ForkJoinPool.managedBlock(this);
+            }
+            catch (InterruptedException e) {
+                // block() never waits, so this cannot happen; keep the flag for whoever runs next on the thread.
+                Thread.currentThread().interrupt();
+            }
+            return attempt;
+        }
+    }
+
+    /**
+     * Waits for the next attempt as a managed block, so that a caller running on a worker of the pool does not
+     * keep the engines it waits for from starting.
+     */
+    private static final class Receive implements ForkJoinPool.ManagedBlocker {
+        private final BlockingQueue<Attempt> attempts;
+        private Attempt attempt;
+
+        Receive(BlockingQueue<Attempt> attempts) {
+            this.attempts = attempts;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            if (attempt == null) {
+                attempt = attempts.take();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return attempt != null || (attempt = attempts.poll()) != null;
+        }
+
+        Attempt await() throws InterruptedException {
+            ForkJoinPool.managedBlock(this);
+            return attempt;
+        }
+    }
+
+    /**
+     * Shuts down the pool if this portfolio created it; a pool passed to the constructor is left alone.
+     */
+    @Override
+    public void close() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the number of puzzles each engine answered first, by name, in the order of the engines
+     */
+    public Map<String, Long> getWins() {
+        Map<String, Long> byName = new LinkedHashMap<>();
+        for (int i = 0; i < engines.size(); i++) {
+            byName.merge(engines.get(i).name(), wins[i].sum(), Long::sum);
+        }
+        return Collections.unmodifiableMap(byName);
+    }
+
+    /**
+     * @return an engine that runs DlxSudokuSolver on the thread it was started on
+     */
+    public static Engine dancingLinks() {
+        return new Engine() {
+            @Override
+            public String name() {
+                return "dancingLinks";
+            }
+
+            @Override
+            public int[][] solve(int[][] grid, CancellationToken token, ForkJoinPool pool) throws Exception {
+                return DlxSudokuSolver.forGrid(grid).solve(grid, token);
+            }
+        };
+    }
+
+    /**
+     * @return an engine that runs SeqSudokuSolver with "strategy" on the thread it was started on
+     */
+    public static Engine sequential(SearchStrategy strategy) {
+        return new Engine() {
+            @Override
+            public String name() {
+                return "sequential";
+            }
+
+            @Override
+            public int[][] solve(int[][] grid, CancellationToken token, ForkJoinPool pool) throws Exception {
+                SeqSudokuSolver solver = new SeqSudokuSolver(deepCopyIntMatrix(grid), strategy, token);
+                return solver.successfulSolve() ? solver.getGrid() : null;
+            }
+        };
+    }
+
+    /**
+     * @return an engine that runs ParSudokuSolver with "strategy" on the pool of the portfolio
+     */
+    public static Engine parallel(SearchStrategy strategy, GranularityController granularity) {
+        return new Engine() {
+            @Override
+            public String name() {
+                return "parallel";
+            }
+
+            @Override
+            public int[][] solve(int[][] grid, CancellationToken token, ForkJoinPool pool) throws Exception {
+                Integer[][] solution = ParSudokuSolver.solve(new BoardState(deepCopyIntMatrix(grid)), strategy,
+                        granularity, token, pool);
+                return solution == null ? null : toIntMatrix(GridView.of(solution));
+            }
+        };
+    }
+
+    /**
+     * A sequential search with propagation that tries the values of every cell in a random order, and starts over
+     * with a new order each time it has visited "firstNodes" nodes, then twice that, and so on. Restarts get a
+     * search out of a bad early guess that a fixed order would spend its whole time below. Since the budget
+     * keeps doubling, a puzzle without a solution is still proved to have none, by the first restart that runs
+     * to the end.
+     * @param firstNodes the node budget of the first restart
+     * @return an engine that restarts SeqSudokuSolver with random value orders
+     */
+    public static Engine randomRestarts(long firstNodes) {
+        if (firstNodes < 1) {
+            throw new IllegalArgumentException("A restart needs at least one node");
+        }
+        return new Engine() {
+            @Override
+            public String name() {
+                return "randomRestarts";
+            }
+
+            @Override
+            public int[][] solve(int[][] grid, CancellationToken token, ForkJoinPool pool) throws Exception {
+                SearchStrategy strategy = randomValueOrder(threadRandom().split());
+                for (long nodes = firstNodes; ; nodes = nodes > Long.MAX_VALUE / 2 ? Long.MAX_VALUE : 2 * nodes) {
+                    SeqSudokuSolver solver = new SeqSudokuSolver(deepCopyIntMatrix(grid), strategy, token);
+                    solver.setNodeLimit(nodes);
+                    if (solver.successfulSolve()) {
+                        return solver.getGrid();
+                    }
+                    if (!solver.wasCancelled() || token.isCancelled()) {
+                        return null;
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * @return propagation and most-constrained cells, trying the candidates of every cell in a random order
+     */
+    private static SearchStrategy randomValueOrder(SplittableRandom random) {
+        return new SearchStrategy(SearchStrategy.Cells.MOST_CONSTRAINED, (state, cell, candidates, out) -> {
+            int n = 0;
+            while (candidates != 0) {
+                int bit = candidates & -candidates;
+                candidates ^= bit;
+                out[n++] = Integer.numberOfTrailingZeros(bit) + 1;
+            }
+            // Fisher-Yates over the n values written.
+            for (int i = n - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int value = out[i];
+                out[i] = out[j];
+                out[j] = value;
+            }
+            return n;
+        }, true);
+    }
+}
@@ -0,0 +1,212 @@
+package sudoku;
+
+import java.util.Arrays;
+
+/**
+ * Constraint propagation for a BoardState or a LargeBoardState. Applies naked singles, hidden singles and box/line
+ * reductions (pointing and claiming) until none of them makes progress. Every deduction holds in every solution of
+ * the board, so propagation never loses solutions and is safe to use while counting them.
+ *
+ * The rules are written once against CandidateBoard, with long masks, for every board size. All changes go
+ * through place and excludeMask, so a caller that took a mark() before propagating can roll everything back with
+ * undo(mark). The box/line reductions reuse the board's scratch tables, so propagation allocates nothing.
+ */
+public final class Propagator {
+
+    private Propagator() {
+    }
+
+    /**
+     * Propagates constraints on "state" to a fixpoint.
+     * @param state the board to simplify; it is modified in place
+     * @return false if a contradiction was found (the board has no solution), true otherwise
+     */
+    public static boolean propagate(BoardState state) {
+        return propagate((CandidateBoard) state);
+    }
+
+    /**
+     * Propagates constraints on a board of any size to a fixpoint.
+     * @return false if a contradiction was found (the board has no solution), true otherwise
+     */
+    static boolean propagate(CandidateBoard state) {
+        if (state.hasContradiction()) {
+            return false;
+        }
+        while (true) {
+            // Singles are cheap and usually enough, so only fall back to box/line reductions when they stall.
+            int placed = nakedSingles(state);
+            if (placed < 0) {
+                return false;
+            }
+            if (placed > 0) {
+                continue;
+            }
+            placed = hiddenSingles(state);
+            if (placed < 0) {
+                return false;
+            }
+            if (placed > 0) {
+                continue;
+            }
+            if (boxLineReductions(state) == 0) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Fills every empty cell that has exactly one candidate.
+     * @return the number of cells filled, or -1 if some cell has no candidates left
+     */
+    static int nakedSingles(CandidateBoard state) {
+        int placed = 0;
+        // Walk the empty set backwards: placing a cell swaps the last (already visited) empty cell into its slot.
+        for (int i = state.emptyCount() - 1; i >= 0; i--) {
+            int cell = state.emptyCell(i);
+            int count = state.candidateCount(cell);
+            if (count == 0) {
+                return -1;
+            }
+            if (count == 1) {
+                state.place(cell, Long.numberOfTrailingZeros(state.candidateMask(cell)) + 1);
+                placed++;
+            }
+        }
+        return placed;
+    }
+
+    /**
+     * Fills every cell that is the only place left for some value in one of its row, column or subgrid.
+     * @return the number of cells filled, or -1 if some unit has no place left for a missing value
+     */
+    static int hiddenSingles(CandidateBoard state) {
+        BoardGeometry geo = state.geometry();
+        int placed = 0;
+        for (int u = 0; u < geo.units.length; u++) {
+            int[] unit = geo.units[u];
+            long once = 0;
+            long twice = 0;
+            for (int cell : unit) {
+                if (state.get(cell) == 0) {
+                    long candidates = state.candidateMask(cell);
+                    twice |= once & candidates;
+                    once |= candidates;
+                }
+            }
+            if ((once | state.unitMask(u)) != state.valueMask()) {
+                return -1;
+            }
+            long hidden = once & ~twice;
+            while (hidden != 0) {
+                long bit = hidden & -hidden;
+                hidden ^= bit;
+                int target = -1;
+                for (int cell : unit) {
+                    if (state.get(cell) == 0 && (state.candidateMask(cell) & bit) != 0) {
+                        target = cell;
+                        break;
+                    }
+                }
+                // The only cell that could hold this value was just filled with another hidden single.
+                if (target < 0) {
+                    return -1;
+                }
+                state.place(target, Long.numberOfTrailingZeros(bit) + 1);
+                placed++;
+            }
+        }
+        return placed;
+    }
+
+    /**
+     * Applies pointing (a value confined to one line inside a subgrid is removed from the rest of that line) and
+     * claiming (a value confined to one subgrid inside a line is removed from the rest of that subgrid), for both
+     * rows and columns.
+     * @return the number of cells that lost at least one candidate
+     */
+    static int boxLineReductions(CandidateBoard state) {
+        BoardGeometry geo = state.geometry();
+        int size = geo.size;
+        int nRegions = geo.nRegions;
+
+        // seg[r * nRegions + b] holds the candidates of row r inside column band b, and seg[cols + c * nRegions + b]
+        // those of column c inside row band b.
+        long[] seg = state.segments();
+        int cols = size * nRegions;
+        Arrays.fill(seg, 0);
+        for (int i = 0; i < state.emptyCount(); i++) {
+            int cell = state.emptyCell(i);
+            long candidates = state.candidateMask(cell);
+            seg[geo.rowOf[cell] * nRegions + geo.colOf[cell] / nRegions] |= candidates;
+            seg[cols + geo.colOf[cell] * nRegions + geo.rowOf[cell] / nRegions] |= candidates;
+        }
+
+        int reduced = 0;
+        for (int line = 0; line < size; line++) {
+            int band = line / nRegions;
+            for (int b = 0; b < nRegions; b++) {
+                // Pointing: compare with the other lines of the same subgrid.
+                long rowOthers = 0;
+                long colOthers = 0;
+                for (int other = band * nRegions; other < (band + 1) * nRegions; other++) {
+                    if (other != line) {
+                        rowOthers |= seg[other * nRegions + b];
+                        colOthers |= seg[cols + other * nRegions + b];
+                    }
+                }
+                long row = seg[line * nRegions + b];
+                long col = seg[cols + line * nRegions + b];
+                reduced += excludeFromLine(state, line, true, b, row & ~rowOthers);
+                reduced += excludeFromLine(state, line, false, b, col & ~colOthers);
+
+                // Claiming: compare with the other subgrids crossed by the same line.
+                rowOthers = 0;
+                colOthers = 0;
+                for (int other = 0; other < nRegions; other++) {
+                    if (other != b) {
+                        rowOthers |= seg[line * nRegions + other];
+                        colOthers |= seg[cols + line * nRegions + other];
+                    }
+                }
+                reduced += excludeFromBox(state, line, true, b, row & ~rowOthers);
+                reduced += excludeFromBox(state, line, false, b, col & ~colOthers);
+            }
+        }
+        return reduced;
+    }
+
+    // Removes "mask" from the cells of the given row (or column) that lie outside band "keep".
+    private static int excludeFromLine(CandidateBoard state, int line, boolean isRow, int keep, long mask) {
+        if (mask == 0) {
+            return 0;
+        }
+        BoardGeometry geo = state.geometry();
+        int reduced = 0;
+        for (int cell : geo.units[isRow ? line : geo.size + line]) {
+            int pos = isRow ? geo.colOf[cell] : geo.rowOf[cell];
+            if (pos / geo.nRegions != keep && state.excludeMask(cell, mask)) {
+                reduced++;
+            }
+        }
+        return reduced;
+    }
+
+    // Removes "mask" from the cells of the subgrid where row (or column) "line" meets band "b", except the line.
+    private static int excludeFromBox(CandidateBoard state, int line, boolean isRow, int b, long mask) {
+        if (mask == 0) {
+            return 0;
+        }
+        BoardGeometry geo = state.geometry();
+        int band = line / geo.nRegions;
+        int box = isRow ? band * geo.nRegions + b : b * geo.nRegions + band;
+        int reduced = 0;
+        for (int cell : geo.units[2 * geo.size + box]) {
+            int pos = isRow ? geo.rowOf[cell] : geo.colOf[cell];
+            if (pos != line && state.excludeMask(cell, mask)) {
+                reduced++;
+            }
+        }
+        return reduced;
+    }
+}
@@ -0,0 +1,331 @@
+package sudoku;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Solves every puzzle of a file in the common one-line format and writes the solutions to another file.
+ *
+ * Each input line holds one puzzle as size * size characters in row-major order, '1' .. '9' for givens and '0' or
+ * '.' for empty cells (so 9x9 and 4x4 boards). Each output line holds the solution in the same layout, or is empty
+ * if the puzzle is malformed or has no solution, so line n of the output always answers line n of the input.
+ *
+ * The input is memory-mapped in windows cut at line boundaries, and every window is split into chunks that are
+ * solved on a ForkJoinPool. Chunks parse the mapped bytes directly into a reusable grid and write the solutions
+ * into pooled direct buffers, which the calling thread hands to the output channel in input order. At most
+ * maxPendingChunks chunks are in flight, which bounds memory use whatever the size of the file.
+ */
+public class PuzzleFilePipeline {
+
+    /**
+     * Totals of one run.
+     */
+    public static final class Stats {
+        private final long puzzles;
+        private final long solved;
+        private final long nanos;
+
+        Stats(long puzzles, long solved, long nanos) {
+            this.puzzles = puzzles;
+            this.solved = solved;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return the number of non-empty input lines
+         */
+        public long getPuzzles() {
+            return puzzles;
+        }
+
+        /**
+         * @return the number of puzzles a solution was written for
+         */
+        public long getSolved() {
+            return solved;
+        }
+
+        /**
+         * @return the wall-clock time of the run in nanoseconds
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return the number of puzzles processed per second of wall-clock time
+         */
+        public double puzzlesPerSecond() {
+            return nanos == 0 ? 0 : puzzles * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Solved %d of %d puzzles in %.3f s (%.0f puzzles/sec)",
+                    solved, puzzles, nanos / 1e9, puzzlesPerSecond());
+        }
+    }
+
+    // The largest board whose cells fit in one character each.
+    private static final int MAX_SIZE = 9;
+
+    // The pool chunks are solved on.
+    private final ForkJoinPool pool;
+
+    // The branching heuristic used for every puzzle.
+    private final SearchStrategy strategy;
+
+    // The number of bytes mapped at a time, and the target number of input bytes per chunk.
+    private final int windowBytes;
+    private final int chunkBytes;
+
+    // The maximum number of chunks being solved or waiting to be written.
+    private final int maxPendingChunks;
+
+    // Output buffers of capacity chunkBytes + 1, recycled once they have been written.
+    private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates a pipeline on the common pool that maps 64 MB at a time and solves 1 MB chunks.
+     */
+    public PuzzleFilePipeline() {
+        this(ForkJoinPool.commonPool(), SearchStrategy.DEFAULT);
+    }
+
+    /**
+     * @param pool the pool to solve on; it is not shut down
+     * @param strategy the branching heuristic to use
+     */
+    public PuzzleFilePipeline(ForkJoinPool pool, SearchStrategy strategy) {
+        this(pool, strategy, 64 << 20, 1 << 20);
+    }
+
+    PuzzleFilePipeline(ForkJoinPool pool, SearchStrategy strategy, int windowBytes, int chunkBytes) {
+        this.pool = pool;
+        this.strategy = strategy;
+        this.windowBytes = windowBytes;
+        this.chunkBytes = chunkBytes;
+        this.maxPendingChunks = 2 * pool.getParallelism() + 2;
+    }
+
+    /**
+     * Solves every puzzle of "input" and writes the solutions to "output", replacing it if it exists.
+     * @param input a file with one puzzle per line
+     * @param output the file to write one solution per line to
+     * @return the totals of the run
+     * @throws IOException if a file cannot be read or written, or a line is longer than a mapping window
+     */
+    public Stats run(Path input, Path output) throws IOException {
+        long start = System.nanoTime();
+        long puzzles = 0;
+        long solved = 0;
+        ArrayDeque<Chunk> pending = new ArrayDeque<>();
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long fileSize = in.size();
+            long windowStart = 0;
+            while (windowStart < fileSize) {
+                int length = (int) Math.min(windowBytes, fileSize - windowStart);
+                MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, windowStart, length);
+                int windowEnd = length;
+                if (windowStart + length < fileSize) {
+                    // Leave the trailing partial line to the next window.
+                    windowEnd = lastNewline(window, 0, length) + 1;
+                    if (windowEnd == 0) {
+                        throw new IOException("Line longer than " + windowBytes + " bytes at offset " + windowStart);
+                    }
+                }
+
+                int chunkStart = 0;
+                while (chunkStart < windowEnd) {
+                    int chunkEnd = Math.min(chunkStart + chunkBytes, windowEnd);
+                    if (chunkEnd < windowEnd) {
+                        int newline = lastNewline(window, chunkStart, chunkEnd);
+                        chunkEnd = newline >= 0 ? newline + 1 : nextNewline(window, chunkEnd, windowEnd) + 1;
+                    }
+                    Chunk chunk = new Chunk(window, chunkStart, chunkEnd, acquireBuffer(chunkEnd - chunkStart + 1));
+                    pool.execute(chunk);
+                    pending.add(chunk);
+                    chunkStart = chunkEnd;
+
+                    // Backpressure: write the oldest chunk before reading further ahead.
+                    if (pending.size() >= maxPendingChunks) {
+                        Chunk done = pending.poll();
+                        done.join();
+                        write(out, done.out);
+                        puzzles += done.puzzles;
+                        solved += done.solved;
+                    }
+                }
+                windowStart += windowEnd;
+            }
+            while (!pending.isEmpty()) {
+                Chunk done = pending.poll();
+                done.join();
+                write(out, done.out);
+                puzzles += done.puzzles;
+                solved += done.solved;
+            }
+        }
+        return new Stats(puzzles, solved, System.nanoTime() - start);
+    }
+
+    private ByteBuffer acquireBuffer(int capacity) {
+        // Chunks only outgrow chunkBytes when a single line does; those get a one-off buffer.
+        if (capacity > chunkBytes + 1) {
+            return ByteBuffer.allocate(capacity);
+        }
+        ByteBuffer buffer = freeBuffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(chunkBytes + 1);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        if (buffer.isDirect()) {
+            freeBuffers.add(buffer);
+        }
+    }
+
+    /**
+     * @return the index of the last '\n' in [from, to) of "buffer", or -1 if there is none
+     */
+    private static int lastNewline(ByteBuffer buffer, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the first '\n' in [from, to) of "buffer", or to - 1 if there is none
+     */
+    private static int nextNewline(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return to - 1;
+    }
+
+    /**
+     * Solves the lines in [start, end) of a mapped window into "out".
+     */
+    private final class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer in;
+        private final int start;
+        private final int end;
+        private final ByteBuffer out;
+        private long puzzles;
+        private long solved;
+
+        // One reusable grid per board size.
+        private final int[][][] grids = new int[MAX_SIZE + 1][][];
+
+        Chunk(ByteBuffer in, int start, int end, ByteBuffer out) {
+            this.in = in;
+            this.start = start;
+            this.end = end;
+            this.out = out;
+        }
+
+        @Override
+        protected void compute() {
+            int lineStart = start;
+            while (lineStart < end) {
+                int lineEnd = lineStart;
+                while (lineEnd < end && in.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                int length = lineEnd - lineStart;
+                if (length > 0 && in.get(lineEnd - 1) == '\r') {
+                    length--;
+                }
+                if (length > 0) {
+                    puzzles++;
+                    if (solveLine(lineStart, length)) {
+                        solved++;
+                    }
+                }
+                out.put((byte) '\n');
+                lineStart = lineEnd + 1;
+            }
+        }
+
+        /**
+         * Parses the puzzle at [offset, offset + length) of the input and writes its solution, if any.
+         * @return true if a solution was written
+         */
+        private boolean solveLine(int offset, int length) {
+            int size = (int) Math.sqrt(length);
+            int nRegions = (int) Math.sqrt(size);
+            if (size * size != length || nRegions * nRegions != size || size > MAX_SIZE) {
+                return false;
+            }
+            if (grids[size] == null) {
+                grids[size] = new int[size][size];
+            }
+            int[][] grid = grids[size];
+            for (int i = 0; i < length; i++) {
+                byte b = in.get(offset + i);
+                int value;
+                if (b == '.' || b == '0') {
+                    value = 0;
+                }
+                else if (b >= '1' && b <= '0' + size) {
+                    value = b - '0';
+                }
+                else {
+                    return false;
+                }
+                grid[i / size][i % size] = value;
+            }
+
+            try {
+                // The solver writes its placements straight into the grid.
+                if (!new SeqSudokuSolver(grid, strategy).successfulSolve()) {
+                    return false;
+                }
+            }
+            catch (Exception e) {
+                return false;
+            }
+            for (int r = 0; r < size; r++) {
+                for (int c = 0; c < size; c++) {
+                    out.put((byte) ('0' + grid[r][c]));
+                }
+            }
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.out.println("Usage: PuzzleFilePipeline <puzzle file> <solution file>");
+            return;
+        }
+        Stats stats = new PuzzleFilePipeline().run(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println(stats);
+    }
+}
@@ -0,0 +1,351 @@
+package sudoku;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static sudoku.SudokuHelper.*;
+
+/**
+ * Serves ready-made puzzles in O(1) from bounded queues, one per board size and Difficulty, that background
+ * workers keep filled.
+ *
+ * A queue is created and filled the first time its size and difficulty are asked for (or prefilled). Every
+ * puzzle taken schedules one replacement, so the refill rate follows the consumption rate: idle queues cost
+ * nothing once full, and since all queues share the same workers in FIFO order, the busiest queues get the most
+ * generator time. A request that finds its queue empty is a miss and generates its puzzle on the calling thread.
+ *
+ * The pool can be saved to a directory of PackedBoardStore files and loaded again after a restart, so that it
+ * serves hits from the first request on.
+ */
+public final class PuzzlePool implements Closeable {
+
+    /**
+     * Counters of one queue of the pool.
+     */
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long generated;
+        private final long failed;
+        private final int available;
+        private final Exception lastFailure;
+
+        Stats(long hits, long misses, long generated, long failed, int available, Exception lastFailure) {
+            this.hits = hits;
+            this.misses = misses;
+            this.generated = generated;
+            this.failed = failed;
+            this.available = available;
+            this.lastFailure = lastFailure;
+        }
+
+        /**
+         * @return the number of requests served from the queue
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * @return the number of requests that found the queue empty
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return the number of puzzles generated in the background for the queue
+         */
+        public long getGenerated() {
+            return generated;
+        }
+
+        /**
+         * @return the number of background generations for the queue that threw. A queue whose generations keep
+         * failing stays under capacity, and its requests turn into misses.
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return the exception of the most recent failed background generation, or null if none failed
+         */
+        public Exception getLastFailure() {
+            return lastFailure;
+        }
+
+        /**
+         * @return the number of puzzles ready in the queue
+         */
+        public int getAvailable() {
+            return available;
+        }
+
+        /**
+         * @return the fraction of requests served from the queue, or 0 before the first request
+         */
+        public double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d hits, %d misses (%.1f%% hit rate), %d generated, %d failed, %d available",
+                    hits, misses, 100 * hitRate(), generated, failed, available);
+        }
+    }
+
+    // The number of puzzles kept ready per queue.
+    private final int capacity;
+
+    // The background generator threads.
+    private final ExecutorService workers;
+
+    // The queue of every board size and difficulty asked for so far.
+    private final ConcurrentMap<String, Shelf> shelves = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a pool keeping 64 puzzles per queue, with one generator thread per processor but one.
+     */
+    public PuzzlePool() {
+        this(64, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * @param capacity the number of puzzles to keep ready per board size and difficulty, at least 1
+     * @param nWorkers the number of background generator threads, at least 1
+     */
+    public PuzzlePool(int capacity, int nWorkers) {
+        if (capacity < 1 || nWorkers < 1) {
+            throw new IllegalArgumentException("The capacity and the number of workers must be at least 1");
+        }
+        this.capacity = capacity;
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(nWorkers, r -> {
+            Thread t = new Thread(r, "puzzle-pool-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Starts filling the queue of the given size and difficulty ahead of the first request.
+     * @param nRegions the square root of the number of rows
+     * @param diff the difficulty of the puzzles
+     */
+    public void prefill(int nRegions, Difficulty diff) {
+        shelf(nRegions, diff);
+    }
+
+    /**
+     * Takes a puzzle from the pool, or generates one on the calling thread if none is ready.
+     * @param nRegions the square root of the number of rows
+     * @param diff the difficulty of the puzzle
+     * @return a puzzle with a unique solution, owned by the caller
+     */
+    public int[][] take(int nRegions, Difficulty diff) throws Exception {
+        int[][] puzzle = poll(nRegions, diff);
+        return puzzle != null ? puzzle : generate(nRegions, diff);
+    }
+
+    /**
+     * Takes a puzzle from the pool without ever blocking.
+     * @param nRegions the square root of the number of rows
+     * @param diff the difficulty of the puzzle
+     * @return a puzzle with a unique solution, owned by the caller, or null if none is ready
+     */
+    public int[][] poll(int nRegions, Difficulty diff) {
+        Shelf shelf = shelf(nRegions, diff);
+        int[][] puzzle = shelf.puzzles.poll();
+        if (puzzle != null) {
+            shelf.hits.increment();
+        }
+        else {
+            shelf.misses.increment();
+        }
+        refill(shelf);
+        return puzzle;
+    }
+
+    /**
+     * @param nRegions the square root of the number of rows
+     * @param diff the difficulty of the puzzles
+     * @return the counters of the queue of the given size and difficulty, all 0 if it was never used
+     */
+    public Stats getStats(int nRegions, Difficulty diff) {
+        Shelf shelf = shelves.get(key(nRegions, diff));
+        if (shelf == null) {
+            return new Stats(0, 0, 0, 0, 0, null);
+        }
+        return new Stats(shelf.hits.sum(), shelf.misses.sum(), shelf.generated.sum(), shelf.failed.sum(),
+                shelf.puzzles.size(), shelf.lastFailure);
+    }
+
+    /**
+     * Writes the puzzles currently ready to "dir", one PackedBoardStore file per queue. The puzzles stay in the
+     * pool.
+     * @param dir an existing directory; files of an earlier save are replaced
+     * @return the number of puzzles written
+     */
+    public long save(Path dir) throws IOException {
+        long saved = 0;
+        for (Shelf shelf : shelves.values()) {
+            try (PackedBoardStore.Writer writer = PackedBoardStore.create(dir.resolve(shelf.key), shelf.nRegions)) {
+                for (int[][] puzzle : shelf.puzzles) {
+                    writer.add(puzzle);
+                }
+                saved += writer.count();
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * Adds the puzzles saved in "dir" to the pool, up to the capacity of every queue, and starts filling the
+     * queues they belong to. Files whose name is not that of a queue of this pool, such as a store of 36x36
+     * boards that the pool could never refill, or whose boards do not have the size in their name, are skipped.
+     * @param dir a directory written by save
+     * @return the number of puzzles added
+     */
+    public long load(Path dir) throws IOException {
+        long loaded = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "puzzles-*.sdkp")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String[] parts = name.split("[-.]");
+                int size;
+                Difficulty diff;
+                try {
+                    size = Integer.parseInt(parts[1]);
+                    diff = Difficulty.valueOf(parts[2]);
+                }
+                catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                    continue;
+                }
+                int nRegions = (int) Math.sqrt(size);
+                if (nRegions < 2 || nRegions > BoardGeometry.MAX_REGIONS || !key(nRegions, diff).equals(name)) {
+                    continue;
+                }
+                PackedBoardStore store = PackedBoardStore.open(file);
+                if (store.size() != size) {
+                    continue;
+                }
+                Shelf shelf = shelves.computeIfAbsent(key(nRegions, diff), k -> new Shelf(nRegions, diff, k));
+                for (long i = 0; i < store.count() && shelf.puzzles.offer(store.get(i).toGrid()); i++) {
+                    loaded++;
+                }
+                refill(shelf);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Stops the background workers. Puzzles already in the pool can still be taken, but are no longer replaced.
+     */
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    private Shelf shelf(int nRegions, Difficulty diff) {
+        Shelf shelf = shelves.get(key(nRegions, diff));
+        if (shelf == null) {
+            if (nRegions < 2 || nRegions > BoardGeometry.MAX_REGIONS) {
+                throw new IllegalArgumentException("Unsupported number of subregions: " + nRegions);
+            }
+            shelf = shelves.computeIfAbsent(key(nRegions, diff), k -> new Shelf(nRegions, diff, k));
+            refill(shelf);
+        }
+        return shelf;
+    }
+
+    /**
+     * Schedules enough background generations to bring "shelf" back to capacity.
+     */
+    private void refill(Shelf shelf) {
+        while (!workers.isShutdown()) {
+            int pending = shelf.pending.get();
+            if (shelf.puzzles.size() + pending >= capacity) {
+                return;
+            }
+            if (shelf.pending.compareAndSet(pending, pending + 1)) {
+                try {
+                    workers.execute(() -> fill(shelf));
+                }
+                catch (RuntimeException e) {
+                    // The pool is being closed.
+                    shelf.pending.decrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void fill(Shelf shelf) {
+        try {
+            int[][] puzzle = generate(shelf.nRegions, shelf.diff);
+            shelf.generated.increment();
+            shelf.puzzles.offer(puzzle);
+        }
+        catch (Exception e) {
+            // Leave the slot to the next refill rather than retrying a failing generation in a loop, but keep
+            // the failure visible in the stats.
+            shelf.failed.increment();
+            shelf.lastFailure = e;
+        }
+        finally {
+            shelf.pending.decrementAndGet();
+        }
+    }
+
+    private static int[][] generate(int nRegions, Difficulty diff) throws Exception {
+        return SeqSudokuGenerator.pruneCompleteBoard(BoardTransform.randomCompleteBoard(nRegions), diff);
+    }
+
+    /**
+     * @return the name of the queue, which is also the name of its file when saved
+     */
+    private static String key(int nRegions, Difficulty diff) {
+        return "puzzles-" + nRegions * nRegions + "-" + diff + ".sdkp";
+    }
+
+    /**
+     * The queue of one board size and difficulty.
+     */
+    private final class Shelf {
+        private final int nRegions;
+        private final Difficulty diff;
+        private final String key;
+        private final ArrayBlockingQueue<int[][]> puzzles = new ArrayBlockingQueue<>(capacity);
+
+        // The generations scheduled for this queue and not finished yet.
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder generated = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+
+        // The exception of the most recent failed generation, or null.
+        private volatile Exception lastFailure;
+
+        Shelf(int nRegions, Difficulty diff, String key) {
+            this.nRegions = nRegions;
+            this.diff = diff;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package sudoku;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token that gives up on a search once a deadline has passed or a number of nodes has been visited, whichever
+ * comes first. Pass it to a solveWithin or countSolutionsWithin method; it can also be cancelled like any token.
+ *
+ * The budget is checked where searches already poll their token: every CancellationToken.POLL_INTERVAL nodes of
+ * a sequential search, including the ones parallel tasks fall back to, and at every node a parallel task
+ * expands. So a search overruns its budget by a few nodes per thread at most, and reading the clock costs one
+ * System.nanoTime() per poll. The node count is shared by every thread of the search.
+ *
+ * The clock starts when the budget is created, and nodes add up over every search it is passed to, so create one
+ * per request.
+ */
+public final class SearchBudget extends CancellationToken {
+
+    // The value of System.nanoTime() at creation, and the number of nanoseconds after it that the search may run.
+    private final long startNanos;
+    private final long timeoutNanos;
+
+    private final long maxNodes;
+
+    // The nodes reported by polls so far.
+    private final AtomicLong nodes = new AtomicLong();
+
+    // Set by the first poll that finds the budget spent.
+    private volatile boolean exceeded;
+
+    /**
+     * @param timeout how long the search may run, counted from now; Long.MAX_VALUE for no deadline
+     * @param unit the unit of "timeout"
+     * @param maxNodes how many nodes the search may visit; Long.MAX_VALUE for no limit
+     */
+    public SearchBudget(long timeout, TimeUnit unit, long maxNodes) {
+        if (timeout < 0 || maxNodes < 0) {
+            throw new IllegalArgumentException("A budget cannot be negative");
+        }
+        this.startNanos = System.nanoTime();
+        this.timeoutNanos = timeout == Long.MAX_VALUE ? Long.MAX_VALUE : unit.toNanos(timeout);
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * @return a budget with a deadline "timeout" from now and no node limit
+     */
+    public static SearchBudget ofTime(long timeout, TimeUnit unit) {
+        return new SearchBudget(timeout, unit, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return a budget of "maxNodes" nodes and no deadline
+     */
+    public static SearchBudget ofNodes(long maxNodes) {
+        return new SearchBudget(Long.MAX_VALUE, TimeUnit.NANOSECONDS, maxNodes);
+    }
+
+    @Override
+    public boolean poll(int visited) {
+        if (exceeded) {
+            return true;
+        }
+        if (nodes.addAndGet(visited) > maxNodes
+                || (timeoutNanos != Long.MAX_VALUE && System.nanoTime() - startNanos > timeoutNanos)) {
+            exceeded = true;
+            return true;
+        }
+        return super.poll(visited);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return exceeded || super.isCancelled();
+    }
+
+    /**
+     * @return true if a search has run out of time or nodes under this budget
+     */
+    public boolean isExceeded() {
+        return exceeded;
+    }
+
+    /**
+     * @return the nodes reported so far, in steps of up to CancellationToken.POLL_INTERVAL per sequential search
+     */
+    public long getNodesVisited() {
+        return nodes.get();
+    }
+
+    /**
+     * @return the nanoseconds since the budget was created
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+}
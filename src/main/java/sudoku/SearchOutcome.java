@@ -0,0 +1,85 @@
+package sudoku;
+
+/**
+ * The result of a search run under a SearchBudget: whether it finished, what it found, and what it cost.
+ */
+public final class SearchOutcome {
+
+    public enum Status {
+        // A solution was found (solve), or the count finished with at least one solution (count).
+        SOLVED,
+        // The search finished without finding a solution: the puzzle has none.
+        UNSOLVABLE,
+        // The budget ran out, or its token was cancelled, before the search finished.
+        BUDGET_EXCEEDED
+    }
+
+    private final Status status;
+    private final int[][] solution;
+    private final int solutionCount;
+    private final long nodesVisited;
+    private final long elapsedNanos;
+
+    SearchOutcome(Status status, int[][] solution, int solutionCount, long nodesVisited, long elapsedNanos) {
+        this.status = status;
+        this.solution = solution;
+        this.solutionCount = solutionCount;
+        this.nodesVisited = nodesVisited;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return the outcome of a solve that found "solution" (or null) under "budget"
+     */
+    static SearchOutcome ofSolve(int[][] solution, SearchBudget budget, long nodesVisited) {
+        Status status = solution != null ? Status.SOLVED
+                : budget.isCancelled() ? Status.BUDGET_EXCEEDED : Status.UNSOLVABLE;
+        return new SearchOutcome(status, solution, solution == null ? 0 : 1, nodesVisited, budget.getElapsedNanos());
+    }
+
+    /**
+     * @return the outcome of a count that found "count" solutions under "budget"
+     */
+    static SearchOutcome ofCount(int count, boolean finished, SearchBudget budget, long nodesVisited) {
+        Status status = !finished ? Status.BUDGET_EXCEEDED : count > 0 ? Status.SOLVED : Status.UNSOLVABLE;
+        return new SearchOutcome(status, null, count, nodesVisited, budget.getElapsedNanos());
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the solved grid of a SOLVED solve, null otherwise
+     */
+    public int[][] getSolution() {
+        return solution;
+    }
+
+    /**
+     * @return the solutions counted, capped at the limit; a lower bound when the budget was exceeded
+     */
+    public int getSolutionCount() {
+        return solutionCount;
+    }
+
+    /**
+     * @return the search nodes visited
+     */
+    public long getNodesVisited() {
+        return nodesVisited;
+    }
+
+    /**
+     * @return the wall-clock time from the creation of the budget to the end of the search, in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%d solutions, %d nodes, %.3f ms)", status, solutionCount, nodesVisited,
+                elapsedNanos / 1e6);
+    }
+}
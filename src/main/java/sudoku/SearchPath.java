@@ -0,0 +1,49 @@
+package sudoku;
+
+/**
+ * The guesses leading from the root of a parallel search to one of its nodes, as an immutable linked list that
+ * shares its prefix with the paths of the node's ancestors.
+ *
+ * Parallel tasks carry a path instead of a copy of the board. A task run by the worker that forked it explores
+ * the parent's board in place and rolls it back with the trail; only a task stolen by another worker rebuilds a
+ * board of its own, by copying the root and replaying its path. Since propagation is deterministic, the replay
+ * arrives at exactly the board the parent would have passed on.
+ */
+final class SearchPath {
+
+    // The path to the parent node, or null for a child of the root.
+    final SearchPath parent;
+
+    // The guess made at the parent node.
+    final int cell;
+    final int value;
+
+    SearchPath(SearchPath parent, int cell, int value) {
+        this.parent = parent;
+        this.cell = cell;
+        this.value = value;
+    }
+
+    /**
+     * Rebuilds the board at the end of "path".
+     * @param root the board at the root of the search, before propagation; it is only read
+     * @param path the guesses to replay, or null for the root itself
+     * @param strategy decides whether to propagate after the root and after every guess
+     * @return a new board at the node, or null if the node turns out to be a dead end
+     */
+    static BoardState replay(BoardState root, SearchPath path, SearchStrategy strategy) {
+        BoardState state = root.copy();
+        return strategy.simplify(state) && apply(state, path, strategy) ? state : null;
+    }
+
+    private static boolean apply(BoardState state, SearchPath path, SearchStrategy strategy) {
+        if (path == null) {
+            return true;
+        }
+        if (!apply(state, path.parent, strategy)) {
+            return false;
+        }
+        state.place(path.cell, path.value);
+        return strategy.simplify(state);
+    }
+}
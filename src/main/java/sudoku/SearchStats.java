@@ -0,0 +1,280 @@
+package sudoku;
+
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static sudoku.SudokuHelper.*;
+
+/**
+ * Process-wide statistics of the solvers, counters and generators, published as the platform MBean
+ * "sudoku:type=SearchStats" (see SearchStatsMXBean).
+ *
+ * The cost per search node is an increment of a field of the search itself: sequential searches add their totals
+ * here once, when they finish, and parallel tasks once per node that forks. Totals are LongAdders and latencies go
+ * to LatencyHistograms of LongAdders, so threads recording at the same time never contend on a shared counter,
+ * and recording allocates nothing. This keeps the statistics cheap enough to leave on.
+ */
+public final class SearchStats implements SearchStatsMXBean {
+
+    public static final String OBJECT_NAME = "sudoku:type=SearchStats";
+
+    /**
+     * The phases whose wall time is recorded.
+     */
+    public enum Phase {
+        SOLVE, GENERATE, PRUNE, UNIQUENESS_CHECK
+    }
+
+    /**
+     * Latency percentiles of one phase, board size and difficulty, in milliseconds. Percentiles are read from
+     * log-linear buckets and may be up to 25% above the exact value.
+     */
+    public static final class LatencySummary {
+        private final long count;
+        private final double meanMillis;
+        private final double p50Millis;
+        private final double p90Millis;
+        private final double p99Millis;
+        private final double maxMillis;
+
+        @ConstructorProperties({"count", "meanMillis", "p50Millis", "p90Millis", "p99Millis", "maxMillis"})
+        public LatencySummary(long count, double meanMillis, double p50Millis, double p90Millis, double p99Millis,
+                              double maxMillis) {
+            this.count = count;
+            this.meanMillis = meanMillis;
+            this.p50Millis = p50Millis;
+            this.p90Millis = p90Millis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMillis() {
+            return meanMillis;
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public double getP90Millis() {
+            return p90Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms", count,
+                    meanMillis, p50Millis, p90Millis, p99Millis, maxMillis);
+        }
+    }
+
+    // Histograms are kept for boards of 1 .. MAX_LARGE_REGIONS subregions, by difficulty or for ALL.
+    private static final int SIZES = BoardGeometry.MAX_LARGE_REGIONS + 1;
+    private static final int DIFFICULTIES = Difficulty.values().length + 1;
+
+    // Created after the constants above, which its constructor reads.
+    private static final SearchStats INSTANCE = new SearchStats();
+
+    static {
+        INSTANCE.register();
+    }
+
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder nodes = new LongAdder();
+    private final LongAdder backtracks = new LongAdder();
+    private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+    private final LongAdder tasksForked = new LongAdder();
+    private final LongAdder tasksInlined = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder cancellations = new LongAdder();
+    private final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+
+    // Indexed by (phase * SIZES + nRegions) * DIFFICULTIES + difficulty, created on first use.
+    private final AtomicReferenceArray<LatencyHistogram> histograms =
+            new AtomicReferenceArray<>(Phase.values().length * SIZES * DIFFICULTIES);
+
+    private SearchStats() {
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return the statistics of this process, which are also registered as the platform MBean OBJECT_NAME
+     */
+    public static SearchStats get() {
+        return INSTANCE;
+    }
+
+    private void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        }
+        catch (JMException | SecurityException e) {
+            // Without JMX the statistics can still be read through get().
+        }
+    }
+
+    /**
+     * Adds the totals of one finished sequential search.
+     * @param nodes the nodes it visited
+     * @param backtracks the values it took back
+     * @param depth the deepest level it reached, counted from the root of the puzzle
+     * @param cancelled whether it was cut short
+     */
+    static void recordSearch(long nodes, long backtracks, int depth, boolean cancelled) {
+        SearchStats stats = INSTANCE;
+        stats.searches.increment();
+        stats.nodes.add(nodes);
+        stats.backtracks.add(backtracks);
+        stats.maxDepth.accumulate(depth);
+        if (cancelled) {
+            stats.cancellations.increment();
+        }
+    }
+
+    /**
+     * Adds one node of a parallel search that forked "forked" tasks, of which it ran "inlined" itself.
+     */
+    static void recordFork(int depth, int forked, int inlined) {
+        SearchStats stats = INSTANCE;
+        stats.nodes.increment();
+        stats.maxDepth.accumulate(depth);
+        stats.tasksForked.add(forked);
+        stats.tasksInlined.add(inlined);
+    }
+
+    static void recordFallback() {
+        INSTANCE.fallbacks.increment();
+    }
+
+    /**
+     * Adds the wall time of one run of "phase", from "startNanos" (a System.nanoTime() reading) until now.
+     * @param size the number of rows of the board
+     * @param diff the difficulty of the puzzle, or null if it is not known
+     */
+    static void recordPhase(Phase phase, int size, Difficulty diff, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        SearchStats stats = INSTANCE;
+        stats.phaseNanos[phase.ordinal()].add(nanos);
+        int nRegions = (int) Math.round(Math.sqrt(size));
+        if (nRegions * nRegions != size || nRegions < 1 || nRegions >= SIZES) {
+            return;
+        }
+        int index = (phase.ordinal() * SIZES + nRegions) * DIFFICULTIES + (diff == null ? 0 : diff.ordinal() + 1);
+        LatencyHistogram histogram = stats.histograms.get(index);
+        if (histogram == null) {
+            stats.histograms.compareAndSet(index, null, new LatencyHistogram());
+            histogram = stats.histograms.get(index);
+        }
+        histogram.record(nanos);
+    }
+
+    @Override
+    public long getSearches() {
+        return searches.sum();
+    }
+
+    @Override
+    public long getNodesVisited() {
+        return nodes.sum();
+    }
+
+    @Override
+    public long getBacktracks() {
+        return backtracks.sum();
+    }
+
+    @Override
+    public long getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    @Override
+    public long getTasksForked() {
+        return tasksForked.sum();
+    }
+
+    @Override
+    public long getTasksInlined() {
+        return tasksInlined.sum();
+    }
+
+    @Override
+    public long getSequentialFallbacks() {
+        return fallbacks.sum();
+    }
+
+    @Override
+    public long getCancellations() {
+        return cancellations.sum();
+    }
+
+    @Override
+    public Map<String, Double> getPhaseMillis() {
+        Map<String, Double> millis = new TreeMap<>();
+        for (Phase phase : Phase.values()) {
+            millis.put(phase.name(), phaseNanos[phase.ordinal()].sum() / 1e6);
+        }
+        return millis;
+    }
+
+    @Override
+    public Map<String, LatencySummary> getLatencies() {
+        Map<String, LatencySummary> latencies = new TreeMap<>();
+        for (int index = 0; index < histograms.length(); index++) {
+            LatencyHistogram histogram = histograms.get(index);
+            if (histogram == null) {
+                continue;
+            }
+            int diff = index % DIFFICULTIES;
+            int nRegions = index / DIFFICULTIES % SIZES;
+            int size = nRegions * nRegions;
+            Phase phase = Phase.values()[index / DIFFICULTIES / SIZES];
+            latencies.put(phase + " " + size + "x" + size + " " + (diff == 0 ? "ALL" : Difficulty.values()[diff - 1]),
+                    histogram.summarize());
+        }
+        return latencies;
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder adder : new LongAdder[]{searches, nodes, backtracks, tasksForked, tasksInlined, fallbacks,
+                cancellations}) {
+            adder.reset();
+        }
+        maxDepth.reset();
+        for (LongAdder adder : phaseNanos) {
+            adder.reset();
+        }
+        for (int index = 0; index < histograms.length(); index++) {
+            LatencyHistogram histogram = histograms.get(index);
+            if (histogram != null) {
+                histogram.reset();
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package sudoku;
+
+import java.util.Map;
+
+/**
+ * The management interface of SearchStats, registered with the platform MBean server as
+ * SearchStats.OBJECT_NAME. All counts are totals since the start of the process or the last reset.
+ */
+public interface SearchStatsMXBean {
+
+    /**
+     * @return the number of sequential searches (solves and counts) that have finished
+     */
+    long getSearches();
+
+    /**
+     * @return the search nodes visited by sequential searches and by forking parallel tasks
+     */
+    long getNodesVisited();
+
+    /**
+     * @return the values that were tried and taken back because they led to no (further) solution
+     */
+    long getBacktracks();
+
+    /**
+     * @return the deepest level any search has reached, counted in guesses from the root of its puzzle
+     */
+    long getMaxDepth();
+
+    /**
+     * @return the parallel tasks forked by the solver and counter
+     */
+    long getTasksForked();
+
+    /**
+     * @return the forked tasks that nobody stole, which the forking task ran on its own board
+     */
+    long getTasksInlined();
+
+    /**
+     * @return the parallel nodes that stopped splitting and searched their subtree sequentially
+     */
+    long getSequentialFallbacks();
+
+    /**
+     * @return the searches cut short by a cancellation token or a node limit
+     */
+    long getCancellations();
+
+    /**
+     * @return the total wall time of every phase (SOLVE, GENERATE, PRUNE, UNIQUENESS_CHECK) in milliseconds
+     */
+    Map<String, Double> getPhaseMillis();
+
+    /**
+     * @return the latency percentiles of every phase, board size and difficulty recorded so far, keyed like
+     * "PRUNE 9x9 EVIL"; phases that are not given a difficulty use ALL
+     */
+    Map<String, SearchStats.LatencySummary> getLatencies();
+
+    /**
+     * Sets every count and histogram back to zero.
+     */
+    void reset();
+}
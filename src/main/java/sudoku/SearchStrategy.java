@@ -0,0 +1,171 @@
+package sudoku;
+
+/**
+ * The branching heuristics used by the backtracking searches: which empty cell to branch on next, in which
+ * order to try its candidate values, and whether to run constraint propagation before search and after every
+ * guess.
+ */
+public final class SearchStrategy {
+
+    /**
+     * Picks the next cell to branch on.
+     */
+    public interface CellSelector {
+        /**
+         * @param state the current board
+         * @return an empty cell of "state", or -1 if the board is full
+         */
+        int selectCell(BoardState state);
+    }
+
+    /**
+     * Decides the order in which the candidates of a cell are tried.
+     */
+    public interface ValueOrder {
+        /**
+         * Writes the candidate values of "cell" into "out" in the order they should be tried.
+         * @param state the current board
+         * @param cell the cell being branched on
+         * @param candidates the candidate mask of the cell, bit (v - 1) set for every legal value v
+         * @param out a buffer with room for at least state.size() values
+         * @return the number of values written
+         */
+        int orderValues(BoardState state, int cell, int candidates, int[] out);
+    }
+
+    /**
+     * Built-in cell selection heuristics.
+     */
+    public enum Cells implements CellSelector {
+        // The first empty cell in row-major order.
+        FIRST_EMPTY {
+            @Override
+            public int selectCell(BoardState state) {
+                return state.firstEmptyCell();
+            }
+        },
+
+        // The empty cell with the fewest candidates, ties broken by the most empty peers (highest degree).
+        MOST_CONSTRAINED {
+            @Override
+            public int selectCell(BoardState state) {
+                return state.mostConstrainedCell();
+            }
+        }
+    }
+
+    /**
+     * Built-in value ordering heuristics.
+     */
+    public enum Values implements ValueOrder {
+        // Smallest value first.
+        ASCENDING {
+            @Override
+            public int orderValues(BoardState state, int cell, int candidates, int[] out) {
+                int n = 0;
+                while (candidates != 0) {
+                    int bit = candidates & -candidates;
+                    candidates ^= bit;
+                    out[n++] = Integer.numberOfTrailingZeros(bit) + 1;
+                }
+                return n;
+            }
+        },
+
+        // The value that removes the fewest candidates from the cell's empty peers first.
+        LEAST_CONSTRAINING {
+            @Override
+            public int orderValues(BoardState state, int cell, int candidates, int[] out) {
+                int n = ASCENDING.orderValues(state, cell, candidates, out);
+                // Pack the cost above the value so the sort needs no second array: this runs at every node.
+                for (int i = 0; i < n; i++) {
+                    out[i] |= state.peersWithCandidate(cell, out[i]) << VALUE_BITS;
+                }
+                // Insertion sort: there are at most size() values, and usually only a few. It is stable, so
+                // values of equal cost stay in ascending order.
+                for (int i = 1; i < n; i++) {
+                    int packed = out[i];
+                    int j = i - 1;
+                    while (j >= 0 && out[j] >>> VALUE_BITS > packed >>> VALUE_BITS) {
+                        out[j + 1] = out[j];
+                        j--;
+                    }
+                    out[j + 1] = packed;
+                }
+                for (int i = 0; i < n; i++) {
+                    out[i] &= VALUE_MASK;
+                }
+                return n;
+            }
+        }
+    }
+
+    // LEAST_CONSTRAINING keeps the cost of a value above its low VALUE_BITS bits while sorting.
+    private static final int VALUE_BITS = 16;
+    private static final int VALUE_MASK = (1 << VALUE_BITS) - 1;
+
+    // The behaviour of the original solvers: first empty cell, values in ascending order.
+    public static final SearchStrategy NAIVE = new SearchStrategy(Cells.FIRST_EMPTY, Values.ASCENDING, false);
+
+    // Most-constrained cell first, values in ascending order.
+    public static final SearchStrategy MRV = new SearchStrategy(Cells.MOST_CONSTRAINED, Values.ASCENDING, false);
+
+    // Most-constrained cell first, least-constraining value first.
+    public static final SearchStrategy MRV_LCV =
+            new SearchStrategy(Cells.MOST_CONSTRAINED, Values.LEAST_CONSTRAINING, false);
+
+    // Constraint propagation to a fixpoint at every node, then most-constrained cell first.
+    public static final SearchStrategy PROPAGATE_MRV =
+            new SearchStrategy(Cells.MOST_CONSTRAINED, Values.ASCENDING, true);
+
+    // The strategy used when none is given.
+    public static final SearchStrategy DEFAULT = PROPAGATE_MRV;
+
+    private final CellSelector cellSelector;
+    private final ValueOrder valueOrder;
+    private final boolean propagate;
+
+    public SearchStrategy(CellSelector cellSelector, ValueOrder valueOrder) {
+        this(cellSelector, valueOrder, false);
+    }
+
+    public SearchStrategy(CellSelector cellSelector, ValueOrder valueOrder, boolean propagate) {
+        this.cellSelector = cellSelector;
+        this.valueOrder = valueOrder;
+        this.propagate = propagate;
+    }
+
+    /**
+     * @return true if the search should propagate constraints before branching and after every guess
+     */
+    public boolean propagates() {
+        return propagate;
+    }
+
+    /**
+     * Checks the givens of "state" and runs constraint propagation on it if this strategy asks for it.
+     * @return false if the board was found to have no solution, true otherwise
+     */
+    public boolean simplify(BoardState state) {
+        if (state.hasContradiction()) {
+            return false;
+        }
+        return !propagate || Propagator.propagate(state);
+    }
+
+    /**
+     * @param state the current board
+     * @return the next cell to branch on, or -1 if the board is full
+     */
+    public int selectCell(BoardState state) {
+        return cellSelector.selectCell(state);
+    }
+
+    /**
+     * Writes the candidate values of "cell" into "out" in the order they should be tried.
+     * @return the number of values written
+     */
+    public int orderValues(BoardState state, int cell, int[] out) {
+        return valueOrder.orderValues(state, cell, state.candidates(cell), out);
+    }
+}
@@ -1,13 +1,6 @@
 package sudoku;
 
-import javafx.util.Pair;
-
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.SplittableRandom;
 
 import static sudoku.SudokuHelper.*;
 
@@ -23,13 +16,25 @@ public class SeqSudokuGenerator{
     // Each row and column is divided into nRegions subgrids.
     private int nRegions;
 
+    // Bitmask bookkeeping for the grid, updated as values are placed and removed.
+    private BoardState state;
+
+    // The source of the value order in every cell.
+    private final SplittableRandom random;
+
+    // The shuffled values of every level of the search, reused from one node to the next.
+    private final int[][] valueOrder;
+
     public SeqSudokuGenerator(int[][] grid) throws Exception {
-        if (grid.length != grid[0].length ||
-                Math.pow(Math.sqrt(grid.length), 2) != grid.length) {
-            throw new Exception("The input must be a square matrix that can be easily divided into subregions!");
-        }
+        this(grid, threadRandom());
+    }
+
+    SeqSudokuGenerator(int[][] grid, SplittableRandom random) throws Exception {
+        this.state = new BoardState(grid);
         this.grid = grid;
-        nRegions = (int)Math.sqrt(grid.length);
+        nRegions = state.nRegions();
+        this.random = random;
+        this.valueOrder = new int[state.emptyCount()][nRegions * nRegions];
     }
 
     /**
@@ -47,42 +52,78 @@ public class SeqSudokuGenerator{
      * @throws Exception
      */
     public static int[][] generateValidCompleteBoard(int nRegions) throws Exception {
-        SeqSudokuGenerator s = new SeqSudokuGenerator(new int[nRegions * nRegions][nRegions * nRegions]);
-        if (s.generateHelper()) {
+        return generateValidCompleteBoard(nRegions, threadRandom());
+    }
+
+    /**
+     * Creates a filled valid sudoku board of the specified size, the same one for the same seed.
+     * @param nRegions the square root of the number of rows
+     * @param seed the seed of the random choices
+     * @return a completed, valid sudoku board of row and col size nRegions^2
+     */
+    public static int[][] generateValidCompleteBoard(int nRegions, long seed) throws Exception {
+        return generateValidCompleteBoard(nRegions, new SplittableRandom(seed));
+    }
+
+    private static int[][] generateValidCompleteBoard(int nRegions, SplittableRandom random) throws Exception {
+        long start = System.nanoTime();
+        SeqSudokuGenerator s = new SeqSudokuGenerator(new int[nRegions * nRegions][nRegions * nRegions], random);
+        boolean generated = s.generateHelper();
+        SearchStats.recordPhase(SearchStats.Phase.GENERATE, nRegions * nRegions, null, start);
+        if (generated) {
             // We have generated a random valid (filled) sudoku board.
             return s.getGrid();
         }
         return null;
     }
 
+    /**
+     * Creates a filled valid sudoku board of the specified size without searching, by applying a random
+     * validity-preserving transform to a pattern board (see BoardTransform). Unlike generateValidCompleteBoard,
+     * this takes O(n^2) time for every size, including 16x16 and 25x25 boards.
+     * @param nRegions the square root of the number of rows
+     * @return a completed, valid sudoku board of row and col size nRegions^2
+     */
+    public static int[][] generateTransformedCompleteBoard(int nRegions) {
+        return BoardTransform.randomCompleteBoard(nRegions);
+    }
+
+    public static int[][] generateTransformedCompleteBoard(int nRegions, long seed) {
+        return BoardTransform.randomCompleteBoard(nRegions, new SplittableRandom(seed));
+    }
+
     /**
      * Helps create a valid completed sudoku board.
      * @return true if able to generate a valid board, false otherwise.
      */
     public boolean generateHelper() {
+        return generateHelper(0);
+    }
+
+    private boolean generateHelper(int depth) {
         // First find an empty cell.
-        Optional<Pair<Integer, Integer>> oCoords = findUnassignedCell(grid);
+        int cell = state.firstEmptyCell();
 
         // Termination condition: we have filled up the board and successfully solved the puzzle.
-        if (!oCoords.isPresent()) {
+        if (cell < 0) {
             return true;
         }
 
-        int r = oCoords.get().getKey();
-        int c = oCoords.get().getValue();
-
-        List<Integer> testValues = IntStream.range(1, nRegions * nRegions + 1).boxed().collect(Collectors.toList());
-        Collections.shuffle(testValues);
-        for (Integer testVal : testValues) {
-            if (safeToPlace(grid, r, c, testVal)) {
-                grid[r][c] = testVal;
-                if(generateHelper()) {
+        int[] testValues = valueOrder[depth];
+        for (int i = 0; i < testValues.length; i++) {
+            testValues[i] = i + 1;
+        }
+        shuffle(testValues, random);
+        for (int testVal : testValues) {
+            if (state.canPlace(cell, testVal)) {
+                state.place(cell, testVal);
+                if(generateHelper(depth + 1)) {
                     return true;
                 }
+                // If it fails to place a value correctly, make sure the value is "cleaned".
+                state.unplace(cell);
             }
         }
-        // If it fails to place a value correctly, make sure the value is "cleaned".
-        grid[r][c] = 0;
 
         return false;
     }
@@ -95,33 +136,38 @@ public class SeqSudokuGenerator{
      * @throws Exception
      */
     public static int[][] pruneCompleteBoard(int[][] grid, Difficulty diff) throws Exception {
-        // Create a temp variable to hold the previous grid state.
-        int[][] oldGrid = null;
-
-        // Create a list that represents all coordinates in the board.
-        List<Pair<Integer, Integer>> listCoords = new ArrayList<>();
-
-        // Determine the sequence of cells to prune according to difficulty.
-        pruneHelper(grid, listCoords, diff);
-
-        for (int i = 0; i < listCoords.size(); i++) {
-            oldGrid = grid;
-            // Pick a point at random.
-            Pair<Integer, Integer> coord = listCoords.get(i);
-            int[][] g = deepCopyIntMatrix(grid);
-            // Set its value to 0 in a temporary grid.
-            g[coord.getKey()][coord.getValue()] = 0;
-            // Check to see if it has mutiple solutions.
-            grid = g;
-            if (SeqHelper.runHelper(g) > 1) {
-                grid = oldGrid;
-                // terminate early if the board size is large because otherwise it takes forever
-                //if (grid.length >= 16) {
-                //    return grid;
-                //}
+        return pruneCompleteBoard(grid, diff, pruneOrder(grid.length, diff, threadRandom()));
+    }
+
+    /**
+     * Prunes "grid" like pruneCompleteBoard(grid, diff), the same way for the same seed.
+     * @param grid A completed sudoku board.
+     * @param diff decides the order in which cells are tried
+     * @param seed the seed of the order of EASY puzzles
+     * @return A completable sudoku board.
+     */
+    public static int[][] pruneCompleteBoard(int[][] grid, Difficulty diff, long seed) throws Exception {
+        return pruneCompleteBoard(grid, diff, pruneOrder(grid.length, diff, new SplittableRandom(seed)));
+    }
+
+    private static int[][] pruneCompleteBoard(int[][] grid, Difficulty diff, int[] order) throws Exception {
+        long start = System.nanoTime();
+        // The complete board is the unique solution of every puzzle pruned from it.
+        final int[][] solution = grid;
+        int[][] puzzle = deepCopyIntMatrix(grid);
+        int size = grid.length;
+
+        for (int cell : order) {
+            int r = cell / size;
+            int c = cell % size;
+            // Set its value to 0, and put it back if the puzzle then has a solution that differs here.
+            puzzle[r][c] = 0;
+            if (!SolutionCounter.remainsUnique(puzzle, solution, r, c)) {
+                puzzle[r][c] = solution[r][c];
             }
         }
-        return grid;
+        SearchStats.recordPhase(SearchStats.Phase.PRUNE, size, diff, start);
+        return puzzle;
     }
 
     public static void main(String[] args) throws Exception {
@@ -137,58 +183,41 @@ public class SeqSudokuGenerator{
 
 
 
+    /**
+     * Sequential solution counting for the generator, capped at two solutions. A thin wrapper kept for existing
+     * callers: the counting itself lives in SolutionCounter.
+     */
     public static class SeqHelper {
 
-        // The current grid state.
-        private int[][] grid;
-
-        // Each row and column is divided into nRegions subgrids.
-        private int nRegions;
+        // The count, on the board it was built for.
+        private final SolutionCounter.Sequential counter;
 
         public SeqHelper(int[][] grid) throws Exception {
-            if (grid.length != grid[0].length ||
-                    Math.pow(Math.sqrt(grid.length), 2) != grid.length) {
-                throw new Exception("The input must be a square matrix that can be easily divided into subregions!");
-            }
-            this.grid = grid;
-            nRegions = (int)Math.sqrt(grid.length);
+            this(new BoardState(grid), SearchStrategy.DEFAULT, CancellationToken.NONE);
+        }
+
+        SeqHelper(BoardState state, SearchStrategy strategy, CancellationToken token) {
+            this.counter = new SolutionCounter.Sequential(state, strategy, token, 2);
+        }
+
+        /**
+         * @return true if the last count was cut short because the cancellation token was cancelled
+         */
+        public boolean wasCancelled() {
+            return counter.wasCancelled();
         }
 
         /**
          * Checks whether the sudoku puzzle has at least two solutions.
-         * @return a number greater than 1 if the puzzle has two unique solutions, 1 if it has one solution, 0 otherwise
+         * @return 2 if the puzzle has two unique solutions, 1 if it has one solution, 0 otherwise.
+         * If the count was cancelled, the solutions found so far.
          */
         public int countSolns() {
-            // First find an empty cell.
-            Optional<Pair<Integer, Integer>> oCoords = findUnassignedCell(grid);
-
-            // Termination condition: we have filled up the board and successfully solved the puzzle.
-            if (!oCoords.isPresent()) {
-                return 1;
-            }
-
-            int r = oCoords.get().getKey();
-            int c = oCoords.get().getValue();
-            int valid_solutions = 0;
-
-            for (int testVal = 1 ; testVal <= nRegions * nRegions; testVal++) {
-                if (safeToPlace(grid, r, c, testVal)) {
-                    grid[r][c] = testVal;
-                    valid_solutions += countSolns();
-                }
-                if (valid_solutions > 1) {
-                    return valid_solutions;
-                }
-            }
-            // If it fails to place a value correctly, make sure the value is "cleaned".
-            grid[r][c] = 0;
-
-            return valid_solutions;
+            return counter.count();
         }
 
         public static int runHelper(int[][] grid) throws Exception {
-            final SeqHelper newSolver = new SeqHelper(grid);
-            return newSolver.countSolns();
+            return SolutionCounter.countSolutionsSequentially(grid, 2);
         }
 
     }
@@ -1,8 +1,5 @@
 package sudoku;
 
-import javafx.util.Pair;
-import java.util.Optional;
-
 import static sudoku.SudokuHelper.*;
 
 /**
@@ -14,16 +11,73 @@ public class SeqSudokuSolver {
     // The current grid state.
     private int[][] grid;
 
-    // Each row and column is divided into nRegions subgrids.
-    private int nRegions;
+    // Bitmask bookkeeping for the grid, updated as values are placed and removed.
+    private BoardState state;
+
+    // Decides which cell to branch on and in which order to try its values.
+    private final SearchStrategy strategy;
+
+    // One buffer of ordered candidate values per search depth.
+    private int[][] valueBuffers;
+
+    // Polled every CancellationToken.POLL_INTERVAL nodes; the search gives up once it is cancelled.
+    private final CancellationToken token;
+
+    // The number of search nodes visited so far, and whether the search was stopped by the token.
+    private long nodes;
+    private boolean cancelled;
+
+    // The search also gives up (as if cancelled) once it has visited more than this many nodes.
+    private long nodeLimit = Long.MAX_VALUE;
+
+    // The values taken back and the deepest level reached by the last solve, for SearchStats. The depth of the
+    // root is baseDepth when this search continues a parallel one.
+    private long backtracks;
+    private int maxDepth;
+    private int baseDepth;
 
     public SeqSudokuSolver(int[][] grid) throws Exception {
-        if (grid.length != grid[0].length ||
-                Math.pow(Math.sqrt(grid.length), 2) != grid.length) {
-            throw new Exception("The input must be a square matrix that can be easily divided into subregions!");
-        }
-        this.grid = grid;
-        nRegions = (int)Math.sqrt(grid.length);
+        this(grid, SearchStrategy.DEFAULT);
+    }
+
+    public SeqSudokuSolver(int[][] grid, SearchStrategy strategy) throws Exception {
+        this(new BoardState(grid), strategy);
+    }
+
+    public SeqSudokuSolver(int[][] grid, SearchStrategy strategy, CancellationToken token) throws Exception {
+        this(new BoardState(grid), strategy, token);
+    }
+
+    /**
+     * Builds a solver for a board that is not stored as an int[][], such as a PackedBoard. The puzzle is only
+     * read; after a successful solve the solution is available from getBoard().
+     * @param puzzle the givens, 0 for empty cells
+     * @param strategy the branching heuristic to use
+     */
+    public SeqSudokuSolver(GridView puzzle, SearchStrategy strategy) throws Exception {
+        this(new BoardState(puzzle), strategy);
+    }
+
+    /**
+     * Builds a solver that searches directly on an existing board state.
+     * @param state a state backed by a grid; it is modified in place by the search
+     * @param strategy the branching heuristic to use
+     */
+    SeqSudokuSolver(BoardState state, SearchStrategy strategy) {
+        this(state, strategy, CancellationToken.NONE);
+    }
+
+    /**
+     * Builds a solver that searches directly on an existing board state and stops once "token" is cancelled.
+     * @param state a state backed by a grid; it is modified in place by the search
+     * @param strategy the branching heuristic to use
+     * @param token the token to poll while searching
+     */
+    SeqSudokuSolver(BoardState state, SearchStrategy strategy, CancellationToken token) {
+        this.state = state;
+        this.grid = state.getGrid();
+        this.strategy = strategy;
+        this.token = token;
     }
 
     /**
@@ -34,44 +88,146 @@ public class SeqSudokuSolver {
         return grid;
     }
 
+    /**
+     * @return the board being solved, which holds the solution after a successful solve
+     */
+    public GridView getBoard() {
+        return state;
+    }
+
+    /**
+     * @return true if the last call to successfulSolve gave up because its cancellation token was cancelled
+     */
+    public boolean wasCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Makes the search give up, as if cancelled, once it has visited more than "nodeLimit" nodes in total.
+     * The limit is checked together with the cancellation token, every CancellationToken.POLL_INTERVAL nodes.
+     * @param nodeLimit the maximum number of nodes to visit
+     */
+    public void setNodeLimit(long nodeLimit) {
+        this.nodeLimit = nodeLimit;
+    }
+
+    /**
+     * Tells the solver that its root lies "depth" guesses below the root of the puzzle, as reported to SearchStats.
+     */
+    void setBaseDepth(int depth) {
+        this.baseDepth = depth;
+    }
+
+    /**
+     * @return the number of search nodes visited by this solver
+     */
+    public long getNodesVisited() {
+        return nodes;
+    }
+
     /**
      * Attempts to solve the sudoku puzzle defined by "grid" by using a sequential recursive backtracking strategy.
-     * @return true if the puzzle was successfully solved, false otherwise.
+     * @return true if the puzzle was successfully solved, false if it has no solution or the search was cancelled.
      */
     public boolean successfulSolve() {
-        // First find an empty cell.
-        Optional<Pair<Integer, Integer>> oCoords = findUnassignedCell(grid);
+        // Givens that already break a rule can never be completed.
+        if (state.hasContradiction()) {
+            return false;
+        }
+        valueBuffers = new int[state.emptyCount() + 1][state.size()];
+        cancelled = false;
+        long startNodes = nodes;
+        backtracks = 0;
+        maxDepth = 0;
+        int mark = state.mark();
+        boolean solved = strategy.simplify(state) && solveHelper(0);
+        if (!solved) {
+            // Leave the grid as it was given.
+            state.undo(mark);
+        }
+        SearchStats.recordSearch(nodes - startNodes, backtracks, baseDepth + maxDepth, cancelled);
+        return solved;
+    }
+
+    private boolean solveHelper(int depth) {
+        // Every so often, check whether someone else has made this search pointless.
+        if ((++nodes & CancellationToken.POLL_MASK) == 0
+                && (nodes > nodeLimit || token.poll(CancellationToken.POLL_INTERVAL))) {
+            cancelled = true;
+        }
+        if (cancelled) {
+            return false;
+        }
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+
+        // First pick an empty cell according to the strategy.
+        int cell = strategy.selectCell(state);
 
         // Termination condition: we have filled up the board and successfully solved the puzzle.
-        if (!oCoords.isPresent()) {
+        if (cell < 0) {
             return true;
         }
 
-        int r = oCoords.get().getKey();
-        int c = oCoords.get().getValue();
-
-        for (int testVal = 1 ; testVal <= nRegions * nRegions; testVal++) {
-            if (safeToPlace(grid, r, c, testVal)) {
-                grid[r][c] = testVal;
-                if(successfulSolve()) {
-                    return true;
-                }
+        // Try every value not yet used in the cell's row, column and subgrid.
+        int[] values = valueBuffers[depth];
+        int nValues = strategy.orderValues(state, cell, values);
+        for (int i = 0; i < nValues; i++) {
+            int mark = state.mark();
+            state.place(cell, values[i]);
+            if (strategy.simplify(state) && solveHelper(depth + 1)) {
+                return true;
+            }
+            // If it fails to place a value correctly, make sure the value and its deductions are "cleaned".
+            state.undo(mark);
+            backtracks++;
+            if (cancelled) {
+                return false;
             }
         }
-        // If it fails to place a value correctly, make sure the value is "cleaned".
-        grid[r][c] = 0;
 
         return false;
     }
 
     public static Integer[][] solvePuzzle(int[][] grid) throws Exception {
-        int[][] g = deepCopyIntMatrix(grid);
-        final SeqSudokuSolver newSolver = new SeqSudokuSolver(g);
-        if (newSolver.successfulSolve()) {
-            return toTwoDIntegerArray(newSolver.getGrid());
-        }
+        return solvePuzzle(grid, SearchStrategy.DEFAULT);
+    }
+
+    /**
+     * Solves "grid" through "cache": puzzles equivalent to one solved before under the sudoku symmetries are
+     * answered without a search, and the others are solved with solvePuzzle(grid) and remembered.
+     * @param grid the puzzle; it is not modified
+     * @param cache the cache to look the puzzle up in and add its solution to
+     * @return the solved grid, or null if the puzzle has no solution
+     */
+    public static Integer[][] solvePuzzle(int[][] grid, SolutionCache cache) throws Exception {
+        return cache.solve(grid, SeqSudokuSolver::solvePuzzle);
+    }
+
+    /**
+     * Solves "grid" unless "budget" runs out first.
+     * @param grid the puzzle; it is not modified
+     * @param strategy the branching heuristic to use
+     * @param budget the time and nodes the search may use
+     * @return SOLVED with the solution, UNSOLVABLE, or BUDGET_EXCEEDED
+     */
+    public static SearchOutcome solveWithin(int[][] grid, SearchStrategy strategy, SearchBudget budget)
+            throws Exception {
+        long start = System.nanoTime();
+        SeqSudokuSolver solver = new SeqSudokuSolver(deepCopyIntMatrix(grid), strategy, budget);
+        boolean solved = solver.successfulSolve();
+        SearchStats.recordPhase(SearchStats.Phase.SOLVE, grid.length, null, start);
+        return SearchOutcome.ofSolve(solved ? solver.getGrid() : null, budget, solver.getNodesVisited());
+    }
 
-        return null;
+    public static Integer[][] solvePuzzle(int[][] grid, SearchStrategy strategy) throws Exception {
+        long start = System.nanoTime();
+        int[][] g = deepCopyIntMatrix(grid);
+        final SeqSudokuSolver newSolver = new SeqSudokuSolver(g, strategy);
+        Integer[][] solution = newSolver.successfulSolve() ? toTwoDIntegerArray(newSolver.getGrid()) : null;
+        SearchStats.recordPhase(SearchStats.Phase.SOLVE, grid.length, null, start);
+        return solution;
     }
 
     public static void main(String[] args) throws Exception{
@@ -0,0 +1,201 @@
+package sudoku;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static sudoku.SudokuHelper.*;
+
+/**
+ * A bounded cache of solutions keyed by the canonical form of their puzzles (see Canonicalizer), so a puzzle that
+ * is a relabelling, transposition or band/stack permutation of one solved before is answered without a search.
+ * Solutions are stored in canonical coordinates and mapped back through the inverse transform of each request.
+ *
+ * Canonicalizing a 9x9 puzzle costs about as much as a few thousand search nodes, more than most puzzles take to
+ * solve outright. So every puzzle is first given a short sequential search of "triage" nodes, and only the ones it
+ * does not settle are canonicalized and looked up. The cache is split into independently locked LRU segments, so
+ * concurrent requests rarely wait for each other.
+ */
+public final class SolutionCache {
+
+    /**
+     * Solves a puzzle on a cache miss, e.g. SeqSudokuSolver::solvePuzzle or ParSudokuSolver::solvePuzzle.
+     */
+    @FunctionalInterface
+    public interface Solver {
+        /**
+         * @param grid the puzzle; it must not be modified
+         * @return the solved grid, or null if the puzzle has no solution
+         */
+        Integer[][] solve(int[][] grid) throws Exception;
+    }
+
+    // The number of nodes a puzzle may take to solve directly, without going through the cache.
+    public static final long DEFAULT_TRIAGE_NODES = 1 << 12;
+
+    private static final int SEGMENTS = 16;
+
+    private final long triageNodes;
+
+    // The segments, picked by the hash of the canonical form.
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder triaged = new LongAdder();
+
+    /**
+     * Creates a cache of 4096 solutions with the default triage budget.
+     */
+    public SolutionCache() {
+        this(4096, DEFAULT_TRIAGE_NODES);
+    }
+
+    /**
+     * @param capacity the number of solutions to keep, at least 1; the least recently used ones are evicted first
+     * @param triageNodes the number of nodes a puzzle may take to solve without the cache, or 0 to look up every
+     * puzzle
+     */
+    public SolutionCache(int capacity, long triageNodes) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be at least 1, got " + capacity);
+        }
+        this.triageNodes = triageNodes;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS));
+        }
+    }
+
+    /**
+     * Solves "grid", from the cache if an equivalent puzzle was solved before and with "solver" otherwise.
+     * @param grid the puzzle; it is not modified
+     * @param solver solves the puzzle on a miss
+     * @return the solved grid, or null if the puzzle has no solution
+     */
+    public Integer[][] solve(int[][] grid, Solver solver) throws Exception {
+        if (triageNodes > 0) {
+            SeqSudokuSolver quick = new SeqSudokuSolver(deepCopyIntMatrix(grid));
+            quick.setNodeLimit(triageNodes);
+            if (quick.successfulSolve()) {
+                triaged.increment();
+                return toTwoDIntegerArray(quick.getGrid());
+            }
+            if (!quick.wasCancelled()) {
+                // The search finished: there is no solution.
+                triaged.increment();
+                return null;
+            }
+        }
+
+        Canonicalizer.Form form = Canonicalizer.canonicalize(grid);
+        Key key = new Key(form.getGrid());
+        Segment segment = segments[(key.hash ^ (key.hash >>> 16)) & (SEGMENTS - 1)];
+        int[][] cached;
+        synchronized (segment) {
+            cached = segment.get(key);
+        }
+        if (cached != null) {
+            hits.increment();
+            return toTwoDIntegerArray(form.getTransform().inverse().apply(cached));
+        }
+
+        misses.increment();
+        Integer[][] solution = solver.solve(grid);
+        if (solution != null) {
+            int[][] canonical = form.getTransform().apply(toIntMatrix(GridView.of(solution)));
+            synchronized (segment) {
+                segment.put(key, canonical);
+            }
+        }
+        return solution;
+    }
+
+    /**
+     * @return the number of puzzles answered from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of puzzles looked up but not found, and solved with the given solver
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of puzzles settled by the triage search without a lookup
+     */
+    public long getTriaged() {
+        return triaged.sum();
+    }
+
+    /**
+     * @return the number of solutions in the cache
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * A canonical form, compared cell by cell so that hash collisions can never return a wrong solution.
+     */
+    private static final class Key {
+        private final int[] cells;
+        private final int hash;
+
+        Key(int[][] grid) {
+            int size = grid.length;
+            cells = new int[size * size];
+            for (int r = 0; r < size; r++) {
+                System.arraycopy(grid[r], 0, cells, r * size, size);
+            }
+            hash = Arrays.hashCode(cells);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && hash == ((Key) o).hash && Arrays.equals(cells, ((Key) o).cells);
+        }
+    }
+
+    /**
+     * One LRU segment of the cache, guarded by its own monitor.
+     */
+    private static final class Segment extends LinkedHashMap<Key, int[][]> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, int[][]> eldest) {
+            return size() > capacity;
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package sudoku;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the solutions of a puzzle up to a limit, e.g. countSolutions(grid, 2) == 1 for a uniqueness check.
+ *
+ * The parallel count splits the search like ParSudokuSolver. Solutions are tallied in a LongAdder, so the
+ * workers that find them never contend on a single counter, and the count's token is cancelled as soon as the
+ * limit is reached, which stops every task and the sequential counts they fell back to. Each call has its own
+ * state, so counts may run concurrently from any number of threads.
+ *
+ * Bounded counts and sequential uniqueness checks of boards up to DLX_MAX_SIZE rows run on DlxSudokuSolver
+ * instead, on the calling thread: on a 9x9 board its exact-cover search finishes before splitting the work would
+ * pay off.
+ */
+public final class SolutionCounter {
+
+    // Boards with at most this many rows are counted with DlxSudokuSolver. On 16x16 boards the uniqueness checks
+    // of the generators are faster with propagation and the known solution's values tried first.
+    static final int DLX_MAX_SIZE = 9;
+
+    private SolutionCounter() {
+    }
+
+    /**
+     * Counts the solutions of "grid" on the common pool, stopping once "limit" have been found.
+     * @param grid the puzzle; it is not modified
+     * @param limit the number of solutions after which to stop, at least 1
+     * @return the number of solutions, capped at limit
+     */
+    public static int countSolutions(int[][] grid, int limit) throws Exception {
+        if (grid.length <= DLX_MAX_SIZE) {
+            checkLimit(limit);
+            return DlxSudokuSolver.countSolutions(grid, limit);
+        }
+        return countSolutions(grid, limit, ForkJoinPool.commonPool(), GranularityController.DEFAULT);
+    }
+
+    /**
+     * Counts the solutions of "grid" on "pool", splitting work as decided by "granularity". Boards that are not
+     * worth splitting (or a pool with a single worker) are counted on the calling thread.
+     * @param grid the puzzle; it is not modified
+     * @param limit the number of solutions after which to stop, at least 1
+     * @param pool the pool to count on; it is not shut down
+     * @param granularity decides which nodes are split into parallel tasks
+     * @return the number of solutions, capped at limit
+     */
+    public static int countSolutions(int[][] grid, int limit, ForkJoinPool pool, GranularityController granularity)
+            throws Exception {
+        Task task = new Task(SudokuHelper.deepCopyIntMatrix(grid), limit, granularity);
+        BoardState root = task.count.root;
+        if (pool.getParallelism() < 2 || !granularity.shouldFork(root, 0)) {
+            SearchStats.recordFallback();
+            return new Sequential(root, SearchStrategy.DEFAULT, CancellationToken.NONE, limit).count();
+        }
+        pool.invoke(task);
+        return task.getSolutionCount();
+    }
+
+    /**
+     * Counts the solutions of "grid" on the calling thread, stopping once "limit" have been found.
+     * @param grid the puzzle; it is not modified
+     * @param limit the number of solutions after which to stop, at least 1
+     * @return the number of solutions, capped at limit
+     */
+    public static int countSolutionsSequentially(int[][] grid, int limit) throws Exception {
+        if (grid.length <= DLX_MAX_SIZE) {
+            checkLimit(limit);
+            return DlxSudokuSolver.countSolutions(grid, limit);
+        }
+        BoardState state = new BoardState(SudokuHelper.deepCopyIntMatrix(grid));
+        return new Sequential(state, SearchStrategy.DEFAULT, CancellationToken.NONE, limit).count();
+    }
+
+    /**
+     * Counts the solutions of "grid" on the calling thread unless "budget" runs out first.
+     * @param grid the puzzle; it is not modified
+     * @param limit the number of solutions after which to stop, at least 1
+     * @param budget the time and nodes the count may use
+     * @return SOLVED or UNSOLVABLE with the number of solutions capped at limit, or BUDGET_EXCEEDED with the
+     * solutions found so far
+     */
+    public static SearchOutcome countSolutionsWithin(int[][] grid, int limit, SearchBudget budget) throws Exception {
+        BoardState state = new BoardState(SudokuHelper.deepCopyIntMatrix(grid));
+        Sequential counter = new Sequential(state, SearchStrategy.DEFAULT, budget, limit);
+        int count = counter.count();
+        return SearchOutcome.ofCount(count, !counter.cancelled, budget, counter.nodes);
+    }
+
+    /**
+     * Counts the solutions of "grid" on "pool" unless "budget" runs out first. The budget covers every forked
+     * task and every sequential count they fall back to.
+     * @param grid the puzzle; it is not modified
+     * @param limit the number of solutions after which to stop, at least 1
+     * @param budget the time and nodes the count may use, across all threads
+     * @param pool the pool to count on; it is not shut down
+     * @return as countSolutionsWithin(grid, limit, budget)
+     */
+    public static SearchOutcome countSolutionsWithin(int[][] grid, int limit, SearchBudget budget, ForkJoinPool pool)
+            throws Exception {
+        Task task = new Task(SudokuHelper.deepCopyIntMatrix(grid), limit, GranularityController.DEFAULT, budget);
+        if (pool.getParallelism() < 2 || !GranularityController.DEFAULT.shouldFork(task.count.root, 0)) {
+            return countSolutionsWithin(grid, limit, budget);
+        }
+        pool.invoke(task);
+        // Reaching the limit cancels the count's own token, which is not a sign of an unfinished count.
+        boolean finished = task.count.reachedLimit() || !budget.isCancelled();
+        return SearchOutcome.ofCount(task.getSolutionCount(), finished, budget, budget.getNodesVisited());
+    }
+
+    /**
+     * @return true if "grid" has exactly one solution
+     */
+    public static boolean hasUniqueSolution(int[][] grid) throws Exception {
+        long start = System.nanoTime();
+        boolean unique = countSolutions(grid, 2) == 1;
+        SearchStats.recordPhase(SearchStats.Phase.UNIQUENESS_CHECK, grid.length, null, start);
+        return unique;
+    }
+
+    /**
+     * The check a generator needs after clearing one cell of a puzzle with a known unique solution. Any other
+     * solution of the cleared puzzle must hold a different value in that cell (otherwise it would also have
+     * solved the puzzle before), so instead of counting from scratch this excludes the known value from the cell
+     * and looks for a single completion. Elsewhere the search tries the known solution's value first, since a
+     * second solution usually differs from the first in a handful of cells only. Boards of up to DLX_MAX_SIZE rows
+     * are checked with DlxSudokuSolver instead, with the known value's candidate left out of the matrix.
+     * @param puzzle the puzzle after clearing (row, col); it is not modified
+     * @param solution the unique solution of the puzzle before (row, col) was cleared
+     * @param row the row of the cleared cell
+     * @param col the column of the cleared cell
+     * @return true if "solution" is still the only solution of "puzzle"
+     */
+    public static boolean remainsUnique(int[][] puzzle, int[][] solution, int row, int col) throws Exception {
+        long start = System.nanoTime();
+        boolean unique;
+        if (puzzle.length <= DLX_MAX_SIZE) {
+            unique = !DlxSudokuSolver.hasSolutionWithout(puzzle, row, col, solution[row][col]);
+        }
+        else {
+            BoardState state = withoutSolutionValue(puzzle, solution, row, col);
+            unique = !new SeqSudokuSolver(state, solutionFirst(solution)).successfulSolve();
+        }
+        SearchStats.recordPhase(SearchStats.Phase.UNIQUENESS_CHECK, puzzle.length, null, start);
+        return unique;
+    }
+
+    /**
+     * Like remainsUnique(puzzle, solution, row, col), but searches for a second solution on "pool", whatever the
+     * size of the board.
+     */
+    public static boolean remainsUnique(int[][] puzzle, int[][] solution, int row, int col, ForkJoinPool pool)
+            throws Exception {
+        long start = System.nanoTime();
+        BoardState state = withoutSolutionValue(puzzle, solution, row, col);
+        boolean unique = ParSudokuSolver.solve(state, solutionFirst(solution), GranularityController.DEFAULT,
+                CancellationToken.NONE, pool) == null;
+        SearchStats.recordPhase(SearchStats.Phase.UNIQUENESS_CHECK, puzzle.length, null, start);
+        return unique;
+    }
+
+    private static BoardState withoutSolutionValue(int[][] puzzle, int[][] solution, int row, int col)
+            throws Exception {
+        int[][] grid = SudokuHelper.deepCopyIntMatrix(puzzle);
+        grid[row][col] = 0;
+        BoardState state = new BoardState(grid);
+        state.exclude(row * grid.length + col, 1 << (solution[row][col] - 1));
+        return state;
+    }
+
+    /**
+     * @return propagation and most-constrained cells, trying the value of "solution" first in every cell
+     */
+    private static SearchStrategy solutionFirst(int[][] solution) {
+        return new SearchStrategy(SearchStrategy.Cells.MOST_CONSTRAINED, (state, cell, candidates, out) -> {
+            int n = 0;
+            int preferred = solution[cell / state.size()][cell % state.size()];
+            int bit = 1 << (preferred - 1);
+            if ((candidates & bit) != 0) {
+                out[n++] = preferred;
+                candidates ^= bit;
+            }
+            while (candidates != 0) {
+                bit = candidates & -candidates;
+                candidates ^= bit;
+                out[n++] = Integer.numberOfTrailingZeros(bit) + 1;
+            }
+            return n;
+        }, true);
+    }
+
+    private static void checkLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("The solution limit must be at least 1, got " + limit);
+        }
+    }
+
+    /**
+     * The state shared by all the tasks of one count.
+     */
+    private static final class Count {
+        // The solutions found so far. Only written when a task finds some, which is rare.
+        private final LongAdder found = new LongAdder();
+        private final CancellationToken token;
+        private final int limit;
+
+        // The board at the root of the count, never modified once the count has started.
+        private final BoardState root;
+
+        Count(BoardState root, int limit, CancellationToken parent) {
+            this.root = root;
+            this.limit = limit;
+            this.token = new CancellationToken(parent);
+        }
+
+        /**
+         * @return true if the count ended early because the limit was reached
+         */
+        boolean reachedLimit() {
+            return found.sum() >= limit;
+        }
+
+        void add(int solutions) {
+            if (solutions > 0) {
+                found.add(solutions);
+                if (found.sum() >= limit) {
+                    token.cancel();
+                }
+            }
+        }
+
+        int result() {
+            return (int) Math.min(found.sum(), limit);
+        }
+    }
+
+    /**
+     * A parallel count. Children hold only their SearchPath: those that stay with the worker that forked them
+     * are counted on the parent's board and rolled back, and only stolen ones rebuild a board of their own.
+     */
+    static final class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // The count this task belongs to.
+        private final Count count;
+
+        // The guesses leading from the root to this task's node, or null for the root task.
+        private final SearchPath path;
+
+        // Keeps track of the current depth of the recursive backtracking.
+        private final int depth;
+
+        // Decides when to stop splitting and default to a sequential computation.
+        private final GranularityController granularity;
+
+        /**
+         * Creates the root task of a new count of the solutions of "grid", which is not modified.
+         */
+        Task(int[][] grid, int limit, GranularityController granularity) throws Exception {
+            this(grid, limit, granularity, CancellationToken.NONE);
+        }
+
+        /**
+         * Creates the root task of a new count that also stops once "token" is cancelled.
+         */
+        Task(int[][] grid, int limit, GranularityController granularity, CancellationToken token) throws Exception {
+            this(new Count(new BoardState(grid), limit, token), null, 0, granularity);
+            checkLimit(limit);
+        }
+
+        private Task(Count count, SearchPath path, int depth, GranularityController granularity) {
+            this.count = count;
+            this.path = path;
+            this.depth = depth;
+            this.granularity = granularity;
+        }
+
+        /**
+         * @return the number of solutions found by the count this task belongs to, capped at its limit
+         */
+        int getSolutionCount() {
+            return count.result();
+        }
+
+        @Override
+        protected void compute() {
+            if (count.token.isCancelled()) {
+                return;
+            }
+
+            // Build a board of our own for this node, deducing what we can along the way.
+            BoardState state = SearchPath.replay(count.root, path, SearchStrategy.DEFAULT);
+            if (state != null) {
+                search(state, path, depth);
+            }
+        }
+
+        /**
+         * Counts the solutions below the node "path", whose board "state" has already been propagated. The board
+         * is modified during the search but rolled back before returning.
+         */
+        private void search(BoardState state, SearchPath path, int depth) {
+            // Every node a task expands counts against the caller's budget, if any.
+            if (count.token.poll(1)) {
+                return;
+            }
+
+            // First, pick the most constrained empty cell.
+            int cell = SearchStrategy.DEFAULT.selectCell(state);
+
+            // We have filled up the board and successfully solved the puzzle. Let other threads continue operations.
+            if (cell < 0) {
+                count.add(1);
+                return;
+            }
+
+            // We have a valid cell to target. Do we do our computation sequentially?
+            if (!granularity.shouldFork(state, depth)) {
+                SearchStats.recordFallback();
+                count.add(new Sequential(state, SearchStrategy.DEFAULT, count.token, count.limit, depth).count());
+                return;
+            }
+
+            // If not sequentially, we'll do it in parallel: fork a path-only task per candidate, highest value
+            // first, so the lowest ends up on top of this worker's deque.
+            int[] values = new int[state.size()];
+            int nValues = SearchStrategy.DEFAULT.orderValues(state, cell, values);
+            Task[] children = new Task[nValues];
+            for (int i = nValues - 1; i >= 0; i--) {
+                children[i] = new Task(count, new SearchPath(path, cell, values[i]), depth + 1, granularity);
+                children[i].fork();
+            }
+
+            int inlined = 0;
+            for (int i = 0; i < nValues; i++) {
+                if (children[i].tryUnfork()) {
+                    // Nobody stole it: count it on this board and roll it back, without copying anything.
+                    inlined++;
+                    if (!count.token.isCancelled()) {
+                        int mark = state.mark();
+                        state.place(cell, values[i]);
+                        if (SearchStrategy.DEFAULT.simplify(state)) {
+                            search(state, children[i].path, depth + 1);
+                        }
+                        state.undo(mark);
+                    }
+                }
+                else {
+                    children[i].join();
+                }
+            }
+            SearchStats.recordFork(depth, nValues, inlined);
+        }
+    }
+
+    /**
+     * A sequential count on an existing board, which is left as it was found.
+     */
+    static final class Sequential {
+
+        // The current grid state, with its row/column/subgrid bitmasks.
+        private final BoardState state;
+
+        // Decides which cell to branch on. The order of values does not matter when counting.
+        private final SearchStrategy strategy;
+
+        // Polled every CancellationToken.POLL_INTERVAL nodes; counting stops once it is cancelled.
+        private final CancellationToken token;
+
+        // Counting stops once this many solutions have been found.
+        private final int limit;
+
+        // The number of search nodes visited so far, and whether counting was stopped by the token.
+        private long nodes;
+        private boolean cancelled;
+
+        // The values taken back and the deepest level reached by the last count, for SearchStats, and the depth
+        // of the root when this count continues a parallel one.
+        private long backtracks;
+        private int maxDepth;
+        private final int baseDepth;
+
+        Sequential(BoardState state, SearchStrategy strategy, CancellationToken token, int limit) {
+            this(state, strategy, token, limit, 0);
+        }
+
+        Sequential(BoardState state, SearchStrategy strategy, CancellationToken token, int limit, int baseDepth) {
+            checkLimit(limit);
+            this.state = state;
+            this.strategy = strategy;
+            this.token = token;
+            this.limit = limit;
+            this.baseDepth = baseDepth;
+        }
+
+        /**
+         * @return true if the last count was cut short because the cancellation token was cancelled
+         */
+        boolean wasCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return the number of solutions, capped at the limit; if the count was cancelled, the solutions found
+         * until then
+         */
+        int count() {
+            // Givens that already break a rule have no solutions.
+            if (state.hasContradiction()) {
+                return 0;
+            }
+            cancelled = false;
+            long startNodes = nodes;
+            backtracks = 0;
+            maxDepth = 0;
+            int mark = state.mark();
+            int count = strategy.simplify(state) ? countHelper(0) : 0;
+            state.undo(mark);
+            SearchStats.recordSearch(nodes - startNodes, backtracks, baseDepth + maxDepth, cancelled);
+            return Math.min(count, limit);
+        }
+
+        private int countHelper(int depth) {
+            // Every so often, check whether the count is still needed.
+            if ((++nodes & CancellationToken.POLL_MASK) == 0 && token.poll(CancellationToken.POLL_INTERVAL)) {
+                cancelled = true;
+            }
+            if (cancelled) {
+                return 0;
+            }
+            if (depth > maxDepth) {
+                maxDepth = depth;
+            }
+
+            // First pick an empty cell according to the strategy.
+            int cell = strategy.selectCell(state);
+
+            // Termination condition: we have filled up the board and successfully solved the puzzle.
+            if (cell < 0) {
+                return 1;
+            }
+
+            int solutions = 0;
+            int candidates = state.candidates(cell);
+            while (candidates != 0) {
+                int bit = candidates & -candidates;
+                candidates ^= bit;
+                int mark = state.mark();
+                state.place(cell, Integer.numberOfTrailingZeros(bit) + 1);
+                if (strategy.simplify(state)) {
+                    solutions += countHelper(depth + 1);
+                }
+                // Make sure the value and its deductions are "cleaned" before trying the next one.
+                state.undo(mark);
+                backtracks++;
+                if (solutions >= limit || cancelled) {
+                    return solutions;
+                }
+            }
+            return solutions;
+        }
+    }
+}
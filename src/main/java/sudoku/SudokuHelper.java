@@ -1,11 +1,9 @@
 package sudoku;
 
-import javafx.util.Pair;
-
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.SplittableRandom;
 
 /**
  * Created by sujayt123 on 4/14/16.
@@ -16,45 +14,70 @@ public class SudokuHelper {
         EASY, DIFFICULT, EVIL;
     }
 
-    public static void pruneHelper (int[][] grid, List<Pair<Integer, Integer>> listCoords, Difficulty diff) {
-        if (diff == Difficulty.EVIL) {
-            // (Evil) Left to Right then Top to Bottom
-            for (int r = 0; r < grid.length; r++) {
-                for (int c = 0; c < grid[0].length; c++) {
-                    listCoords.add(new Pair<>(r, c));
-                }
-            }
+    // Unseeded generation draws from one stream per thread, each split off a common root, so that threads
+    // generating at the same time never contend for a shared Random.
+    private static final SplittableRandom ROOT_RANDOM = new SplittableRandom();
+    private static final ThreadLocal<SplittableRandom> THREAD_RANDOM =
+            ThreadLocal.withInitial(SudokuHelper::splitRootRandom);
+
+    private static synchronized SplittableRandom splitRootRandom() {
+        return ROOT_RANDOM.split();
+    }
+
+    /**
+     * @return the random stream of the calling thread, for generation that was not given a seed
+     */
+    static SplittableRandom threadRandom() {
+        return THREAD_RANDOM.get();
+    }
+
+    public static void pruneHelper (int[][] grid, List<Cell> listCoords, Difficulty diff) {
+        int size = grid.length;
+        for (int cell : pruneOrder(size, diff, threadRandom())) {
+            listCoords.add(new Cell(cell / size, cell % size));
         }
+    }
 
-        else if (diff == Difficulty.DIFFICULT) {
+    /**
+     * Determines the sequence of cells the generators try to clear, as cell indexes r * size + c.
+     * @param size the number of rows of the board
+     * @param diff decides the order
+     * @param random shuffles the order of EASY puzzles; the other orders are fixed
+     * @return every cell of the board once
+     */
+    static int[] pruneOrder(int size, Difficulty diff, SplittableRandom random) {
+        int[] order = new int[size * size];
+        if (diff == Difficulty.DIFFICULT) {
             // (Difficult) Wandering along “S”
-            int x = 0;
-            int y = 0;
-            while (x < grid.length) {
-                if (x % 2 == 0) {
-                    while (y < grid[0].length) {
-                        listCoords.add(new Pair<>(x, y));
-                        y++;
-                    }
-                }
-                else {
-                    while (y > 0) {
-                        y--;
-                        listCoords.add(new Pair<>(x, y));
-                    }
+            int i = 0;
+            for (int r = 0; r < size; r++) {
+                for (int c = 0; c < size; c++) {
+                    order[i++] = r * size + (r % 2 == 0 ? c : size - 1 - c);
                 }
-                x++;
             }
+            return order;
         }
 
-        else {
+        // (Evil) Left to Right then Top to Bottom
+        for (int cell = 0; cell < order.length; cell++) {
+            order[cell] = cell;
+        }
+        if (diff == Difficulty.EASY) {
             // (Easy) Randomizing globally
-            for (int r = 0; r < grid.length; r++) {
-                for (int c = 0; c < grid[0].length; c++) {
-                    listCoords.add(new Pair<>(r, c));
-                }
-            }
-            Collections.shuffle(listCoords);
+            shuffle(order, random);
+        }
+        return order;
+    }
+
+    /**
+     * Fisher-Yates shuffle of a whole array, without boxing.
+     */
+    static void shuffle(int[] values, SplittableRandom random) {
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = values[i];
+            values[i] = values[j];
+            values[j] = t;
         }
     }
 
@@ -85,16 +108,31 @@ public class SudokuHelper {
         return java.util.Arrays.stream(grid).map(el -> el.clone()).toArray($ -> grid.clone());
     }
 
+    /**
+     * Copies any view of a board into a new int[][]. Wrap an Integer[][] returned by a solver with GridView.of.
+     * @param board a square sudoku board
+     * @return a 2D array of ints holding the values of "board"
+     */
+    public static int[][] toIntMatrix(GridView board) {
+        int[][] grid = new int[board.size()][board.size()];
+        for (int r = 0; r < grid.length; r++) {
+            for (int c = 0; c < grid.length; c++) {
+                grid[r][c] = board.get(r, c);
+            }
+        }
+        return grid;
+    }
+
     /**
      * Looks through the grid to find the first unassigned cell.
-     * @return an Optional<pair of integers> that specifies the coordinate of an unassigned cell, if any.
+     * @return the coordinates of an unassigned cell, if any.
      */
-    public static Optional<Pair<Integer, Integer>> findUnassignedCell(int[][] grid) {
+    public static Optional<Cell> findUnassignedCell(int[][] grid) {
         int r, c;
         for (r = 0; r < grid.length; r++) {
             for (c = 0; c < grid[0].length; c++) {
                 if (grid[r][c] == 0) {
-                    return Optional.of(new Pair<>(r, c));
+                    return Optional.of(new Cell(r, c));
                 }
             }
         }
@@ -0,0 +1,460 @@
+package sudoku;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static sudoku.SudokuHelper.*;
+
+/**
+ * Serves the solvers and generators over HTTP with the JDK's built-in server, in the one-line board format of
+ * the corpus: size * size characters in row-major order, '.' or '0' for an empty cell and the value in base 36
+ * otherwise (so "1" .. "9", then "a" .. "z" on boards of up to 36x36).
+ *
+ *   POST /solve                                      body: a puzzle; answers its solution
+ *   GET  /generate?nRegions=3&difficulty=EVIL[&seed=n]  answers a new puzzle with a unique solution
+ *   GET  /stats                                      answers one "name value" line per counter
+ *
+ * Answers are text/plain. Malformed requests get 400, puzzles without a solution 422, and requests turned away by
+ * admission control 503 with a Retry-After header.
+ *
+ * Every request runs on a thread of its own: a virtual thread when the JDK has them (21 and later), a pooled
+ * platform thread otherwise. Work is admitted through two lanes. Each lane lets a fixed number of requests run at
+ * once and a fixed number wait for their turn, for at most maxWaitMillis; any request beyond that is shed at once,
+ * so a burst costs a quick 503 rather than an ever-growing queue. Puzzles are first solved in the easy lane, on
+ * the request thread with a node budget, like BatchSudokuSolver does; the few that exhaust it, and every board
+ * generated with more than 3 subregions, move to the hard lane, which searches on a ForkJoinPool of the service
+ * for at most HARD_SOLVE_MILLIS per puzzle.
+ */
+public class SudokuService implements AutoCloseable {
+
+    /**
+     * Admission control for one kind of work.
+     */
+    private static final class Lane {
+        private final String name;
+        private final Semaphore running;
+        private final int maxQueued;
+        private final AtomicInteger queued = new AtomicInteger();
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder shed = new LongAdder();
+
+        Lane(String name, int maxRunning, int maxQueued) {
+            this.name = name;
+            this.running = new Semaphore(maxRunning, true);
+            this.maxQueued = maxQueued;
+        }
+
+        /**
+         * Waits for a turn, unless too many requests are waiting already.
+         * @return true if admitted, in which case the caller must call leave()
+         */
+        boolean enter(long maxWaitMillis) throws InterruptedException {
+            if (running.tryAcquire()) {
+                admitted.increment();
+                return true;
+            }
+            if (queued.incrementAndGet() > maxQueued) {
+                queued.decrementAndGet();
+                shed.increment();
+                return false;
+            }
+            boolean entered;
+            try {
+                entered = running.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+            }
+            finally {
+                queued.decrementAndGet();
+            }
+            (entered ? admitted : shed).increment();
+            return entered;
+        }
+
+        void leave() {
+            running.release();
+        }
+
+        void appendStats(StringBuilder out) {
+            out.append(name).append(".queued ").append(queued.get()).append('\n');
+            out.append(name).append(".admitted ").append(admitted.sum()).append('\n');
+            out.append(name).append(".shed ").append(shed.sum()).append('\n');
+        }
+    }
+
+    /**
+     * Thrown inside a handler to answer with an error status.
+     */
+    private static final class Reply extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        Reply(int status, String message) {
+            super(message, null, false, false);
+            this.status = status;
+        }
+    }
+
+    // The largest request body read, which holds a 36x36 board with room to spare.
+    private static final int MAX_BODY = 4096;
+
+    // How long the hard lane searches for the solution of one puzzle before giving up on it.
+    private static final long HARD_SOLVE_MILLIS = 10000;
+
+    private final HttpServer server;
+    private final ExecutorService requests;
+    private final boolean virtualThreads;
+
+    // The pool the hard lane searches on.
+    private final ForkJoinPool pool;
+
+    private final Lane easy;
+    private final Lane hard;
+
+    // How long an admitted request may wait for its turn in a lane before it is shed.
+    private final long maxWaitMillis;
+
+    // Sequential node budget after which a puzzle moves to the hard lane.
+    private final long stragglerNodes;
+
+    /**
+     * Creates a service on "port" with a lane of one running request per core for easy work, one for hard work,
+     * and room for 64 waiting requests in each.
+     */
+    public SudokuService(int port) throws IOException {
+        this(new InetSocketAddress(port), Runtime.getRuntime().availableProcessors(), 1, 64, 1000, 100000);
+    }
+
+    /**
+     * @param address the address to listen on; port 0 picks a free port (see getPort)
+     * @param easyConcurrency the number of easy requests that may run at once
+     * @param hardConcurrency the number of hard requests that may run at once, each on the whole pool
+     * @param maxQueued the number of requests that may wait for a turn in each lane; more are shed
+     * @param maxWaitMillis how long a waiting request may wait before it is shed
+     * @param stragglerNodes the sequential node budget after which a puzzle moves to the hard lane
+     */
+    public SudokuService(InetSocketAddress address, int easyConcurrency, int hardConcurrency, int maxQueued,
+                         long maxWaitMillis, long stragglerNodes) throws IOException {
+        if (easyConcurrency < 1 || hardConcurrency < 1 || maxQueued < 0) {
+            throw new IllegalArgumentException("Every lane needs room for at least one running request");
+        }
+        this.easy = new Lane("easy", easyConcurrency, maxQueued);
+        this.hard = new Lane("hard", hardConcurrency, maxQueued);
+        this.maxWaitMillis = maxWaitMillis;
+        this.stragglerNodes = stragglerNodes;
+
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        this.virtualThreads = virtual != null;
+        this.requests = virtualThreads ? virtual : Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "sudoku-request");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pool = new ForkJoinPool();
+
+        server = HttpServer.create(address, 0);
+        server.setExecutor(requests);
+        server.createContext("/solve", exchange -> handle(exchange, "POST", this::solve));
+        server.createContext("/generate", exchange -> handle(exchange, "GET", this::generate));
+        server.createContext("/stats", exchange -> handle(exchange, "GET", this::stats));
+    }
+
+    /**
+     * Starts answering requests in the background.
+     * @return this service
+     */
+    public SudokuService start() {
+        server.start();
+        return this;
+    }
+
+    /**
+     * @return the port the service listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return true if requests run on virtual threads
+     */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Stops listening, lets requests in progress finish for up to a second, and releases the threads.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        requests.shutdown();
+        pool.shutdown();
+    }
+
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor, which only JDK 21 and later have.
+     * @return a new executor, or null if virtual threads are not available
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private interface Handler {
+        /**
+         * @return the body of a 200 answer
+         */
+        String answer(HttpExchange exchange) throws Exception;
+    }
+
+    private void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            if (!method.equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", method);
+                throw new Reply(405, "Use " + method);
+            }
+            body = handler.answer(exchange);
+        }
+        catch (Reply reply) {
+            status = reply.status;
+            body = reply.getMessage();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = 503;
+            body = "Shutting down";
+        }
+        catch (Exception e) {
+            status = 500;
+            body = e.toString();
+        }
+        if (status == 503) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+        }
+        byte[] bytes = (body + "\n").getBytes(StandardCharsets.US_ASCII);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=US-ASCII");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private String solve(HttpExchange exchange) throws Exception {
+        int[][] puzzle = parseBoard(readBody(exchange));
+        BoardValidationHelper.Report rules = BoardValidationHelper.validate(puzzle);
+        if (!rules.isValid()) {
+            throw new Reply(422, "The puzzle breaks the rules: " + rules);
+        }
+        int[][] solution = null;
+        boolean solved = false;
+
+        // Only boards of up to 25x25 fit the engine ParSudokuSolver shares; larger ones go straight to the hard lane.
+        boolean straggler = puzzle.length > BoardGeometry.MAX_REGIONS * BoardGeometry.MAX_REGIONS;
+        if (!straggler) {
+            enter(easy);
+            try {
+                SeqSudokuSolver seqSolver = new SeqSudokuSolver(deepCopyIntMatrix(puzzle), SearchStrategy.DEFAULT);
+                seqSolver.setNodeLimit(stragglerNodes);
+                solved = seqSolver.successfulSolve();
+                straggler = !solved && seqSolver.wasCancelled();
+                solution = solved ? seqSolver.getGrid() : null;
+            }
+            finally {
+                easy.leave();
+            }
+        }
+        if (straggler) {
+            exchange.getResponseHeaders().set("X-Sudoku-Lane", hard.name);
+            enter(hard);
+            try {
+                solution = solveHard(puzzle);
+                solved = solution != null;
+            }
+            finally {
+                hard.leave();
+            }
+        }
+        else {
+            exchange.getResponseHeaders().set("X-Sudoku-Lane", easy.name);
+        }
+
+        if (!solved) {
+            throw new Reply(422, "The puzzle has no solution");
+        }
+        // Never serve a wrong answer.
+        BoardValidationHelper.Report report = BoardValidationHelper.verifySolution(puzzle, solution);
+        if (!report.isValid()) {
+            throw new Reply(500, "Invalid solution: " + report);
+        }
+        return formatBoard(solution);
+    }
+
+    /**
+     * Solves a puzzle of the hard lane within HARD_SOLVE_MILLIS.
+     * @return the solution, or null if the puzzle has none
+     * @throws Reply (503) if the search gave up
+     */
+    private int[][] solveHard(int[][] puzzle) throws Exception {
+        SearchBudget budget = SearchBudget.ofTime(HARD_SOLVE_MILLIS, TimeUnit.MILLISECONDS);
+        int[][] solution;
+        if (puzzle.length > BoardGeometry.MAX_REGIONS * BoardGeometry.MAX_REGIONS) {
+            LargeSudokuSolver solver = new LargeSudokuSolver(GridView.of(puzzle));
+            solver.setToken(budget);
+            solution = solver.successfulSolveWithRestarts(LargeSudokuSolver.RESTART_NODES, threadRandom().split())
+                    ? toIntMatrix(solver.getBoard()) : null;
+        }
+        else {
+            solution = ParSudokuSolver.solveWithin(puzzle, SearchStrategy.DEFAULT, budget, pool).getSolution();
+        }
+        if (solution == null && budget.isCancelled()) {
+            throw new Reply(503, "Gave up after " + HARD_SOLVE_MILLIS + " ms");
+        }
+        return solution;
+    }
+
+    private String generate(HttpExchange exchange) throws Exception {
+        Map<String, String> query = parseQuery(exchange.getRequestURI());
+        int nRegions;
+        Difficulty diff;
+        Long seed = null;
+        try {
+            nRegions = Integer.parseInt(query.getOrDefault("nRegions", "3"));
+            diff = Difficulty.valueOf(query.getOrDefault("difficulty", "EASY"));
+            if (query.containsKey("seed")) {
+                seed = Long.parseLong(query.get("seed"));
+            }
+        }
+        catch (IllegalArgumentException e) {
+            throw new Reply(400, "Expected nRegions=<2 .. 6>, difficulty=<EASY|DIFFICULT|EVIL> and seed=<long>");
+        }
+        if (nRegions < 2 || nRegions > BoardGeometry.MAX_LARGE_REGIONS) {
+            throw new Reply(400, "Unsupported number of subregions: " + nRegions);
+        }
+
+        // 9x9 and smaller boards prune in milliseconds; larger ones take the node-limited checks of the large engine.
+        Lane lane = nRegions <= 3 ? easy : hard;
+        exchange.getResponseHeaders().set("X-Sudoku-Lane", lane.name);
+        enter(lane);
+        try {
+            if (lane == easy) {
+                int[][] solution = seed == null ? SeqSudokuGenerator.generateTransformedCompleteBoard(nRegions)
+                        : SeqSudokuGenerator.generateTransformedCompleteBoard(nRegions, seed);
+                return formatBoard(seed == null ? SeqSudokuGenerator.pruneCompleteBoard(solution, diff)
+                        : SeqSudokuGenerator.pruneCompleteBoard(solution, diff, seed));
+            }
+            return formatBoard(seed == null ? LargeSudokuGenerator.generatePuzzle(nRegions, diff)
+                    : LargeSudokuGenerator.generatePuzzle(nRegions, diff, seed));
+        }
+        finally {
+            lane.leave();
+        }
+    }
+
+    private String stats(HttpExchange exchange) {
+        StringBuilder out = new StringBuilder();
+        out.append("virtualThreads ").append(virtualThreads).append('\n');
+        easy.appendStats(out);
+        hard.appendStats(out);
+        SearchStats stats = SearchStats.get();
+        out.append("searches ").append(stats.getSearches()).append('\n');
+        out.append("nodesVisited ").append(stats.getNodesVisited());
+        return out.toString();
+    }
+
+    private void enter(Lane lane) throws Exception {
+        if (!lane.enter(maxWaitMillis)) {
+            throw new Reply(503, "The " + lane.name + " lane is full");
+        }
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException, Reply {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        try (InputStream in = exchange.getRequestBody()) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                body.write(buffer, 0, n);
+                if (body.size() > MAX_BODY) {
+                    throw new Reply(400, "The request body is too large");
+                }
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.US_ASCII).trim();
+    }
+
+    private static Map<String, String> parseQuery(URI uri) {
+        Map<String, String> query = new HashMap<>();
+        if (uri.getQuery() != null) {
+            for (String pair : uri.getQuery().split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    query.put(pair.substring(0, eq), pair.substring(eq + 1));
+                }
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Reads a board in the one-line format.
+     * @throws Reply (400) if the line does not hold a square board of 4 .. 36 rows or a cell is out of range
+     */
+    private static int[][] parseBoard(String line) throws Reply {
+        int size = (int) Math.round(Math.sqrt(line.length()));
+        int nRegions = (int) Math.round(Math.sqrt(size));
+        if (size * size != line.length() || nRegions * nRegions != size || nRegions < 2
+                || nRegions > BoardGeometry.MAX_LARGE_REGIONS) {
+            throw new Reply(400, "Expected a board of 4, 9, 16, 25 or 36 rows on one line");
+        }
+        int[][] grid = new int[size][size];
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            int value = ch == '.' ? 0 : Character.digit(ch, 36);
+            if (value < 0 || value > size) {
+                throw new Reply(400, "Unexpected character '" + ch + "' at " + i);
+            }
+            grid[i / size][i % size] = value;
+        }
+        return grid;
+    }
+
+    private static String formatBoard(int[][] grid) {
+        StringBuilder line = new StringBuilder(grid.length * grid.length);
+        for (int[] row : grid) {
+            for (int value : row) {
+                line.append(value == 0 ? '.' : Character.forDigit(value, 36));
+            }
+        }
+        return line.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        SudokuService service = new SudokuService(port).start();
+        System.out.println("Listening on port " + service.getPort()
+                + (service.usesVirtualThreads() ? " (virtual threads)" : " (platform threads)"));
+    }
+}
@@ -3,8 +3,25 @@
  */
 
 import junit.framework.TestCase;
+import sudoku.BoardState;
+import sudoku.BoardTransform;
+import sudoku.BoardValidationHelper;
+import sudoku.DlxSudokuSolver;
+import sudoku.GranularityController;
+import sudoku.GridView;
+import sudoku.LargeSudokuGenerator;
+import sudoku.PackedBoardStore;
 import sudoku.ParSudokuGenerator;
+import sudoku.PuzzlePool;
 import sudoku.SeqSudokuGenerator;
+import sudoku.SolutionCounter;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
 
 import static sudoku.SudokuHelper.*;
 import static sudoku.BoardValidationHelper.*;
@@ -16,8 +33,10 @@ public class SudokuGeneratorCorrectnessTest extends TestCase {
         for (int i = 0 ; i < 5; i++) {
             grid = SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(2), Difficulty.EVIL);
             assertTrue(isValid(toTwoDIntegerArray(grid)));
+            assertEquals(1, DlxSudokuSolver.countSolutions(grid, 2));
             grid = ParSudokuGenerator.pruneCompleteBoard(ParSudokuGenerator.generateValidCompleteBoard(2), Difficulty.EVIL);
             assertTrue(isValid(toTwoDIntegerArray(grid)));
+            assertEquals(1, DlxSudokuSolver.countSolutions(grid, 2));
         }
     }
 
@@ -26,9 +45,196 @@ public class SudokuGeneratorCorrectnessTest extends TestCase {
         for (int i = 0 ; i < 5; i++) {
             grid = SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), Difficulty.EVIL);
             assertTrue(isValid(toTwoDIntegerArray(grid)));
+            assertEquals(1, DlxSudokuSolver.countSolutions(grid, 2));
             grid = ParSudokuGenerator.pruneCompleteBoard(ParSudokuGenerator.generateValidCompleteBoard(3), Difficulty.EVIL);
             assertTrue(isValid(toTwoDIntegerArray(grid)));
+            assertEquals(1, DlxSudokuSolver.countSolutions(grid, 2));
+        }
+    }
+
+    public void testSolutionCount_forking() throws Exception {
+        // Force splitting on a multi-worker pool, whatever the number of cores of the test machine.
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int i = 0; i < 3; i++) {
+                int[][] grid = ParSudokuGenerator.pruneCompleteBoard(ParSudokuGenerator.generateValidCompleteBoard(3), Difficulty.EVIL);
+                ParSudokuGenerator.ParHelper unique = new ParSudokuGenerator.ParHelper(grid, 0, 3);
+                pool.invoke(unique);
+                assertEquals(1, unique.getSolutionCount());
+
+                // Clearing the top three rows leaves many solutions; the count stops shortly after the second.
+                int[][] open = deepCopyIntMatrix(grid);
+                for (int r = 0; r < 3; r++) {
+                    open[r] = new int[9];
+                }
+                ParSudokuGenerator.ParHelper ambiguous = new ParSudokuGenerator.ParHelper(open, 0, 3);
+                pool.invoke(ambiguous);
+                assertTrue(ambiguous.getSolutionCount() > 1);
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testSolutionCount_limits() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            int[][] grid = SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), Difficulty.EVIL);
+            assertTrue(SolutionCounter.hasUniqueSolution(grid));
+            assertEquals(1, SolutionCounter.countSolutions(grid, 5, pool, GranularityController.fixedDepth(3)));
+
+            // An empty 4x4 board has 288 solutions.
+            int[][] empty = new int[4][4];
+            assertEquals(288, SolutionCounter.countSolutionsSequentially(empty, 1000));
+            assertEquals(288, SolutionCounter.countSolutions(empty, 1000, pool, GranularityController.fixedDepth(3)));
+            assertEquals(10, SolutionCounter.countSolutions(empty, 10, pool, GranularityController.fixedDepth(3)));
+            assertEquals(1, SolutionCounter.countSolutionsSequentially(empty, 1));
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testRemainsUnique() throws Exception {
+        int[][] solution = SeqSudokuGenerator.generateValidCompleteBoard(3);
+        int[][] nearlyComplete = deepCopyIntMatrix(solution);
+        nearlyComplete[4][4] = 0;
+        assertTrue(SolutionCounter.remainsUnique(nearlyComplete, solution, 4, 4));
+        // The check ignores whatever the cleared cell holds.
+        assertFalse(DlxSudokuSolver.hasSolutionWithout(solution, 4, 4, solution[4][4]));
+
+        // Pruning already tried to remove every given that is left, so removing any of them now must fail.
+        int[][] puzzle = SeqSudokuGenerator.pruneCompleteBoard(solution, Difficulty.EVIL);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            assertTrue(SolutionCounter.remainsUnique(nearlyComplete, solution, 4, 4, pool));
+            for (int r = 0; r < 9; r++) {
+                for (int c = 0; c < 9; c++) {
+                    if (puzzle[r][c] != 0) {
+                        int[][] g = deepCopyIntMatrix(puzzle);
+                        g[r][c] = 0;
+                        assertFalse(SolutionCounter.remainsUnique(g, solution, r, c));
+                        assertFalse(SolutionCounter.remainsUnique(g, solution, r, c, pool));
+                        assertEquals(2, SolutionCounter.countSolutionsSequentially(g, 2));
+                    }
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testSpeculativePruning() throws Exception {
+        // Speculation must not change the result: the same order of cells gives the same puzzle.
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int i = 0; i < 3; i++) {
+                int[][] solution = SeqSudokuGenerator.generateValidCompleteBoard(3);
+                for (Difficulty diff : new Difficulty[]{Difficulty.EVIL, Difficulty.DIFFICULT}) {
+                    int[][] expected = SeqSudokuGenerator.pruneCompleteBoard(solution, diff);
+                    int[][] actual = ParSudokuGenerator.pruneCompleteBoard(solution, diff, pool);
+                    assertTrue(Arrays.deepEquals(expected, actual));
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
         }
     }
 
+    public void testSeededGeneration() throws Exception {
+        // The same seed gives the same board and puzzle, whatever generator or number of workers is used.
+        int[][] solution = SeqSudokuGenerator.generateValidCompleteBoard(3, 42);
+        assertTrue(Arrays.deepEquals(solution, SeqSudokuGenerator.generateValidCompleteBoard(3, 42)));
+        assertTrue(Arrays.deepEquals(solution, ParSudokuGenerator.generateValidCompleteBoard(3, 42)));
+        assertTrue(Arrays.deepEquals(SeqSudokuGenerator.generateTransformedCompleteBoard(4, 42),
+                ParSudokuGenerator.generateTransformedCompleteBoard(4, 42)));
+
+        int[][] expected = SeqSudokuGenerator.pruneCompleteBoard(solution, Difficulty.EASY, 7);
+        assertTrue(SolutionCounter.hasUniqueSolution(expected));
+        for (int threads = 1; threads <= 4; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                int[][] actual = ParSudokuGenerator.pruneCompleteBoard(solution, Difficulty.EASY, 7, pool);
+                assertTrue(Arrays.deepEquals(expected, actual));
+            }
+            finally {
+                pool.shutdown();
+            }
+        }
+
+        assertTrue(Arrays.deepEquals(LargeSudokuGenerator.generatePuzzle(4, Difficulty.EASY, 42),
+                LargeSudokuGenerator.generatePuzzle(4, Difficulty.EASY, 42)));
+
+        // Without the from-scratch check, a large puzzle is still unique.
+        int[][] large = BoardTransform.randomCompleteBoard(4, new SplittableRandom(42));
+        int[][] unchecked = LargeSudokuGenerator.pruneCompleteBoard(large, Difficulty.EVIL,
+                LargeSudokuGenerator.DEFAULT_CHECK_NODES, 0, 42);
+        assertTrue(SolutionCounter.hasUniqueSolution(unchecked));
+        assertTrue(Arrays.deepEquals(unchecked, LargeSudokuGenerator.pruneCompleteBoard(large, Difficulty.EVIL,
+                LargeSudokuGenerator.DEFAULT_CHECK_NODES, 0, 42)));
+    }
+
+    public void testTransformedCompleteBoards() throws Exception {
+        for (int nRegions = 2; nRegions <= 5; nRegions++) {
+            int[][] grid = SeqSudokuGenerator.generateTransformedCompleteBoard(nRegions);
+            assertEquals(nRegions * nRegions, grid.length);
+            assertTrue(BoardValidationHelper.isValid(GridView.of(grid)));
+            assertEquals(-1, new BoardState(grid).firstEmptyCell());
+        }
+
+        // Transforms keep puzzles valid and can be undone.
+        int[][] puzzle = SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), Difficulty.EVIL);
+        BoardTransform transform = BoardTransform.random(3, new SplittableRandom(7));
+        int[][] transformed = transform.apply(puzzle);
+        assertTrue(SolutionCounter.hasUniqueSolution(transformed));
+        assertTrue(Arrays.deepEquals(puzzle, transform.inverse().apply(transformed)));
+    }
+
+    public void testPuzzlePool() throws Exception {
+        Path dir = Files.createTempDirectory("puzzle-pool");
+        try (PuzzlePool pool = new PuzzlePool(4, 1)) {
+            for (int i = 0; i < 6; i++) {
+                assertTrue(SolutionCounter.hasUniqueSolution(pool.take(2, Difficulty.EVIL)));
+            }
+            PuzzlePool.Stats stats = pool.getStats(2, Difficulty.EVIL);
+            assertEquals(6, stats.getHits() + stats.getMisses());
+            assertEquals(0, stats.getFailed());
+            assertNull(stats.getLastFailure());
+
+            // Wait for the background workers to fill the queue back up, then save it.
+            for (int i = 0; i < 500 && pool.getStats(2, Difficulty.EVIL).getAvailable() < 4; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(4, pool.save(dir));
+        }
+
+        // A store of boards the pool cannot generate, and one whose name does not match its boards, are skipped.
+        try (PackedBoardStore.Writer writer = PackedBoardStore.create(dir.resolve("puzzles-36-EVIL.sdkp"), 6)) {
+            writer.add(BoardTransform.randomCompleteBoard(6));
+        }
+        try (PackedBoardStore.Writer writer = PackedBoardStore.create(dir.resolve("puzzles-16-EASY.sdkp"), 3)) {
+            writer.add(SeqSudokuGenerator.generateValidCompleteBoard(3));
+        }
+
+        try (PuzzlePool pool = new PuzzlePool(4, 1)) {
+            assertEquals(4, pool.load(dir));
+            assertEquals(0, pool.getStats(6, Difficulty.EVIL).getAvailable());
+            assertEquals(0, pool.getStats(3, Difficulty.EASY).getAvailable());
+            int[][] puzzle = pool.poll(2, Difficulty.EVIL);
+            assertNotNull(puzzle);
+            assertTrue(SolutionCounter.hasUniqueSolution(puzzle));
+            assertEquals(1, pool.getStats(2, Difficulty.EVIL).getHits());
+        }
+        finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
 }
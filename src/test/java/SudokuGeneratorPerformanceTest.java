@@ -17,12 +17,12 @@ public class SudokuGeneratorPerformanceTest extends TestCase {
             startTime = System.nanoTime();
             SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.EASY);
             endTime = System.nanoTime();
-            totalSeqTime += (endTime - startTime)/10000000.0;
+            totalSeqTime += (endTime - startTime)/1000000.0;
 
             startTime = System.nanoTime();
             ParSudokuGenerator.pruneCompleteBoard(ParSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.EASY);
             endTime = System.nanoTime();
-            totalParTime += (endTime - startTime)/10000000.0;
+            totalParTime += (endTime - startTime)/1000000.0;
         }
 
         System.out.println("Duration seq (board generation) for 50 iterations for 9x9: "  + totalSeqTime + " ms.");
@@ -39,12 +39,12 @@ public class SudokuGeneratorPerformanceTest extends TestCase {
             startTime = System.nanoTime();
             SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.DIFFICULT);
             endTime = System.nanoTime();
-            totalSeqTime += (endTime - startTime)/10000000.0;
+            totalSeqTime += (endTime - startTime)/1000000.0;
 
             startTime = System.nanoTime();
             ParSudokuGenerator.pruneCompleteBoard(ParSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.DIFFICULT);
             endTime = System.nanoTime();
-            totalParTime += (endTime - startTime)/10000000.0;
+            totalParTime += (endTime - startTime)/1000000.0;
         }
 
         System.out.println("Duration seq (board generation) for 50 iterations for 9x9: "  + totalSeqTime + " ms.");
@@ -62,12 +62,12 @@ public class SudokuGeneratorPerformanceTest extends TestCase {
             startTime = System.nanoTime();
             SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.EVIL);
             endTime = System.nanoTime();
-            totalSeqTime += (endTime - startTime)/10000000.0;
+            totalSeqTime += (endTime - startTime)/1000000.0;
 
             startTime = System.nanoTime();
             ParSudokuGenerator.pruneCompleteBoard(ParSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.EVIL);
             endTime = System.nanoTime();
-            totalParTime += (endTime - startTime)/10000000.0;
+            totalParTime += (endTime - startTime)/1000000.0;
         }
 
         System.out.println("Duration seq (board generation) for 50 iterations for 9x9: "  + totalSeqTime + " ms.");
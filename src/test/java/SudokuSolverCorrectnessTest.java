@@ -3,10 +3,56 @@
  */
 
 import junit.framework.TestCase;
+import sudoku.BatchSudokuSolver;
+import sudoku.BoardTransform;
+import sudoku.BoardValidationHelper;
+import sudoku.CancellationToken;
+import sudoku.DlxSudokuSolver;
+import sudoku.GranularityController;
+import sudoku.GridView;
+import sudoku.LargeSudokuGenerator;
+import sudoku.LargeSudokuSolver;
+import sudoku.PackedBoard;
+import sudoku.PackedBoardStore;
+import sudoku.PortfolioSolver;
 import sudoku.ParSudokuSolver;
+import sudoku.PuzzleFilePipeline;
+import sudoku.SearchBudget;
+import sudoku.SearchOutcome;
+import sudoku.SearchStats;
 import sudoku.SeqSudokuSolver;
+import sudoku.SolutionCounter;
+import sudoku.SolutionCache;
 import sudoku.SeqSudokuGenerator;
+import sudoku.SearchStrategy;
 import sudoku.SudokuHelper;
+import sudoku.SudokuService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
 
 
 import static sudoku.BoardValidationHelper.*;
@@ -19,6 +65,594 @@ public class SudokuSolverCorrectnessTest extends TestCase {
             grid = SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.EVIL);
             assertTrue(isValid(SeqSudokuSolver.solvePuzzle(grid)));
             assertTrue(isValid(ParSudokuSolver.solvePuzzle(grid)));
+            assertTrue(isValid(DlxSudokuSolver.solvePuzzle(grid)));
+        }
+        // Dancing Links polls its token like the other solvers, and leaves the matrix reusable when it gives up.
+        DlxSudokuSolver dlx = new DlxSudokuSolver(3);
+        CancellationToken cancelled = new CancellationToken();
+        cancelled.cancel();
+        assertNull(dlx.solve(new int[9][9], cancelled));
+        assertTrue(dlx.wasCancelled());
+        assertTrue(isValid(SudokuHelper.toTwoDIntegerArray(dlx.solve(new int[9][9]))));
+        assertFalse(dlx.wasCancelled());
+    }
+
+    public void testSudoku_9_9_strategies() throws Exception {
+        SearchStrategy[] strategies = {SearchStrategy.NAIVE, SearchStrategy.MRV, SearchStrategy.MRV_LCV,
+                SearchStrategy.PROPAGATE_MRV};
+        int[][] grid;
+        for (int i = 0; i < 3; i++) {
+            grid = SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.EVIL);
+            for (SearchStrategy strategy : strategies) {
+                assertTrue(isValid(SeqSudokuSolver.solvePuzzle(grid, strategy)));
+                assertTrue(isValid(ParSudokuSolver.solvePuzzle(grid, strategy)));
+            }
+        }
+    }
+
+    public void testSudoku_9_9_concurrent() throws Exception {
+        final int nPuzzles = 8;
+        List<int[][]> puzzles = new ArrayList<>();
+        for (int i = 0; i < nPuzzles; i++) {
+            puzzles.add(SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.EVIL));
+        }
+        // Independent parallel solves sharing the common pool must not see each other's results.
+        ExecutorService callers = Executors.newFixedThreadPool(nPuzzles);
+        try {
+            List<Future<Integer[][]>> results = new ArrayList<>();
+            for (int[][] puzzle : puzzles) {
+                results.add(callers.submit(() -> ParSudokuSolver.solvePuzzle(puzzle)));
+            }
+            for (int i = 0; i < nPuzzles; i++) {
+                Integer[][] solution = results.get(i).get();
+                assertTrue(isValid(solution));
+                assertTrue(matchesGivens(puzzles.get(i), solution));
+            }
+        }
+        finally {
+            callers.shutdown();
+        }
+    }
+
+    public void testSudoku_9_9_forking() throws Exception {
+        // Force splitting on a multi-worker pool, whatever the number of cores of the test machine.
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            int[][] grid;
+            for (int i = 0; i < 3; i++) {
+                grid = SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.EVIL);
+                Integer[][] solution = ParSudokuSolver.solvePuzzle(grid, SearchStrategy.MRV, GranularityController.fixedDepth(3), pool);
+                assertTrue(isValid(solution));
+                assertTrue(matchesGivens(grid, solution));
+                solution = ParSudokuSolver.solvePuzzle(grid, SearchStrategy.DEFAULT, GranularityController.DEFAULT, pool);
+                assertTrue(isValid(solution));
+                assertTrue(matchesGivens(grid, solution));
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testSudoku_9_9_batch() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<int[][]> puzzles = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                puzzles.add(SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.EVIL));
+            }
+            // Two equal givens in the first row: no solution.
+            int[][] broken = new int[9][9];
+            broken[0][0] = 5;
+            broken[0][8] = 5;
+            puzzles.add(broken);
+
+            // A tiny node budget sends most puzzles down the parallel fallback.
+            BatchSudokuSolver batch = new BatchSudokuSolver(pool, 2, 16, SearchStrategy.MRV);
+            boolean[] seen = new boolean[puzzles.size()];
+            batch.solveAll(puzzles.iterator(), result -> {
+                int index = (int) result.getIndex();
+                assertFalse(seen[index]);
+                seen[index] = true;
+                assertNull(result.getError());
+                assertSame(puzzles.get(index), result.getPuzzle());
+                if (result.getPuzzle() == broken) {
+                    assertNull(result.getSolution());
+                }
+                else {
+                    Integer[][] solution = SudokuHelper.toTwoDIntegerArray(result.getSolution());
+                    assertTrue(isValid(solution));
+                    assertTrue(matchesGivens(result.getPuzzle(), solution));
+                }
+            });
+            for (boolean b : seen) {
+                assertTrue(b);
+            }
+
+            // The same puzzles from a publisher, which is only asked for as many as there is room for.
+            int[] received = new int[1];
+            // The producer closes the publisher once it has submitted every puzzle, which completes the input.
+            SubmissionPublisher<int[][]> publisher = new SubmissionPublisher<>();
+            Thread producer = new Thread(() -> {
+                while (publisher.getNumberOfSubscribers() == 0) {
+                    Thread.yield();
+                }
+                puzzles.forEach(publisher::submit);
+                publisher.close();
+            });
+            producer.start();
+            batch.solveAll(publisher, result -> {
+                received[0]++;
+                assertNull(result.getError());
+                assertSame(puzzles.get((int) result.getIndex()), result.getPuzzle());
+            });
+            producer.join();
+            assertEquals(puzzles.size(), received[0]);
+
+            // An Error in one puzzle is reported in its result instead of leaving the batch waiting for it.
+            SearchStrategy failing = new SearchStrategy(state -> {
+                throw new StackOverflowError();
+            }, SearchStrategy.Values.ASCENDING);
+            List<BatchSudokuSolver.Result> failed = new ArrayList<>();
+            new BatchSudokuSolver(pool, 2, 16, failing).solveAll(puzzles.subList(0, 3).iterator(), failed::add);
+            assertEquals(3, failed.size());
+            for (BatchSudokuSolver.Result result : failed) {
+                assertTrue(result.getError() instanceof StackOverflowError);
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testSudoku_9_9_file() throws Exception {
+        List<int[][]> puzzles = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            int[][] grid = SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.EVIL);
+            puzzles.add(grid);
+            for (int[] row : grid) {
+                for (int value : row) {
+                    text.append(value == 0 ? '.' : (char) ('0' + value));
+                }
+            }
+            text.append(i % 2 == 0 ? "\n" : "\r\n");
+        }
+        // Two equal givens in the first row: no solution, so an empty output line.
+        text.append("55").append(new String(new char[79]).replace('\0', '0'));
+
+        Path input = Files.createTempFile("puzzles", ".txt");
+        Path output = Files.createTempFile("solutions", ".txt");
+        try {
+            Files.write(input, text.toString().getBytes(StandardCharsets.US_ASCII));
+            PuzzleFilePipeline.Stats stats = new PuzzleFilePipeline().run(input, output);
+            assertEquals(6, stats.getPuzzles());
+            assertEquals(5, stats.getSolved());
+
+            List<String> lines = Files.readAllLines(output, StandardCharsets.US_ASCII);
+            assertEquals(6, lines.size());
+            for (int i = 0; i < puzzles.size(); i++) {
+                Integer[][] solution = new Integer[9][9];
+                for (int c = 0; c < 81; c++) {
+                    solution[c / 9][c % 9] = lines.get(i).charAt(c) - '0';
+                }
+                assertTrue(isValid(solution));
+                assertTrue(matchesGivens(puzzles.get(i), solution));
+            }
+            assertEquals("", lines.get(5));
+        }
+        finally {
+            Files.delete(input);
+            Files.delete(output);
+        }
+    }
+
+    public void testSudoku_9_9_packed() throws Exception {
+        List<int[][]> puzzles = new ArrayList<>();
+        Path file = Files.createTempFile("puzzles", ".sdkp");
+        try {
+            try (PackedBoardStore.Writer writer = PackedBoardStore.create(file, 3)) {
+                for (int i = 0; i < 3; i++) {
+                    int[][] grid = SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.EVIL);
+                    puzzles.add(grid);
+                    writer.add(grid);
+                }
+            }
+            PackedBoardStore store = PackedBoardStore.open(file);
+            assertEquals(3, store.count());
+            for (int i = 0; i < 3; i++) {
+                PackedBoard puzzle = store.get(i);
+                assertTrue(Arrays.deepEquals(puzzles.get(i), puzzle.toGrid()));
+                assertTrue(isValid(puzzle));
+
+                SeqSudokuSolver solver = new SeqSudokuSolver(puzzle, SearchStrategy.DEFAULT);
+                assertTrue(solver.successfulSolve());
+                PackedBoard solution = PackedBoard.pack(solver.getBoard());
+                assertTrue(isValid(solution));
+                assertTrue(matchesGivens(puzzles.get(i), SudokuHelper.toTwoDIntegerArray(solution.toGrid())));
+            }
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    public void testSudoku_9_9_cancelled() throws Exception {
+        int[][] puzzle = SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.EVIL);
+        int[][] grid = SudokuHelper.deepCopyIntMatrix(puzzle);
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        // A cancelled search gives up and leaves the grid as it was given.
+        SeqSudokuSolver solver = new SeqSudokuSolver(grid, SearchStrategy.NAIVE, token);
+        assertFalse(solver.successfulSolve());
+        assertTrue(solver.wasCancelled());
+        assertTrue(Arrays.deepEquals(puzzle, grid));
+
+        // Cancelling the shared token that is never cancelled is harmless.
+        CancellationToken.NONE.cancel();
+        assertFalse(CancellationToken.NONE.isCancelled());
+        assertTrue(isValid(SeqSudokuSolver.solvePuzzle(puzzle)));
+    }
+
+    private static boolean matchesGivens(int[][] puzzle, Integer[][] solution) {
+        for (int r = 0; r < puzzle.length; r++) {
+            for (int c = 0; c < puzzle.length; c++) {
+                if (solution[r][c] == 0 || (puzzle[r][c] != 0 && puzzle[r][c] != solution[r][c])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public void testSudoku_9_9_cache() throws Exception {
+        // Look every puzzle up, however easy, so that the cache is exercised.
+        SolutionCache cache = new SolutionCache(16, 0);
+        int[][] puzzle = SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.EVIL);
+        assertTrue(isValid(SeqSudokuSolver.solvePuzzle(puzzle, cache)));
+        assertEquals(1, cache.getMisses());
+
+        for (int i = 0; i < 3; i++) {
+            int[][] variant = BoardTransform.random(3, new SplittableRandom(i)).apply(puzzle);
+            Integer[][] solution = ParSudokuSolver.solvePuzzle(variant, cache);
+            assertTrue(isValid(solution));
+            for (int r = 0; r < 9; r++) {
+                for (int c = 0; c < 9; c++) {
+                    assertTrue(variant[r][c] == 0 || variant[r][c] == solution[r][c]);
+                }
+            }
+        }
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.size());
+    }
+
+    public void testSudoku_16_16_large() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            int[][] grid = LargeSudokuGenerator.generatePuzzle(4, SudokuHelper.Difficulty.EVIL);
+            assertEquals(1, LargeSudokuSolver.countSolutions(GridView.of(grid), 2));
+            assertTrue(isValid(LargeSudokuSolver.solvePuzzle(grid)));
+            assertTrue(isValid(SeqSudokuSolver.solvePuzzle(grid)));
+
+            // Restarting after every node still ends, since the budget doubles each time.
+            LargeSudokuSolver solver = new LargeSudokuSolver(GridView.of(grid));
+            assertTrue(solver.successfulSolveWithRestarts(1, new SplittableRandom(i)));
+            assertTrue(isValid(solver.getBoard()));
+        }
+    }
+
+    public void testSudoku_36_36() throws Exception {
+        // A board too large for int masks: clear every third diagonal of a complete board and solve it back.
+        int[][] solution = BoardTransform.randomCompleteBoard(6, new SplittableRandom(36));
+        int[][] grid = SudokuHelper.deepCopyIntMatrix(solution);
+        for (int r = 0; r < 36; r++) {
+            for (int c = (36 - r % 3) % 3; c < 36; c += 3) {
+                grid[r][c] = 0;
+            }
+        }
+        Integer[][] solved = LargeSudokuSolver.solvePuzzle(grid);
+        assertTrue(isValid(solved));
+        for (int r = 0; r < 36; r++) {
+            for (int c = 0; c < 36; c++) {
+                assertTrue(grid[r][c] == 0 || grid[r][c] == solved[r][c]);
+            }
+        }
+    }
+
+    public void testSearchStats() throws Exception {
+        SearchStats stats = SearchStats.get();
+        long searches = stats.getSearches();
+        long forked = stats.getTasksForked();
+        long pruneMillisCount = stats.getLatencies().containsKey("PRUNE 9x9 EVIL")
+                ? stats.getLatencies().get("PRUNE 9x9 EVIL").getCount() : 0;
+
+        int[][] grid = SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.EVIL);
+        assertTrue(isValid(SeqSudokuSolver.solvePuzzle(grid, SearchStrategy.MRV)));
+        // With its top three rows cleared the puzzle is open enough for the parallel solver to split.
+        int[][] open = SudokuHelper.deepCopyIntMatrix(grid);
+        for (int r = 0; r < 3; r++) {
+            open[r] = new int[9];
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertTrue(isValid(ParSudokuSolver.solvePuzzle(open, SearchStrategy.DEFAULT, GranularityController.fixedDepth(3), pool)));
+        }
+        finally {
+            pool.shutdown();
+        }
+        assertTrue(stats.getSearches() > searches);
+        assertTrue(stats.getTasksForked() > forked);
+        assertTrue(stats.getTasksInlined() <= stats.getTasksForked());
+        assertTrue(stats.getNodesVisited() >= stats.getSearches());
+        assertEquals(pruneMillisCount + 1, stats.getLatencies().get("PRUNE 9x9 EVIL").getCount());
+
+        // Counts of 9x9 boards run on Dancing Links, which reports its searches too.
+        searches = stats.getSearches();
+        long nodes = stats.getNodesVisited();
+        assertTrue(SolutionCounter.hasUniqueSolution(grid));
+        assertTrue(stats.getSearches() > searches);
+        assertTrue(stats.getNodesVisited() > nodes);
+
+        // The same numbers can be read by any JMX client.
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(SearchStats.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+        assertTrue((Long) server.getAttribute(name, "Searches") >= stats.getSearches() - 1);
+        TabularData latencies = (TabularData) server.getAttribute(name, "Latencies");
+        CompositeData solve = (CompositeData) latencies.get(new Object[]{"SOLVE 9x9 ALL"}).get("value");
+        assertTrue((Long) solve.get("count") >= 2);
+        assertTrue((Double) solve.get("p99Millis") <= (Double) solve.get("maxMillis"));
+    }
+
+    public void testValidation() throws Exception {
+        int[][] solution = SeqSudokuGenerator.generateValidCompleteBoard(3);
+        int[][] puzzle = SeqSudokuGenerator.pruneCompleteBoard(solution, SudokuHelper.Difficulty.EVIL);
+        assertTrue(BoardValidationHelper.verifySolution(puzzle, solution).isValid());
+        assertTrue(BoardValidationHelper.verifySolution(puzzle, SeqSudokuSolver.solvePuzzle(puzzle)).isValid());
+        assertTrue(BoardValidationHelper.validate(puzzle).isValid());
+
+        // Copying the second value of the first row over the first breaks the row and the box at (0, 1), and the
+        // first column further down, where that value already was.
+        int[][] wrong = SudokuHelper.deepCopyIntMatrix(solution);
+        wrong[0][0] = wrong[0][1];
+        List<BoardValidationHelper.Violation> violations = BoardValidationHelper.validate(wrong).getViolations();
+        assertEquals(3, violations.size());
+        assertEquals(BoardValidationHelper.Kind.DUPLICATE_IN_ROW, violations.get(0).getKind());
+        assertEquals(BoardValidationHelper.Kind.DUPLICATE_IN_BOX, violations.get(1).getKind());
+        assertEquals(1, violations.get(1).getCol());
+        assertEquals(BoardValidationHelper.Kind.DUPLICATE_IN_COLUMN, violations.get(2).getKind());
+        assertEquals(0, violations.get(2).getCol());
+        Integer[][] boxed = SudokuHelper.toTwoDIntegerArray(wrong);
+        assertFalse(isValid(boxed));
+        assertFalse(isValidAlongRows(boxed));
+        assertFalse(isValidAlongCols(boxed));
+        assertFalse(isValidinSubgrids(boxed));
+
+        // A valid board that leaves a cell empty, or a puzzle whose given was changed, is not solved.
+        int empty = 0;
+        int kept = 0;
+        for (int cell = 0; cell < 81; cell++) {
+            if (puzzle[cell / 9][cell % 9] == 0) {
+                empty = cell;
+            }
+            else {
+                kept = cell;
+            }
+        }
+        int[][] other = SudokuHelper.deepCopyIntMatrix(solution);
+        other[empty / 9][empty % 9] = 0;
+        assertTrue(BoardValidationHelper.validate(other).isValid());
+        assertEquals(BoardValidationHelper.Kind.EMPTY_CELL,
+                BoardValidationHelper.verifySolution(puzzle, other).getViolations().get(0).getKind());
+        int[][] given = SudokuHelper.deepCopyIntMatrix(puzzle);
+        given[kept / 9][kept % 9] = solution[kept / 9][kept % 9] % 9 + 1;
+        assertEquals(BoardValidationHelper.Kind.GIVEN_CHANGED,
+                BoardValidationHelper.verifySolution(given, solution).getViolations().get(0).getKind());
+
+        other[empty / 9][empty % 9] = 10;
+        assertEquals(BoardValidationHelper.Kind.OUT_OF_RANGE,
+                BoardValidationHelper.validate(other).getViolations().get(0).getKind());
+        assertEquals(BoardValidationHelper.Kind.BAD_SHAPE,
+                BoardValidationHelper.validate(new int[][]{{1, 2}, {2}}).getViolations().get(0).getKind());
+
+        // The batch check reports every board in order.
+        List<int[][]> puzzles = new ArrayList<>();
+        List<int[][]> solutions = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            puzzles.add(puzzle);
+            solutions.add(i == 217 ? wrong : solution);
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<BoardValidationHelper.Report> reports = BoardValidationHelper.verifyAll(puzzles, solutions, pool);
+            for (int i = 0; i < 300; i++) {
+                assertEquals(i != 217, reports.get(i).isValid());
+            }
+            assertEquals(299, BoardValidationHelper.validateAll(solutions, pool).stream()
+                    .filter(BoardValidationHelper.Report::isValid).count());
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testService() throws Exception {
+        try (SudokuService service = new SudokuService(new InetSocketAddress("127.0.0.1", 0), 2, 1, 4, 1000, 100000).start()) {
+            String base = "http://127.0.0.1:" + service.getPort();
+
+            String puzzle = request(base + "/generate?nRegions=3&difficulty=EVIL&seed=7", null, 200);
+            assertEquals(81, puzzle.length());
+            int[][] grid = new int[9][9];
+            for (int i = 0; i < 81; i++) {
+                grid[i / 9][i % 9] = puzzle.charAt(i) == '.' ? 0 : puzzle.charAt(i) - '0';
+            }
+            assertTrue(SolutionCounter.hasUniqueSolution(grid));
+            assertEquals(puzzle, request(base + "/generate?nRegions=3&difficulty=EVIL&seed=7", null, 200));
+
+            String solution = request(base + "/solve", puzzle, 200);
+            int[][] solved = new int[9][9];
+            for (int i = 0; i < 81; i++) {
+                solved[i / 9][i % 9] = solution.charAt(i) - '0';
+            }
+            assertTrue(BoardValidationHelper.verifySolution(grid, solved).isValid());
+
+            // Larger boards use base 36 digits.
+            String large = request(base + "/generate?nRegions=4&difficulty=EASY&seed=7", null, 200);
+            assertEquals(256, large.length());
+            assertEquals(-1, request(base + "/solve", large, 200).indexOf('.'));
+
+            request(base + "/solve", "12345", 400);
+            request(base + "/solve", "11..............", 422);
+            request(base + "/solve", "12....3...4.....", 422);
+            request(base + "/generate?nRegions=9", null, 400);
+            assertTrue(request(base + "/stats", null, 200).contains("easy.admitted"));
+        }
+    }
+
+    public void testBudgets() throws Exception {
+        int[][] puzzle = SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.EVIL);
+        int[][] unsolvable = {{1, 2, 0, 0}, {0, 0, 3, 0}, {0, 0, 4, 0}, {0, 0, 0, 0}};
+        int[][] empty = new int[25][25];
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            SearchOutcome outcome = SeqSudokuSolver.solveWithin(puzzle, SearchStrategy.DEFAULT, SearchBudget.ofTime(1, TimeUnit.MINUTES));
+            assertEquals(SearchOutcome.Status.SOLVED, outcome.getStatus());
+            assertTrue(BoardValidationHelper.verifySolution(puzzle, outcome.getSolution()).isValid());
+            outcome = ParSudokuSolver.solveWithin(puzzle, SearchStrategy.DEFAULT, SearchBudget.ofNodes(1000000), pool);
+            assertEquals(SearchOutcome.Status.SOLVED, outcome.getStatus());
+            assertTrue(BoardValidationHelper.verifySolution(puzzle, outcome.getSolution()).isValid());
+
+            assertEquals(SearchOutcome.Status.UNSOLVABLE, SeqSudokuSolver.solveWithin(unsolvable, SearchStrategy.DEFAULT, SearchBudget.ofNodes(1000)).getStatus());
+            assertEquals(SearchOutcome.Status.UNSOLVABLE, SolutionCounter.countSolutionsWithin(unsolvable, 2, SearchBudget.ofNodes(1000)).getStatus());
+
+            // Filling an empty 25x25 board takes far more than 16 nodes, in one search or across forked tasks.
+            outcome = SeqSudokuSolver.solveWithin(empty, SearchStrategy.DEFAULT, SearchBudget.ofNodes(16));
+            assertEquals(SearchOutcome.Status.BUDGET_EXCEEDED, outcome.getStatus());
+            assertNull(outcome.getSolution());
+            outcome = ParSudokuSolver.solveWithin(empty, SearchStrategy.DEFAULT, SearchBudget.ofNodes(16), pool);
+            assertEquals(SearchOutcome.Status.BUDGET_EXCEEDED, outcome.getStatus());
+
+            // An empty 9x9 board has about 6.7e21 solutions: counting them all only stops at the deadline.
+            outcome = SolutionCounter.countSolutionsWithin(new int[9][9], Integer.MAX_VALUE, SearchBudget.ofTime(50, TimeUnit.MILLISECONDS), pool);
+            assertEquals(SearchOutcome.Status.BUDGET_EXCEEDED, outcome.getStatus());
+            assertTrue(outcome.getSolutionCount() > 0);
+            assertTrue(outcome.getElapsedNanos() < TimeUnit.SECONDS.toNanos(5));
+            outcome = SolutionCounter.countSolutionsWithin(puzzle, 2, SearchBudget.ofTime(1, TimeUnit.MINUTES), pool);
+            assertEquals(SearchOutcome.Status.SOLVED, outcome.getStatus());
+            assertEquals(1, outcome.getSolutionCount());
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testPortfolio() throws Exception {
+        int[][] puzzle = SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.EVIL);
+        int[][] large = LargeSudokuGenerator.generatePuzzle(4, SudokuHelper.Difficulty.EVIL);
+        int[][] unsolvable = {{1, 2, 0, 0}, {0, 0, 3, 0}, {0, 0, 4, 0}, {0, 0, 0, 0}};
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            PortfolioSolver portfolio = new PortfolioSolver(pool, Arrays.asList(PortfolioSolver.dancingLinks(), PortfolioSolver.sequential(SearchStrategy.DEFAULT),
+                    PortfolioSolver.parallel(SearchStrategy.DEFAULT, GranularityController.DEFAULT), PortfolioSolver.randomRestarts(100)));
+            int[][] copy = SudokuHelper.deepCopyIntMatrix(puzzle);
+            assertTrue(verifySolution(puzzle, portfolio.solve(copy)).isValid());
+            assertTrue(Arrays.deepEquals(puzzle, copy));
+            assertTrue(verifySolution(large, portfolio.solve(large)).isValid());
+
+            SearchOutcome outcome = portfolio.solveWithin(unsolvable, SearchBudget.ofNodes(100000));
+            assertEquals(SearchOutcome.Status.UNSOLVABLE, outcome.getStatus());
+            assertNull(outcome.getSolution());
+            assertEquals(3, portfolio.getWins().values().stream().mapToLong(Long::longValue).sum());
+
+            // The budget is shared, so no engine fills an empty 25x25 board with 16 nodes between them.
+            outcome = portfolio.solveWithin(new int[25][25], SearchBudget.ofNodes(16));
+            assertEquals(SearchOutcome.Status.BUDGET_EXCEEDED, outcome.getStatus());
+            assertEquals(3, portfolio.getWins().values().stream().mapToLong(Long::longValue).sum());
+
+            // Restarts alone solve too, and prove the absence of a solution.
+            PortfolioSolver restarts = new PortfolioSolver(pool, Arrays.asList(PortfolioSolver.randomRestarts(1)));
+            assertTrue(verifySolution(puzzle, restarts.solve(puzzle)).isValid());
+            assertNull(restarts.solve(unsolvable));
+            assertEquals(Long.valueOf(2), restarts.getWins().get("randomRestarts"));
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testPortfolioStopsLosers() throws Exception {
+        int[][] puzzle = SeqSudokuGenerator.pruneCompleteBoard(SeqSudokuGenerator.generateValidCompleteBoard(3), SudokuHelper.Difficulty.EVIL);
+        int[][] solution = SudokuHelper.toIntMatrix(GridView.of(SeqSudokuSolver.solvePuzzle(puzzle)));
+        // Two losers that only return once the race is cancelled, started before the winner.
+        CountDownLatch stopped = new CountDownLatch(2);
+        PortfolioSolver.Engine loser = new PortfolioSolver.Engine() {
+            @Override
+            public String name() {
+                return "loser";
+            }
+
+            @Override
+            public int[][] solve(int[][] grid, CancellationToken token, ForkJoinPool pool) {
+                while (!token.poll(CancellationToken.POLL_INTERVAL)) {
+                    Thread.onSpinWait();
+                }
+                stopped.countDown();
+                return null;
+            }
+        };
+        PortfolioSolver.Engine winner = new PortfolioSolver.Engine() {
+            @Override
+            public String name() {
+                return "winner";
+            }
+
+            @Override
+            public int[][] solve(int[][] grid, CancellationToken token, ForkJoinPool pool) {
+                return SudokuHelper.deepCopyIntMatrix(solution);
+            }
+        };
+
+        // A single worker, which also runs the solve itself: the engines and the wait must not hold it.
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            PortfolioSolver portfolio = new PortfolioSolver(pool, Arrays.asList(loser, loser, winner));
+            int[][] answer = pool.submit(() -> portfolio.solve(puzzle)).get(30, TimeUnit.SECONDS);
+            assertTrue(Arrays.deepEquals(solution, answer));
+            assertTrue(stopped.await(5, TimeUnit.SECONDS));
+            assertEquals(Long.valueOf(1), portfolio.getWins().get("winner"));
+            assertEquals(Long.valueOf(0), portfolio.getWins().get("loser"));
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        // The default portfolio owns its pool and shuts it down on close.
+        try (PortfolioSolver portfolio = new PortfolioSolver()) {
+            assertTrue(verifySolution(puzzle, portfolio.solve(puzzle)).isValid());
+        }
+    }
+
+    /**
+     * Sends a GET, or a POST of "body" if it is not null, and checks the status of the answer.
+     * @return the first line of the answer
+     */
+    private static String request(String url, String body, int status) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (body != null) {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        assertEquals(status, connection.getResponseCode());
+        ByteArrayOutputStream answer = new ByteArrayOutputStream();
+        try (InputStream in = status == 200 ? connection.getInputStream() : connection.getErrorStream()) {
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                answer.write(buffer, 0, n);
+            }
         }
+        return new String(answer.toByteArray(), StandardCharsets.US_ASCII).trim();
     }
 }